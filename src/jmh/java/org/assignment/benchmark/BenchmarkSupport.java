@@ -0,0 +1,59 @@
+package org.assignment.benchmark;
+
+import org.assignment.domainmodel.Document;
+import org.thymeleaf.TemplateEngine;
+import org.thymeleaf.context.Context;
+import org.thymeleaf.spring6.SpringTemplateEngine;
+import org.thymeleaf.templatemode.TemplateMode;
+import org.thymeleaf.templateresolver.ClassLoaderTemplateResolver;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Builds the pieces of the PDF pipeline outside Spring, configured the way Spring Boot configures them.
+ */
+final class BenchmarkSupport {
+
+    private BenchmarkSupport() {
+    }
+
+    static TemplateEngine templateEngine() {
+        ClassLoaderTemplateResolver resolver = new ClassLoaderTemplateResolver();
+        resolver.setPrefix("templates/");
+        resolver.setSuffix(".html");
+        resolver.setTemplateMode(TemplateMode.HTML);
+        resolver.setCharacterEncoding("UTF-8");
+
+        SpringTemplateEngine engine = new SpringTemplateEngine();
+        engine.setTemplateResolver(resolver);
+        return engine;
+    }
+
+    static String processTemplate(TemplateEngine templateEngine, Document document) {
+        return processTemplate(templateEngine, document, true, true);
+    }
+
+    static String processTemplate(TemplateEngine templateEngine, Document document, boolean firstChunk,
+                                  boolean lastChunk) {
+        Context context = new Context();
+        context.setVariable("document", document);
+        context.setVariable("continuation", !firstChunk);
+        context.setVariable("moreChunks", !lastChunk);
+        return templateEngine.process("document", context);
+    }
+
+    /**
+     * Moves the template's inline stylesheet into {@code document.css} under the given directory and links it,
+     * so a reused renderer can keep the parsed stylesheet cached by URI.
+     */
+    static String linkStylesheet(String html, Path directory) throws IOException {
+        int start = html.indexOf("<style>");
+        int end = html.indexOf("</style>");
+        Files.writeString(directory.resolve("document.css"), html.substring(start + "<style>".length(), end));
+        return html.substring(0, start)
+                + "<link rel=\"stylesheet\" type=\"text/css\" href=\"document.css\"/>"
+                + html.substring(end + "</style>".length());
+    }
+}
@@ -0,0 +1,76 @@
+package org.assignment.benchmark;
+
+import org.assignment.domainmodel.Document;
+import org.assignment.mockdata.MockDocumentData;
+import org.assignment.service.ChunkedPdfRenderer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.thymeleaf.TemplateEngine;
+import org.xhtmlrenderer.pdf.ITextRenderer;
+
+import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * HTML rendering of a large invoice as one document versus in merged chunks. Run with {@code -prof gc} to compare
+ * allocation; the heap is capped so that the monolithic render shows its memory pressure.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 3, time = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx1g")
+public class ChunkedRenderBenchmark {
+
+    @Param({"10000", "50000"})
+    private int itemCount;
+
+    @Param({"1000"})
+    private int chunkItems;
+
+    private Document document;
+    private TemplateEngine templateEngine;
+    private ChunkedPdfRenderer chunkedRenderer;
+
+    @Setup
+    public void setUp() {
+        document = new MockDocumentData().createLargeDocument(itemCount);
+        templateEngine = BenchmarkSupport.templateEngine();
+        chunkedRenderer = new ChunkedPdfRenderer(chunkItems, 0);
+    }
+
+    @TearDown
+    public void tearDown() {
+        chunkedRenderer.shutdown();
+    }
+
+    @Benchmark
+    public void monolithic() throws Exception {
+        renderHtml(document, true, true, OutputStream.nullOutputStream());
+    }
+
+    @Benchmark
+    public void chunked() throws Exception {
+        chunkedRenderer.render(document, OutputStream.nullOutputStream(), this::renderHtml);
+    }
+
+    private void renderHtml(Document chunk, boolean firstChunk, boolean lastChunk, OutputStream outputStream)
+            throws Exception {
+        ITextRenderer renderer = new ITextRenderer();
+        renderer.setDocumentFromString(
+                BenchmarkSupport.processTemplate(templateEngine, chunk, firstChunk, lastChunk));
+        renderer.layout();
+        renderer.createPDF(outputStream);
+    }
+}
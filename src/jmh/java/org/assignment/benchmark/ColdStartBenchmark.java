@@ -0,0 +1,76 @@
+package org.assignment.benchmark;
+
+import org.assignment.DynamicPDFGenerator;
+import org.assignment.domainmodel.Document;
+import org.assignment.mockdata.MockDocumentData;
+import org.assignment.service.PdfGeneratorService;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cold start of the application in a fresh JVM per fork: the time until it reports ready, and until the first
+ * invoice PDF is generated, with and without the render warm-up. Each fork measures a single start, so run
+ * enough forks for the spread to show.
+ *
+ * The AppCDS archive is tied to the classpath of the packaged jar, so its effect is measured on the jar built by
+ * the {@code cds} profile, started with and without {@code -XX:SharedArchiveFile}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 0)
+@Measurement(iterations = 1)
+@Fork(5)
+public class ColdStartBenchmark {
+
+    @Param({"false", "true"})
+    private boolean warmup;
+
+    private ConfigurableApplicationContext context;
+
+    @TearDown(Level.Iteration)
+    public void tearDown() {
+        if (context != null) {
+            context.close();
+        }
+    }
+
+    /**
+     * Until the application is ready, which is after the warm-up when enabled.
+     */
+    @Benchmark
+    public ConfigurableApplicationContext coldStart() {
+        context = start();
+        return context;
+    }
+
+    @Benchmark
+    public String timeToFirstPdf() throws Exception {
+        context = start();
+        // Content no earlier fork has stored, so the PDF is rendered
+        Document document = new MockDocumentData().createSampleDocument();
+        document.setSeller("Cold Start Seller " + UUID.randomUUID());
+        return context.getBean(PdfGeneratorService.class).generateAndStorePdf(document);
+    }
+
+    private ConfigurableApplicationContext start() {
+        // Arguments, as default properties would not override application.properties
+        return new SpringApplicationBuilder(DynamicPDFGenerator.class)
+                .run("--server.port=0", "--pdf.warmup.enabled=" + warmup);
+    }
+}
@@ -0,0 +1,68 @@
+package org.assignment.benchmark;
+
+import org.assignment.domainmodel.Document;
+import org.assignment.mockdata.MockDocumentData;
+import org.assignment.service.DocumentContentHasher;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the streaming {@link DocumentContentHasher} with the previous string-building content hash.
+ * Run with {@code -prof gc} to compare allocation per operation.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ContentHashBenchmark {
+
+    @Param({"10", "1000", "10000"})
+    private int itemCount;
+
+    private Document document;
+
+    @Setup
+    public void setUp() {
+        document = new MockDocumentData().createLargeDocument(itemCount);
+    }
+
+    @Benchmark
+    public byte[] streamingHash() {
+        return DocumentContentHasher.hash(document);
+    }
+
+    @Benchmark
+    public byte[] stringBuildingHash() throws NoSuchAlgorithmException {
+        // The content hash as computed before DocumentContentHasher was introduced
+        StringBuilder contentBuilder = new StringBuilder();
+        contentBuilder.append(document.getSellerGstin() != null ? document.getSellerGstin() : "")
+                .append("_")
+                .append(document.getBuyerGstin() != null ? document.getBuyerGstin() : "")
+                .append("_")
+                .append(document.toString());
+
+        if (document.getItems() != null) {
+            document.getItems().forEach(item -> {
+                contentBuilder.append(String.format("|%.2f:%.2f", item.getRate(), item.getAmount()));
+            });
+        }
+
+        MessageDigest digest = MessageDigest.getInstance("SHA-256");
+        return digest.digest(contentBuilder.toString().getBytes());
+    }
+}
@@ -0,0 +1,64 @@
+package org.assignment.benchmark;
+
+import org.assignment.domainmodel.Document;
+import org.assignment.mockdata.MockDocumentData;
+import org.assignment.service.NativeInvoiceRenderer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.thymeleaf.TemplateEngine;
+import org.xhtmlrenderer.pdf.ITextRenderer;
+
+import java.io.ByteArrayOutputStream;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Full render of the built-in invoice, through Thymeleaf and Flying Saucer versus drawn directly with iText tables.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 3)
+@Measurement(iterations = 5, time = 3)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class NativeRendererBenchmark {
+
+    @Param({"10", "100", "1000", "10000"})
+    private int itemCount;
+
+    private Document document;
+    private TemplateEngine templateEngine;
+    private NativeInvoiceRenderer nativeRenderer;
+
+    @Setup
+    public void setUp() {
+        document = new MockDocumentData().createLargeDocument(itemCount);
+        templateEngine = BenchmarkSupport.templateEngine();
+        nativeRenderer = new NativeInvoiceRenderer();
+    }
+
+    @Benchmark
+    public byte[] html() throws Exception {
+        ITextRenderer renderer = new ITextRenderer();
+        renderer.setDocumentFromString(BenchmarkSupport.processTemplate(templateEngine, document));
+        renderer.layout();
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        renderer.createPDF(outputStream);
+        return outputStream.toByteArray();
+    }
+
+    @Benchmark
+    public byte[] nativeTables() throws Exception {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        nativeRenderer.render(document, outputStream);
+        return outputStream.toByteArray();
+    }
+}
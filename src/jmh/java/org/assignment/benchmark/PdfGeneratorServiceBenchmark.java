@@ -0,0 +1,105 @@
+package org.assignment.benchmark;
+
+import org.assignment.DynamicPDFGenerator;
+import org.assignment.domainmodel.Document;
+import org.assignment.mockdata.MockDocumentData;
+import org.assignment.service.PdfGeneratorService;
+import org.assignment.service.PdfStorage;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.boot.WebApplicationType;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Stream;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * PdfGeneratorService as wired by Spring: a full render and store of new content, and a cache hit.
+ * PDFs are stored in a temporary directory of the run's own, whatever the configured layout or backend.
+ * Those generated are deleted through the storage after every iteration, and the directory at the end.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 3)
+@Measurement(iterations = 5, time = 3)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class PdfGeneratorServiceBenchmark {
+
+    @Param({"1", "100", "1000", "10000", "50000"})
+    private int itemCount;
+
+    private Path storageDirectory;
+    private ConfigurableApplicationContext context;
+    private PdfGeneratorService pdfGeneratorService;
+    private PdfStorage pdfStorage;
+    private Document cachedDocument;
+    private Document uniqueDocument;
+    private long sequence;
+    private final List<String> generatedFiles = new ArrayList<>();
+
+    @Setup
+    public void setUp() throws Exception {
+        storageDirectory = Files.createTempDirectory("pdf-benchmark");
+        context = new SpringApplicationBuilder(DynamicPDFGenerator.class)
+                .web(WebApplicationType.NONE)
+                .run("--logging.level.org.assignment=WARN", "--pdf.storage.path=" + storageDirectory);
+        pdfGeneratorService = context.getBean(PdfGeneratorService.class);
+        pdfStorage = context.getBean(PdfStorage.class);
+
+        MockDocumentData mockData = new MockDocumentData();
+        cachedDocument = mockData.createLargeDocument(itemCount);
+        cachedDocument.setBuyer("Benchmark cache hit");
+        generatedFiles.add(pdfGeneratorService.generateAndStorePdf(cachedDocument));
+        uniqueDocument = mockData.createLargeDocument(itemCount);
+    }
+
+    @TearDown(Level.Iteration)
+    public void deleteGeneratedFiles() throws Exception {
+        // Keep the cache-hit PDF, which is the first file generated
+        while (generatedFiles.size() > 1) {
+            pdfStorage.delete(generatedFiles.remove(generatedFiles.size() - 1));
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        context.close();
+        try (Stream<Path> paths = Files.walk(storageDirectory)) {
+            for (Path path : paths.sorted(Comparator.reverseOrder()).toList()) {
+                Files.deleteIfExists(path);
+            }
+        }
+    }
+
+    @Benchmark
+    public String endToEnd() throws Exception {
+        // A new buyer per invocation makes every document a cache miss
+        uniqueDocument.setBuyer("Benchmark buyer " + sequence++);
+        String fileName = pdfGeneratorService.generateAndStorePdf(uniqueDocument);
+        generatedFiles.add(fileName);
+        return fileName;
+    }
+
+    @Benchmark
+    public String cacheHitLookup() throws Exception {
+        return pdfGeneratorService.generateAndStorePdf(cachedDocument);
+    }
+}
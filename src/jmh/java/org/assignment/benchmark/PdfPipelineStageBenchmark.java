@@ -0,0 +1,115 @@
+package org.assignment.benchmark;
+
+import org.assignment.domainmodel.Document;
+import org.assignment.mockdata.MockDocumentData;
+import org.assignment.service.DocumentContentHasher;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.thymeleaf.TemplateEngine;
+import org.xhtmlrenderer.pdf.ITextRenderer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Each stage of the PDF pipeline in isolation, from content hashing to writing the PDF to disk.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 3)
+@Measurement(iterations = 5, time = 3)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class PdfPipelineStageBenchmark {
+
+    @Param({"1", "100", "1000", "10000", "50000"})
+    private int itemCount;
+
+    private Document document;
+    private TemplateEngine templateEngine;
+    private String processedHtml;
+    private ITextRenderer laidOutRenderer;
+    private byte[] pdfBytes;
+    private Path storageDirectory;
+    private long storedFiles;
+
+    @Setup
+    public void setUp() throws Exception {
+        document = new MockDocumentData().createLargeDocument(itemCount);
+        templateEngine = BenchmarkSupport.templateEngine();
+        processedHtml = BenchmarkSupport.processTemplate(templateEngine, document);
+
+        laidOutRenderer = new ITextRenderer();
+        laidOutRenderer.setDocumentFromString(processedHtml);
+        laidOutRenderer.layout();
+
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        laidOutRenderer.createPDF(outputStream);
+        pdfBytes = outputStream.toByteArray();
+
+        storageDirectory = Files.createTempDirectory("pdf-stage-benchmark");
+    }
+
+    @TearDown(Level.Iteration)
+    public void clearStorage() throws Exception {
+        try (Stream<Path> files = Files.list(storageDirectory)) {
+            files.map(Path::toFile).forEach(File::delete);
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        try (Stream<Path> files = Files.walk(storageDirectory)) {
+            files.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+        }
+    }
+
+    @Benchmark
+    public byte[] contentHash() {
+        return DocumentContentHasher.hash(document);
+    }
+
+    @Benchmark
+    public String templateProcess() {
+        return BenchmarkSupport.processTemplate(templateEngine, document);
+    }
+
+    /**
+     * XHTML parsing plus ITextRenderer.layout(), which needs a freshly set document each time.
+     */
+    @Benchmark
+    public ITextRenderer layout() {
+        ITextRenderer renderer = new ITextRenderer();
+        renderer.setDocumentFromString(processedHtml);
+        renderer.layout();
+        return renderer;
+    }
+
+    @Benchmark
+    public int createPdf() throws Exception {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream(pdfBytes.length);
+        laidOutRenderer.createPDF(outputStream);
+        return outputStream.size();
+    }
+
+    @Benchmark
+    public Path diskStore() throws Exception {
+        return Files.write(storageDirectory.resolve("stage-" + storedFiles++ + ".pdf"), pdfBytes);
+    }
+}
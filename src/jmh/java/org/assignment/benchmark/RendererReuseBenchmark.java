@@ -0,0 +1,79 @@
+package org.assignment.benchmark;
+
+import org.assignment.mockdata.MockDocumentData;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.thymeleaf.TemplateEngine;
+import org.xhtmlrenderer.pdf.ITextRenderer;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures whether reusing an ITextRenderer across PDFs pays off compared with a new renderer per PDF.
+ * PdfGeneratorService reuses one per render thread for invoices of up to pdf.render.reuse-max-items items.
+ * The linked variant moves the template stylesheet into a file so the reused renderer only parses it once.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(3)
+public class RendererReuseBenchmark {
+
+    @Param({"2", "100"})
+    private int itemCount;
+
+    private String inlineHtml;
+    private String linkedHtml;
+    private String baseUrl;
+    private ITextRenderer reusedRenderer;
+
+    @Setup
+    public void setUp() throws Exception {
+        TemplateEngine templateEngine = BenchmarkSupport.templateEngine();
+        inlineHtml = BenchmarkSupport.processTemplate(templateEngine,
+                new MockDocumentData().createLargeDocument(itemCount));
+
+        Path stylesheetDirectory = Files.createTempDirectory("renderer-reuse");
+        linkedHtml = BenchmarkSupport.linkStylesheet(inlineHtml, stylesheetDirectory);
+        // The base must not be the stylesheet itself, since setDocument evicts the sheet cached under the base
+        baseUrl = stylesheetDirectory.toUri().toString();
+        reusedRenderer = new ITextRenderer();
+    }
+
+    @Benchmark
+    public byte[] newRendererPerPdf() throws Exception {
+        return render(new ITextRenderer(), inlineHtml, null);
+    }
+
+    @Benchmark
+    public byte[] reusedRendererInlineStylesheet() throws Exception {
+        return render(reusedRenderer, inlineHtml, null);
+    }
+
+    @Benchmark
+    public byte[] reusedRendererLinkedStylesheet() throws Exception {
+        return render(reusedRenderer, linkedHtml, baseUrl);
+    }
+
+    private static byte[] render(ITextRenderer renderer, String html, String baseUrl) throws Exception {
+        renderer.setDocumentFromString(html, baseUrl);
+        renderer.layout();
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        renderer.createPDF(outputStream);
+        return outputStream.toByteArray();
+    }
+}
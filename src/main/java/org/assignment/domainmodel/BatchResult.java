@@ -0,0 +1,29 @@
+package org.assignment.domainmodel;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import lombok.Getter;
+
+/**
+ * Outcome of one document in a batch generation request. Exactly one of fileName and error is set.
+ */
+@Getter
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class BatchResult {
+    private final int index;
+    private final String fileName;
+    private final String error;
+
+    private BatchResult(int index, String fileName, String error) {
+        this.index = index;
+        this.fileName = fileName;
+        this.error = error;
+    }
+
+    public static BatchResult success(int index, String fileName) {
+        return new BatchResult(index, fileName, null);
+    }
+
+    public static BatchResult failure(int index, String error) {
+        return new BatchResult(index, null, error);
+    }
+}
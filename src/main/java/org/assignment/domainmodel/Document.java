@@ -17,6 +17,8 @@ public class Document implements Serializable {
     private String buyerGstin;
     private String buyerAddress;
     private List<Item> items;
+    // Stamped onto the rendered invoice, not part of its content hash
+    private PdfOverlay overlay;
 
     @Override
     public String toString() {
@@ -29,6 +31,7 @@ public class Document implements Serializable {
                 .append(",buyerGstin=").append(buyerGstin != null ? buyerGstin : "")
                 .append(",buyerAddress=").append(buyerAddress != null ? buyerAddress : "")
                 .append(",items=").append(formatItems())
+                .append(",overlay=").append(overlay != null ? overlay : "")
                 .append("]");
         return sb.toString();
     }
@@ -53,12 +56,13 @@ public class Document implements Serializable {
                 Objects.equals(buyer, document.buyer) &&
                 Objects.equals(buyerGstin, document.buyerGstin) &&
                 Objects.equals(buyerAddress, document.buyerAddress) &&
-                Objects.equals(items, document.items);
+                Objects.equals(items, document.items) &&
+                Objects.equals(overlay, document.overlay);
     }
 
     @Override
     public int hashCode() {
         return Objects.hash(seller, sellerGstin, sellerAddress,
-                buyer, buyerGstin, buyerAddress, items);
+                buyer, buyerGstin, buyerAddress, items, overlay);
     }
 }
\ No newline at end of file
@@ -0,0 +1,54 @@
+package org.assignment.domainmodel;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonInclude;
+import lombok.Getter;
+
+import java.time.Instant;
+
+/**
+ * State of an asynchronous PDF generation job.
+ */
+@Getter
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class PdfJob {
+
+    public enum Status {
+        QUEUED, RUNNING, COMPLETED, FAILED
+    }
+
+    private final String id;
+    private final Instant submittedAt;
+    private volatile Status status = Status.QUEUED;
+    private volatile Instant startedAt;
+    private volatile Instant completedAt;
+    private volatile String fileName;
+    private volatile String error;
+
+    public PdfJob(String id) {
+        this.id = id;
+        this.submittedAt = Instant.now();
+    }
+
+    public void markRunning() {
+        startedAt = Instant.now();
+        status = Status.RUNNING;
+    }
+
+    public void markCompleted(String fileName) {
+        this.fileName = fileName;
+        completedAt = Instant.now();
+        status = Status.COMPLETED;
+    }
+
+    public void markFailed(String error) {
+        this.error = error;
+        completedAt = Instant.now();
+        status = Status.FAILED;
+    }
+
+    @JsonIgnore
+    public boolean isFinished() {
+        return status == Status.COMPLETED || status == Status.FAILED;
+    }
+}
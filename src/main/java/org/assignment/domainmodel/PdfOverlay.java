@@ -0,0 +1,41 @@
+package org.assignment.domainmodel;
+
+import lombok.Getter;
+import lombok.Setter;
+import java.io.Serializable;
+import java.util.Objects;
+
+/**
+ * Per-copy marks stamped onto an already rendered invoice: a copy label such as "DUPLICATE FOR TRANSPORTER"
+ * at the top of every page, a diagonal watermark and a page footer.
+ */
+@Getter
+@Setter
+public class PdfOverlay implements Serializable {
+    private String copyLabel;
+    private String watermark;
+    private String footer;
+
+    @Override
+    public String toString() {
+        return String.format("PdfOverlay[copyLabel=%s,watermark=%s,footer=%s]",
+                copyLabel != null ? copyLabel : "",
+                watermark != null ? watermark : "",
+                footer != null ? footer : "");
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        PdfOverlay overlay = (PdfOverlay) o;
+        return Objects.equals(copyLabel, overlay.copyLabel) &&
+                Objects.equals(watermark, overlay.watermark) &&
+                Objects.equals(footer, overlay.footer);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(copyLabel, watermark, footer);
+    }
+}
@@ -0,0 +1,14 @@
+package org.assignment.exception;
+
+public class RenderQueueFullException extends PdfGenerationException {
+    private final long retryAfterSeconds;
+
+    public RenderQueueFullException(String message, long retryAfterSeconds) {
+        super(message);
+        this.retryAfterSeconds = retryAfterSeconds;
+    }
+
+    public long getRetryAfterSeconds() {
+        return retryAfterSeconds;
+    }
+}
@@ -0,0 +1,14 @@
+package org.assignment.exception;
+
+/**
+ * A document took longer than the render deadline to render, or is quarantined because it did before.
+ */
+public class RenderTimeoutException extends PdfGenerationException {
+    public RenderTimeoutException(String message) {
+        super(message);
+    }
+
+    public RenderTimeoutException(String message, Throwable cause) {
+        super(message, cause);
+    }
+}
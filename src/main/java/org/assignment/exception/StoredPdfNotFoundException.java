@@ -0,0 +1,14 @@
+package org.assignment.exception;
+
+/**
+ * A PDF was asked for by a file name that is not, or no longer, in storage.
+ */
+public class StoredPdfNotFoundException extends PdfGenerationException {
+    public StoredPdfNotFoundException(String message) {
+        super(message);
+    }
+
+    public StoredPdfNotFoundException(String message, Throwable cause) {
+        super(message, cause);
+    }
+}
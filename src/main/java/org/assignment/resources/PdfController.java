@@ -1,9 +1,24 @@
 package org.assignment.resources;
 
+import com.fasterxml.jackson.databind.MappingIterator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.servlet.http.HttpServletRequest;
 import org.assignment.domainmodel.Document;
+import org.assignment.domainmodel.PdfJob;
+import org.assignment.exception.RenderQueueFullException;
+import org.assignment.exception.RenderTimeoutException;
+import org.assignment.exception.StoredPdfNotFoundException;
+import org.assignment.service.HotPdfCache;
+import org.assignment.service.PdfBatchService;
 import org.assignment.service.PdfGeneratorService;
+import org.assignment.service.PdfJobService;
+import org.assignment.service.PdfStorage;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.core.io.Resource;
+import org.springframework.http.CacheControl;
 import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.GetMapping;
@@ -11,42 +26,207 @@ import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestMethod;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.context.request.ServletWebRequest;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 
 @RestController
 @RequestMapping("/pdf")
 public class PdfController {
 
+    // Stored PDFs never change under their file name
+    private static final CacheControl IMMUTABLE = CacheControl.maxAge(Duration.ofDays(365)).cachePublic().immutable();
+
     @Autowired
     private PdfGeneratorService pdfGeneratorService;
 
+    @Autowired
+    private PdfBatchService pdfBatchService;
+
+    @Autowired
+    private PdfJobService pdfJobService;
+
+    @Autowired
+    private HotPdfCache hotPdfCache;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    /**
+     * Returns the file name of the stored PDF for the document. The request thread is released while the PDF is
+     * rendered, and the response is written once it is stored. Responds with 429 and Retry-After when too many
+     * requests are already waiting for a render.
+     */
     @PostMapping("/generate")
-    public ResponseEntity<String> generateAndStorePdf(@RequestBody Document document) {
+    public CompletableFuture<ResponseEntity<String>> generateAndStorePdf(@RequestBody Document document) {
         // Validate required fields
         if (!pdfGeneratorService.isValidDocument(document)) {
+            return CompletableFuture.completedFuture(ResponseEntity.badRequest()
+                    .body("Invalid document: Required fields are missing"));
+        }
+
+        return pdfGeneratorService.generateAndStorePdfAsync(document)
+                .thenApply(ResponseEntity::ok)
+                .exceptionally(failure -> {
+                    Throwable e = failure instanceof CompletionException ? failure.getCause() : failure;
+                    if (e instanceof RenderQueueFullException) {
+                        long retryAfterSeconds = ((RenderQueueFullException) e).getRetryAfterSeconds();
+                        return ResponseEntity.status(HttpStatus.TOO_MANY_REQUESTS)
+                                .header(HttpHeaders.RETRY_AFTER, String.valueOf(retryAfterSeconds))
+                                .body(e.getMessage());
+                    }
+                    if (e instanceof RenderTimeoutException) {
+                        // Retrying the same document would only time out again
+                        return ResponseEntity.unprocessableEntity()
+                                .body("Document too expensive to render: " + e.getMessage());
+                    }
+                    return ResponseEntity.internalServerError()
+                            .body("Error generating PDF: " + e.getMessage());
+                });
+    }
+
+    /**
+     * Combines stored PDFs, given as a JSON array of file names, into one stored PDF with their pages in order
+     * and returns its file name. Pages are copied from the stored files rather than rendered again.
+     */
+    @PostMapping("/merge")
+    public ResponseEntity<String> mergePdfs(@RequestBody List<String> fileNames) {
+        if (!pdfGeneratorService.isValidMergeRequest(fileNames)) {
             return ResponseEntity.badRequest()
-                    .body("Invalid document: Required fields are missing");
+                    .body("Invalid merge request: Expected a non-empty list of stored PDF file names");
         }
 
         try {
-            String fileName = pdfGeneratorService.generateAndStorePdf(document);
+            String fileName = pdfGeneratorService.mergeStoredPdfs(fileNames);
             return ResponseEntity.ok(fileName);
+        } catch (StoredPdfNotFoundException e) {
+            return ResponseEntity.status(HttpStatus.NOT_FOUND).body(e.getMessage());
         } catch (Exception e) {
             return ResponseEntity.internalServerError()
-                    .body("Error generating PDF: " + e.getMessage());
+                    .body("Error merging PDFs: " + e.getMessage());
         }
     }
 
-    @GetMapping("/download/{fileName}")
-    public ResponseEntity<byte[]> downloadPdf(@PathVariable String fileName) {
+    /**
+     * Generates PDFs for a JSON array or NDJSON stream of documents and streams back one NDJSON result
+     * line per document, in completion order, as soon as each one is done. A document that cannot be parsed
+     * ends the batch with an error line carrying its index, after the results of the documents before it. A
+     * batch cut short by a failure or an interrupt ends with an error line without an index.
+     */
+    @PostMapping(value = "/generate/batch",
+            consumes = {MediaType.APPLICATION_JSON_VALUE, MediaType.APPLICATION_NDJSON_VALUE},
+            produces = MediaType.APPLICATION_NDJSON_VALUE)
+    public ResponseEntity<StreamingResponseBody> generateBatch(HttpServletRequest request) throws IOException {
+        InputStream body = request.getInputStream();
+
+        StreamingResponseBody results = outputStream -> {
+            try (MappingIterator<Document> documents = objectMapper.readerFor(Document.class).readValues(body)) {
+                pdfBatchService.generateBatch(documents, result -> {
+                    outputStream.write(objectMapper.writeValueAsBytes(result));
+                    outputStream.write('\n');
+                    outputStream.flush();
+                });
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                // Tells the client the batch was cut short rather than complete
+                outputStream.write(objectMapper.writeValueAsBytes(
+                        Map.of("error", "Batch interrupted before all documents were processed")));
+                outputStream.write('\n');
+            } catch (RuntimeException e) {
+                // A worker failure ends the batch; results already streamed stay valid
+                outputStream.write(objectMapper.writeValueAsBytes(
+                        Map.of("error", "Error processing batch: " + e.getMessage())));
+                outputStream.write('\n');
+            }
+        };
+
+        return ResponseEntity.ok()
+                .contentType(MediaType.APPLICATION_NDJSON)
+                .body(results);
+    }
+
+    /**
+     * Queues the document for asynchronous rendering and returns the job at once. Responds with 429 and
+     * Retry-After when the render queue is full.
+     */
+    @PostMapping("/jobs")
+    public ResponseEntity<?> submitJob(@RequestBody Document document) {
+        if (!pdfGeneratorService.isValidDocument(document)) {
+            return ResponseEntity.badRequest()
+                    .body("Invalid document: Required fields are missing");
+        }
+
+        try {
+            PdfJob job = pdfJobService.submit(document);
+            return ResponseEntity.accepted()
+                    .location(URI.create("/pdf/jobs/" + job.getId()))
+                    .body(job);
+        } catch (RenderQueueFullException e) {
+            return ResponseEntity.status(HttpStatus.TOO_MANY_REQUESTS)
+                    .header(HttpHeaders.RETRY_AFTER, String.valueOf(e.getRetryAfterSeconds()))
+                    .body(e.getMessage());
+        }
+    }
+
+    @GetMapping("/jobs/stats")
+    public ResponseEntity<Map<String, Object>> getJobStats() {
+        return ResponseEntity.ok(pdfJobService.getStats());
+    }
+
+    @GetMapping("/jobs/{jobId}")
+    public ResponseEntity<PdfJob> getJob(@PathVariable String jobId) {
+        PdfJob job = pdfJobService.getJob(jobId);
+        if (job == null) {
+            return ResponseEntity.notFound().build();
+        }
+        return ResponseEntity.ok(job);
+    }
+
+    @GetMapping("/cache/stats")
+    public ResponseEntity<Map<String, Object>> getCacheStats() {
+        return ResponseEntity.ok(hotPdfCache.getStats());
+    }
+
+    /**
+     * Streams the stored PDF from disk. Range requests are answered with partial content by Spring's
+     * resource handling, so clients can resume interrupted downloads.
+     *
+     * Responses carry the content hash as a strong ETag, Last-Modified and an immutable Cache-Control.
+     * Conditional requests and HEAD are answered from the storage metadata without opening the PDF.
+     */
+    @RequestMapping(value = "/download/{fileName}", method = {RequestMethod.GET, RequestMethod.HEAD})
+    public ResponseEntity<Resource> downloadPdf(@PathVariable String fileName, ServletWebRequest request) {
         try {
-            byte[] pdfBytes = pdfGeneratorService.retrieveStoredPdf(fileName);
+            PdfStorage.StoredPdf stored = pdfGeneratorService.statStoredPdf(fileName);
+            String eTag = stored.contentHash() != null ? "\"" + stored.contentHash() + "\"" : null;
+            // Sets the ETag and Last-Modified of the response, and its status when a precondition applies
+            if (request.checkNotModified(eTag, stored.storedAt().toEpochMilli())) {
+                return ResponseEntity.status(request.getResponse().getStatus()).cacheControl(IMMUTABLE).build();
+            }
 
             HttpHeaders headers = new HttpHeaders();
             headers.setContentType(MediaType.APPLICATION_PDF);
             headers.setContentDispositionFormData("filename", fileName);
+            headers.setCacheControl(IMMUTABLE);
+
+            if (request.getHttpMethod() == HttpMethod.HEAD) {
+                headers.setContentLength(stored.size());
+                headers.set(HttpHeaders.ACCEPT_RANGES, "bytes");
+                return ResponseEntity.ok().headers(headers).build();
+            }
 
-            return ResponseEntity.ok().headers(headers).body(pdfBytes);
+            Resource pdf = pdfGeneratorService.loadStoredPdf(fileName);
+            return ResponseEntity.ok().headers(headers).body(pdf);
         } catch (Exception e) {
             return ResponseEntity.notFound().build();
         }
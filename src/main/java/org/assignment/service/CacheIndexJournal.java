@@ -0,0 +1,329 @@
+package org.assignment.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only journal of content-hash to filename records.
+ *
+ * Every record is framed as {@code [length][crc32][payload]} so a record torn by a crash
+ * is detected on replay and cut off, without losing the records written before it.
+ * The journal is periodically compacted into a snapshot of the live entries.
+ *
+ * The header records the format of the content hashes. A journal of another format, or of the first journal
+ * version that did not record one, replays empty, since none of its hashes would ever be looked up again.
+ */
+public class CacheIndexJournal implements Closeable {
+
+    private static final Logger logger = LoggerFactory.getLogger(CacheIndexJournal.class);
+
+    private static final int MAGIC = 0x50444649; // "PDFI"
+    private static final byte VERSION = 2;
+    private static final int HEADER_SIZE = 6;
+    // Version 1 headers had no hash format and held hashes of the format before DocumentContentHasher's
+    private static final byte VERSION_WITHOUT_HASH_FORMAT = 1;
+    private static final int MAX_RECORD_SIZE = 64 * 1024;
+
+    private static final byte OP_PUT = 1;
+    private static final byte OP_REMOVE = 2;
+
+    // Compact once dead records outnumber live ones and the journal is worth rewriting
+    private static final int MIN_RECORDS_FOR_COMPACTION = 1024;
+
+    private final Path journalFile;
+    private final boolean fsync;
+    private final byte hashFormat;
+
+    private FileChannel channel;
+    private long recordCount;
+    private ScheduledExecutorService compactor;
+
+    public CacheIndexJournal(Path journalFile, boolean fsync) {
+        this(journalFile, fsync, DocumentContentHasher.FORMAT_VERSION);
+    }
+
+    /**
+     * Journals content hashes of the given format.
+     */
+    public CacheIndexJournal(Path journalFile, boolean fsync, byte hashFormat) {
+        this.journalFile = journalFile;
+        this.fsync = fsync;
+        this.hashFormat = hashFormat;
+    }
+
+    /**
+     * Replays the journal and opens it for appending. A torn or corrupt tail is truncated.
+     */
+    public synchronized Map<String, String> replay() throws IOException {
+        Map<String, String> entries = new HashMap<>();
+        Files.createDirectories(journalFile.getParent());
+
+        long validLength = 0;
+        if (Files.exists(journalFile) && Files.size(journalFile) > 0) {
+            validLength = readRecords(entries);
+        }
+
+        channel = FileChannel.open(journalFile, StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+        if (validLength == 0) {
+            channel.truncate(0);
+            channel.write(header());
+            validLength = HEADER_SIZE;
+        } else if (channel.size() > validLength) {
+            logger.warn("Truncating torn tail of invoice cache journal at offset {} (file size {})",
+                    validLength, channel.size());
+            channel.truncate(validLength);
+        }
+        channel.position(validLength);
+        return entries;
+    }
+
+    /**
+     * Sets the journal aside as unreadable and starts an empty one, for when the replay failed.
+     */
+    public synchronized void openEmpty() throws IOException {
+        if (channel != null) {
+            channel.close();
+            channel = null;
+        }
+        if (Files.exists(journalFile)) {
+            Files.move(journalFile, journalFile.resolveSibling(journalFile.getFileName() + ".unreadable"),
+                    StandardCopyOption.REPLACE_EXISTING);
+        }
+        Files.createDirectories(journalFile.getParent());
+        channel = FileChannel.open(journalFile, StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        channel.write(header());
+        recordCount = 0;
+        logger.warn("Started an empty invoice cache journal");
+    }
+
+    public synchronized boolean isOpen() {
+        return channel != null;
+    }
+
+    private long readRecords(Map<String, String> entries) throws IOException {
+        long fileSize = Files.size(journalFile);
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(journalFile)))) {
+            // Magic and version, then the hash format from version 2 on
+            byte version = fileSize > Integer.BYTES && in.readInt() == MAGIC ? in.readByte() : 0;
+            if (version == VERSION_WITHOUT_HASH_FORMAT
+                    || version == VERSION && fileSize >= HEADER_SIZE && in.readByte() != hashFormat) {
+                logger.info("Invoice cache journal {} holds content hashes of another format, starting empty; "
+                        + "their PDFs are rendered again when requested", journalFile);
+                return 0;
+            }
+            if (version != VERSION || fileSize < HEADER_SIZE) {
+                logger.error("Invoice cache journal {} has an unknown format, starting empty", journalFile);
+                return 0;
+            }
+            long position = HEADER_SIZE;
+            CRC32 crc = new CRC32();
+            byte[] payload = new byte[256];
+            while (position < fileSize) {
+                try {
+                    int length = in.readInt();
+                    int checksum = in.readInt();
+                    if (length <= 0 || length > MAX_RECORD_SIZE || position + 8 + length > fileSize) {
+                        break;
+                    }
+                    if (payload.length < length) {
+                        payload = new byte[length];
+                    }
+                    in.readFully(payload, 0, length);
+                    crc.reset();
+                    crc.update(payload, 0, length);
+                    if ((int) crc.getValue() != checksum) {
+                        break;
+                    }
+                    applyRecord(payload, length, entries);
+                    position += 8 + length;
+                    recordCount++;
+                } catch (EOFException e) {
+                    break;
+                }
+            }
+            return position;
+        }
+    }
+
+    private void applyRecord(byte[] payload, int length, Map<String, String> entries) throws IOException {
+        DataInputStream record = new DataInputStream(new ByteArrayInputStream(payload, 0, length));
+        byte op = record.readByte();
+        String key = record.readUTF();
+        if (op == OP_PUT) {
+            entries.put(key, record.readUTF());
+        } else if (op == OP_REMOVE) {
+            entries.remove(key);
+        }
+    }
+
+    public void appendPut(String contentHash, String fileName) throws IOException {
+        append(encode(OP_PUT, contentHash, fileName));
+    }
+
+    public void appendRemove(String contentHash) throws IOException {
+        append(encode(OP_REMOVE, contentHash, null));
+    }
+
+    private synchronized void append(ByteBuffer record) throws IOException {
+        if (channel == null) {
+            throw new IOException("Invoice cache journal is not open");
+        }
+        while (record.hasRemaining()) {
+            channel.write(record);
+        }
+        if (fsync) {
+            channel.force(false);
+        }
+        recordCount++;
+    }
+
+    private static ByteBuffer encode(byte op, String key, String value) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(128);
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(0);
+        out.writeInt(0);
+        out.writeByte(op);
+        out.writeUTF(key);
+        if (value != null) {
+            out.writeUTF(value);
+        }
+        ByteBuffer record = ByteBuffer.wrap(bytes.toByteArray());
+        int length = record.limit() - 8;
+
+        CRC32 crc = new CRC32();
+        crc.update(record.array(), 8, length);
+        record.putInt(0, length);
+        record.putInt(4, (int) crc.getValue());
+        return record;
+    }
+
+    private ByteBuffer header() {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        header.putInt(MAGIC).put(VERSION).put(hashFormat).flip();
+        return header;
+    }
+
+    public synchronized boolean needsCompaction(int liveEntries) {
+        return recordCount >= MIN_RECORDS_FOR_COMPACTION && recordCount > 2L * liveEntries;
+    }
+
+    /**
+     * Rewrites the journal as a snapshot of the given live entries and atomically swaps it in. The entries are
+     * read under the journal's lock, which callers hold across an update of the entries and its append so the
+     * snapshot never misses or revives one. If the snapshot cannot be written or swapped in, appends carry on
+     * in the current journal.
+     */
+    public synchronized void compact(Map<String, String> liveEntries) throws IOException {
+        Path tempFile = journalFile.resolveSibling(journalFile.getFileName() + ".compact");
+        long written = 0;
+        FileChannel compacted = FileChannel.open(tempFile, StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        try {
+            // Not closed, as that would close the channel the journal is appended to from now on
+            DataOutputStream stream = new DataOutputStream(
+                    new BufferedOutputStream(Channels.newOutputStream(compacted), 64 * 1024));
+            stream.write(header().array());
+            for (Map.Entry<String, String> entry : liveEntries.entrySet()) {
+                ByteBuffer record = encode(OP_PUT, entry.getKey(), entry.getValue());
+                stream.write(record.array(), 0, record.limit());
+                written++;
+            }
+            stream.flush();
+            compacted.force(true);
+            // The open channel follows the file through the rename, so it never has to be reopened
+            Files.move(tempFile, journalFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException | RuntimeException e) {
+            compacted.close();
+            Files.deleteIfExists(tempFile);
+            throw e;
+        }
+        syncDirectory(journalFile.getParent());
+
+        FileChannel previous = channel;
+        channel = compacted;
+        if (previous != null) {
+            try {
+                previous.close();
+            } catch (IOException e) {
+                logger.debug("Could not close replaced invoice cache journal", e);
+            }
+        }
+        logger.info("Compacted invoice cache journal from {} to {} records", recordCount, written);
+        recordCount = written;
+    }
+
+    /**
+     * Makes a rename in the directory durable. Not every platform can open a directory for this, in which case
+     * the rename is left to the filesystem.
+     */
+    private static void syncDirectory(Path directory) {
+        try (FileChannel channel = FileChannel.open(directory, StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (IOException e) {
+            logger.debug("Could not fsync directory {}", directory, e);
+        }
+    }
+
+    /**
+     * Periodically compacts the journal in the background when it has accumulated enough dead records.
+     */
+    public synchronized void startBackgroundCompaction(Supplier<Map<String, String>> liveEntries, Duration interval) {
+        if (compactor != null) {
+            return;
+        }
+        compactor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "cache-index-compactor");
+            thread.setDaemon(true);
+            return thread;
+        });
+        compactor.scheduleWithFixedDelay(() -> {
+            try {
+                Map<String, String> live = liveEntries.get();
+                if (needsCompaction(live.size())) {
+                    compact(live);
+                }
+            } catch (Exception e) {
+                logger.error("Error compacting invoice cache journal", e);
+            }
+        }, interval.toMillis(), interval.toMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (compactor != null) {
+            compactor.shutdownNow();
+            compactor = null;
+        }
+        if (channel != null) {
+            channel.close();
+            channel = null;
+        }
+    }
+}
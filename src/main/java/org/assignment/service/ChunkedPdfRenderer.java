@@ -0,0 +1,252 @@
+package org.assignment.service;
+
+import com.itextpdf.text.pdf.PdfCopy;
+import com.itextpdf.text.pdf.PdfReader;
+import com.itextpdf.text.pdf.RandomAccessFileOrArray;
+import com.itextpdf.text.io.RandomAccessSourceFactory;
+import jakarta.annotation.PreDestroy;
+import org.assignment.domainmodel.Document;
+import org.assignment.domainmodel.Item;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Renders documents with very long item lists as a sequence of smaller documents, in parallel, and merges their
+ * pages into one PDF. Only the first chunk carries the seller and buyer header, only the last one the closing
+ * row, and every chunk repeats the item table header.
+ *
+ * Chunks are cut by item count, not by page, and each one starts on a new page. The last page of every chunk
+ * but the last is therefore usually only partly filled, where a single render would have run the items on, so
+ * a chunked invoice can have a few more pages than the same invoice rendered whole.
+ *
+ * At most {@code parallelism} chunks are rendered or waiting to be merged at any time, and rendered chunks are
+ * spooled to temporary files, so peak memory depends on the chunk size rather than the document size.
+ */
+@Component
+public class ChunkedPdfRenderer {
+
+    private static final Logger logger = LoggerFactory.getLogger(ChunkedPdfRenderer.class);
+
+    /**
+     * Renders one chunk of a document as a complete PDF.
+     */
+    @FunctionalInterface
+    public interface ChunkRenderer {
+        void render(Document chunk, boolean firstChunk, boolean lastChunk, OutputStream outputStream)
+                throws Exception;
+    }
+
+    // 1000 unless pdf.render.chunk-items says otherwise; invoices with no more items are rendered whole
+    private final int chunkItems;
+    private final int parallelism;
+    private final ExecutorService workers;
+
+    public ChunkedPdfRenderer(@Value("${pdf.render.chunk-items:1000}") int chunkItems,
+                              @Value("${pdf.render.chunk-parallelism:0}") int parallelism) {
+        this.chunkItems = chunkItems;
+        this.parallelism = parallelism > 0 ? parallelism : Runtime.getRuntime().availableProcessors();
+        AtomicInteger threadCount = new AtomicInteger();
+        this.workers = Executors.newFixedThreadPool(this.parallelism, runnable -> {
+            Thread thread = new Thread(runnable, "pdf-chunk-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    public boolean shouldChunk(Document document) {
+        return chunkItems > 0 && document.getItems() != null && document.getItems().size() > chunkItems;
+    }
+
+    public void render(Document document, OutputStream outputStream, ChunkRenderer chunkRenderer)
+            throws Exception {
+        List<Item> items = document.getItems();
+        int chunkCount = (items.size() + chunkItems - 1) / chunkItems;
+        Deque<Future<Path>> pending = new ArrayDeque<>();
+        // Set once the render gives up on chunks still rendering, which then remove their own files
+        AtomicBoolean abandoned = new AtomicBoolean();
+
+        com.itextpdf.text.Document merged = new com.itextpdf.text.Document();
+        PdfCopy copy = new PdfCopy(merged, outputStream);
+        merged.open();
+        boolean rendered = false;
+        try {
+            int nextChunk = 0;
+            while (nextChunk < chunkCount || !pending.isEmpty()) {
+                // Keep every worker busy without rendering further ahead than that
+                while (nextChunk < chunkCount && pending.size() < parallelism) {
+                    pending.add(submitChunk(document, nextChunk++, chunkCount, chunkRenderer, abandoned));
+                }
+                // Stays pending until appended, so it is cleaned up if the wait is interrupted
+                appendChunk(copy, awaitChunk(pending.peek()));
+                pending.remove();
+            }
+            rendered = true;
+        } catch (InterruptedException e) {
+            // Keep the interrupt for the caller, so the chunks still rendering are cancelled rather than waited for
+            Thread.currentThread().interrupt();
+            discardChunks(pending, abandoned);
+            throw e;
+        } catch (Exception e) {
+            discardChunks(pending, abandoned);
+            throw e;
+        } finally {
+            if (rendered) {
+                merged.close();
+            } else {
+                closeQuietly(merged, copy);
+            }
+        }
+        logger.info("Rendered invoice PDF with {} items in {} chunks", items.size(), chunkCount);
+    }
+
+    private Future<Path> submitChunk(Document document, int chunkIndex, int chunkCount,
+                                     ChunkRenderer chunkRenderer, AtomicBoolean abandoned) {
+        List<Item> items = document.getItems();
+        Document chunk = copyWithItems(document,
+                items.subList(chunkIndex * chunkItems, Math.min(items.size(), (chunkIndex + 1) * chunkItems)));
+        boolean firstChunk = chunkIndex == 0;
+        boolean lastChunk = chunkIndex == chunkCount - 1;
+
+        return workers.submit(() -> {
+            Path chunkFile = Files.createTempFile("pdf-chunk-", ".pdf");
+            try (OutputStream chunkOutput = new BufferedOutputStream(Files.newOutputStream(chunkFile))) {
+                chunkRenderer.render(chunk, firstChunk, lastChunk, chunkOutput);
+            } catch (Exception e) {
+                deleteChunk(chunkFile);
+                throw e;
+            }
+            if (abandoned.get()) {
+                deleteChunk(chunkFile);
+                return null;
+            }
+            return chunkFile;
+        });
+    }
+
+    private static Document copyWithItems(Document document, List<Item> items) {
+        Document chunk = new Document();
+        chunk.setSeller(document.getSeller());
+        chunk.setSellerGstin(document.getSellerGstin());
+        chunk.setSellerAddress(document.getSellerAddress());
+        chunk.setBuyer(document.getBuyer());
+        chunk.setBuyerGstin(document.getBuyerGstin());
+        chunk.setBuyerAddress(document.getBuyerAddress());
+        chunk.setItems(items);
+        return chunk;
+    }
+
+    private static Path awaitChunk(Future<Path> chunk) throws Exception {
+        try {
+            return chunk.get();
+        } catch (ExecutionException e) {
+            // A worker interrupted by shutdown fails its chunk; that is not an interrupt of this thread
+            Throwable cause = e.getCause();
+            throw cause instanceof Exception && !(cause instanceof InterruptedException) ? (Exception) cause : e;
+        }
+    }
+
+    /**
+     * Removes the files of chunks that will not be merged. Chunks still rendering are waited for, unless this
+     * thread is interrupted: then they are cancelled instead, and any that finish anyway remove their own files.
+     */
+    private static void discardChunks(Deque<Future<Path>> pending, AtomicBoolean abandoned) {
+        for (Future<Path> chunk : pending) {
+            if (!Thread.currentThread().isInterrupted()) {
+                try {
+                    deleteChunk(chunk.get());
+                    continue;
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } catch (Exception e) {
+                    // A failed chunk has removed its own file
+                    continue;
+                }
+            }
+            abandoned.set(true);
+            if (!chunk.cancel(true)) {
+                deleteChunk(doneChunk(chunk));
+            }
+        }
+    }
+
+    /**
+     * Returns the file of a chunk that is already done, setting the interrupt aside so the lookup cannot fail on it.
+     */
+    private static Path doneChunk(Future<Path> chunk) {
+        boolean interrupted = Thread.interrupted();
+        try {
+            return chunk.get();
+        } catch (Exception e) {
+            return null;
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private static void appendChunk(PdfCopy copy, Path chunkFile) throws Exception {
+        // Partial read: objects are loaded from the file as pages are copied, not all up front
+        PdfReader reader = new PdfReader(new RandomAccessFileOrArray(
+                new RandomAccessSourceFactory().createBestSource(chunkFile.toString())), null);
+        try {
+            for (int page = 1; page <= reader.getNumberOfPages(); page++) {
+                copy.addPage(copy.getImportedPage(reader, page));
+            }
+            copy.freeReader(reader);
+        } finally {
+            reader.close();
+            deleteChunk(chunkFile);
+        }
+    }
+
+    /**
+     * Releases the merge after a failure. Its output is discarded then, and closing it may fail when no page
+     * was copied yet.
+     */
+    private static void closeQuietly(com.itextpdf.text.Document merged, PdfCopy copy) {
+        try {
+            merged.close();
+        } catch (RuntimeException e) {
+            logger.debug("Could not close failed invoice PDF merge", e);
+        }
+        try {
+            copy.close();
+        } catch (RuntimeException e) {
+            logger.debug("Could not close failed invoice PDF copy", e);
+        }
+    }
+
+    private static void deleteChunk(Path chunkFile) {
+        if (chunkFile == null) {
+            return;
+        }
+        try {
+            Files.deleteIfExists(chunkFile);
+        } catch (IOException e) {
+            logger.warn("Could not delete invoice PDF chunk {}", chunkFile, e);
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        workers.shutdownNow();
+    }
+}
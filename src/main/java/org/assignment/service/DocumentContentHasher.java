@@ -0,0 +1,179 @@
+package org.assignment.service;
+
+import org.assignment.domainmodel.Document;
+import org.assignment.domainmodel.Item;
+import org.assignment.domainmodel.PdfOverlay;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.List;
+
+/**
+ * Computes the SHA-256 content hash of a document by feeding its fields straight into the digest.
+ *
+ * Fields are canonicalized so that semantically identical invoices hash the same: text is trimmed,
+ * null and empty text are equivalent, GSTINs are upper-cased and amounts are rounded to two decimals.
+ * Amounts that are NaN or infinite have no such rounding and are rejected.
+ * Every value is length-prefixed so adjacent fields cannot run into each other.
+ */
+public final class DocumentContentHasher {
+
+    // Bump when the canonical encoding changes so old and new hashes never collide. The cache index journal
+    // records it and drops its entries when it changes, as their hashes would never be looked up again.
+    static final byte FORMAT_VERSION = 1;
+    // Lead variant and merge encodings instead of a format version, so neither ever hashes like a document
+    private static final byte VARIANT_MARKER = (byte) 0x80;
+    private static final byte MERGE_MARKER = (byte) 0x81;
+    private static final int BUFFER_SIZE = 512;
+
+    private static final ThreadLocal<DocumentContentHasher> HASHERS =
+            ThreadLocal.withInitial(DocumentContentHasher::new);
+
+    private final MessageDigest digest;
+    private final byte[] buffer = new byte[BUFFER_SIZE];
+    private int position;
+
+    private DocumentContentHasher() {
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+
+    public static byte[] hash(Document document) {
+        return HASHERS.get().digest(document);
+    }
+
+    /**
+     * Hashes a variant of a stored invoice: the content hash of its document and the overlay stamped onto it.
+     */
+    public static byte[] hashVariant(String contentHash, PdfOverlay overlay) {
+        return HASHERS.get().digestVariant(contentHash, overlay);
+    }
+
+    /**
+     * Hashes a merge of stored PDFs: the hashes of its inputs, in order.
+     */
+    public static byte[] hashMerge(List<String> inputHashes) {
+        return HASHERS.get().digestMerge(inputHashes);
+    }
+
+    private byte[] digestVariant(String contentHash, PdfOverlay overlay) {
+        digest.reset();
+        position = 0;
+
+        putByte(VARIANT_MARKER);
+        putText(contentHash, false);
+        putText(overlay.getCopyLabel(), false);
+        putText(overlay.getWatermark(), false);
+        putText(overlay.getFooter(), false);
+
+        digest.update(buffer, 0, position);
+        return digest.digest();
+    }
+
+    private byte[] digestMerge(List<String> inputHashes) {
+        digest.reset();
+        position = 0;
+
+        putByte(MERGE_MARKER);
+        putInt(inputHashes.size());
+        for (String inputHash : inputHashes) {
+            putText(inputHash, false);
+        }
+
+        digest.update(buffer, 0, position);
+        return digest.digest();
+    }
+
+    private byte[] digest(Document document) {
+        digest.reset();
+        position = 0;
+
+        putByte(FORMAT_VERSION);
+        putText(document.getSeller(), false);
+        putText(document.getSellerGstin(), true);
+        putText(document.getSellerAddress(), false);
+        putText(document.getBuyer(), false);
+        putText(document.getBuyerGstin(), true);
+        putText(document.getBuyerAddress(), false);
+
+        List<Item> items = document.getItems();
+        putInt(items != null ? items.size() : 0);
+        if (items != null) {
+            for (Item item : items) {
+                if (item == null) {
+                    putInt(-1);
+                    continue;
+                }
+                putText(item.getName(), false);
+                putText(item.getQuantity(), false);
+                putLong(toHundredths(item.getRate()));
+                putLong(toHundredths(item.getAmount()));
+            }
+        }
+
+        digest.update(buffer, 0, position);
+        return digest.digest();
+    }
+
+    private static long toHundredths(double value) {
+        if (!Double.isFinite(value)) {
+            throw new IllegalArgumentException("Cannot hash a non-finite amount: " + value);
+        }
+        return Math.round(value * 100);
+    }
+
+    private void putText(String value, boolean upperCase) {
+        if (value == null) {
+            putInt(0);
+            return;
+        }
+        int start = 0;
+        int end = value.length();
+        while (start < end && Character.isWhitespace(value.charAt(start))) {
+            start++;
+        }
+        while (end > start && Character.isWhitespace(value.charAt(end - 1))) {
+            end--;
+        }
+
+        putInt(end - start);
+        for (int i = start; i < end; i++) {
+            char c = value.charAt(i);
+            if (upperCase) {
+                c = Character.toUpperCase(c);
+            }
+            ensureCapacity(2);
+            buffer[position++] = (byte) (c >>> 8);
+            buffer[position++] = (byte) c;
+        }
+    }
+
+    private void putByte(byte value) {
+        ensureCapacity(1);
+        buffer[position++] = value;
+    }
+
+    private void putInt(int value) {
+        ensureCapacity(4);
+        for (int shift = 24; shift >= 0; shift -= 8) {
+            buffer[position++] = (byte) (value >>> shift);
+        }
+    }
+
+    private void putLong(long value) {
+        ensureCapacity(8);
+        for (int shift = 56; shift >= 0; shift -= 8) {
+            buffer[position++] = (byte) (value >>> shift);
+        }
+    }
+
+    private void ensureCapacity(int bytes) {
+        if (position + bytes > BUFFER_SIZE) {
+            digest.update(buffer, 0, position);
+            position = 0;
+        }
+    }
+}
@@ -0,0 +1,155 @@
+package org.assignment.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Byte-budgeted LRU cache of recently downloaded PDFs, kept in direct buffers so cached bytes live off-heap
+ * and do not add to GC pauses. Disabled when the budget is zero.
+ */
+@Component
+public class HotPdfCache {
+
+    private static final Logger logger = LoggerFactory.getLogger(HotPdfCache.class);
+
+    // 64 MB unless pdf.cache.hot.max-size-mb says otherwise, taken from direct memory rather than the heap
+    private final long maxBytes;
+    // A single PDF may take at most this share of the budget, so one huge statement cannot flush the cache
+    private final long maxEntryBytes;
+
+    // Access-ordered, so iteration starts at the least recently used entry
+    private final LinkedHashMap<String, ByteBuffer> entries = new LinkedHashMap<>(64, 0.75f, true);
+    private long currentBytes;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    public HotPdfCache(@Value("${pdf.cache.hot.max-size-mb:64}") long maxSizeMb) {
+        this.maxBytes = maxSizeMb * 1024 * 1024;
+        this.maxEntryBytes = maxBytes / 4;
+        if (isEnabled()) {
+            logger.info("Hot invoice PDF cache enabled with {} MB", maxSizeMb);
+        }
+    }
+
+    public boolean isEnabled() {
+        return maxBytes > 0;
+    }
+
+    /**
+     * Returns a read-only view of the cached PDF, or null on a miss.
+     */
+    public ByteBuffer get(String fileName) {
+        if (!isEnabled()) {
+            return null;
+        }
+        ByteBuffer cached;
+        synchronized (this) {
+            cached = entries.get(fileName);
+        }
+        if (cached == null) {
+            misses.incrementAndGet();
+            return null;
+        }
+        hits.incrementAndGet();
+        return cached.asReadOnlyBuffer();
+    }
+
+    /**
+     * Caches the file's content, reading it straight into off-heap memory. Returns a read-only view of the
+     * cached content, so the caller can serve it without reading the file again, or null if it was not cached.
+     */
+    public ByteBuffer put(String fileName, Path file) {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (!isCacheable(size)) {
+                return null;
+            }
+            ByteBuffer buffer = ByteBuffer.allocateDirect((int) size);
+            while (buffer.hasRemaining() && channel.read(buffer) >= 0) {
+                // keep reading until the buffer is full
+            }
+            buffer.flip();
+            store(fileName, buffer);
+            return buffer.asReadOnlyBuffer();
+        } catch (IOException e) {
+            logger.warn("Could not cache invoice PDF {}", fileName, e);
+            return null;
+        }
+    }
+
+    public synchronized void invalidate(String fileName) {
+        ByteBuffer removed = entries.remove(fileName);
+        if (removed != null) {
+            currentBytes -= removed.capacity();
+        }
+    }
+
+    private boolean isCacheable(long size) {
+        return isEnabled() && size > 0 && size <= maxEntryBytes;
+    }
+
+    private synchronized void store(String fileName, ByteBuffer buffer) {
+        ByteBuffer previous = entries.put(fileName, buffer);
+        if (previous != null) {
+            currentBytes -= previous.capacity();
+        }
+        currentBytes += buffer.capacity();
+
+        Iterator<Map.Entry<String, ByteBuffer>> eldest = entries.entrySet().iterator();
+        while (currentBytes > maxBytes && eldest.hasNext()) {
+            currentBytes -= eldest.next().getValue().capacity();
+            eldest.remove();
+            evictions.incrementAndGet();
+        }
+    }
+
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    public long getEvictionCount() {
+        return evictions.get();
+    }
+
+    public synchronized long getSizeBytes() {
+        return currentBytes;
+    }
+
+    public synchronized int getEntryCount() {
+        return entries.size();
+    }
+
+    public long getMaxSizeBytes() {
+        return maxBytes;
+    }
+
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("enabled", isEnabled());
+        stats.put("entries", getEntryCount());
+        stats.put("sizeBytes", getSizeBytes());
+        stats.put("maxSizeBytes", maxBytes);
+        stats.put("hits", hits.get());
+        stats.put("misses", misses.get());
+        stats.put("evictions", evictions.get());
+        return stats;
+    }
+}
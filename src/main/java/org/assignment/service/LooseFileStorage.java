@@ -0,0 +1,665 @@
+package org.assignment.service;
+
+import jakarta.annotation.PreDestroy;
+import org.assignment.domainmodel.Document;
+import org.assignment.exception.PdfGenerationException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.core.io.FileSystemResource;
+import org.springframework.core.io.Resource;
+import org.springframework.stereotype.Component;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileVisitOption;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.regex.Pattern;
+
+/**
+ * Stores every PDF as its own file, under {@link PdfGeneratorService#PDF_STORAGE_PATH} unless
+ * {@code pdf.storage.path} says otherwise.
+ *
+ * In the default flat layout files are named {@code seller_buyer_uuid.pdf} and found through a journaled
+ * content hash index. In the content-addressed layout a file is named after its content hash and sharded by hash
+ * prefix, so it is found with a single stat and no index is kept.
+ *
+ * The index is loaded in the background so requests are served from startup on. Until it is loaded only PDFs
+ * stored since startup, or stored under their content-addressed name, are found; any other is rendered again.
+ * Once loaded, the index is reconciled with a scan of the directory. A name handed out to a client is never
+ * deleted here, even when the same content was stored again under another one meanwhile.
+ *
+ * In cluster mode several nodes share the directory. Files are always content-addressed, so every node finds
+ * the others' PDFs by the same stat, and a render is claimed through {@link SharedRenderLocks} so that each
+ * document is rendered by one node only while the others wait for its file.
+ */
+@Component
+@ConditionalOnProperty(name = "pdf.storage.backend", havingValue = "loose", matchIfMissing = true)
+public class LooseFileStorage implements PdfStorage {
+
+    private static final String CACHE_INDEX_FILE = "cache_index.ser";
+    private static final String CACHE_JOURNAL_FILE = "cache_index.journal";
+    private static final String LOCK_DIRECTORY = "locks";
+    private static final Duration CLAIM_POLL_INTERVAL = Duration.ofMillis(100);
+    private static final Duration CACHE_COMPACTION_INTERVAL = Duration.ofMinutes(5);
+    private static final Duration CLOSE_INDEX_LOAD_WAIT = Duration.ofSeconds(30);
+    private static final String TEMP_FILE_SUFFIX = ".tmp";
+    private static final String PDF_SUFFIX = ".pdf";
+    // The top-level directory and two levels of hash-prefix shards
+    private static final int STORAGE_DEPTH = 3;
+    private static final int RENDER_BUFFER_SIZE = 64 * 1024;
+    private static final Pattern CONTENT_ADDRESSED_NAME = Pattern.compile("[0-9a-f]{64}\\.pdf");
+
+    private static final Logger logger = LoggerFactory.getLogger(LooseFileStorage.class);
+
+    private final Path directory;
+    private final PdfMetrics pdfMetrics;
+
+    // In-memory cache mapping document hashes to filenames
+    private final ConcurrentHashMap<String, String> contentHashToFileName = new ConcurrentHashMap<>();
+
+    // Reverse of the cache index, so a deleted file is unindexed without scanning it
+    private final ConcurrentHashMap<String, String> fileNameToContentHash = new ConcurrentHashMap<>();
+
+    // Append-only journal persisting the cache index
+    private final CacheIndexJournal cacheJournal;
+
+    // Content-addressed files are named after their content hash, so they are found without the index
+    private final boolean contentAddressed;
+
+    // Render claims shared with the other nodes, null unless running in cluster mode
+    private final SharedRenderLocks renderLocks;
+
+    // Loads and then reconciles the cache index off the startup path, null when no index is kept
+    private final ExecutorService indexLoader;
+    private final int scanParallelism;
+    private final long startNanos = System.nanoTime();
+    private final CountDownLatch indexReady = new CountDownLatch(1);
+    private volatile boolean indexLoaded;
+    private volatile boolean closed;
+
+    // Entries recorded before the index was loaded, journaled once it is; guarded by indexLoadLock
+    private final Map<String, String> unjournaledEntries = new HashMap<>();
+    private final Object indexLoadLock = new Object();
+
+    @Autowired
+    public LooseFileStorage(@Value("${pdf.storage.path:${user.home}/generated_pdfs}") String storagePath,
+                            @Value("${pdf.storage.layout:flat}") String storageLayout,
+                            @Value("${pdf.storage.cluster.enabled:false}") boolean cluster,
+                            @Value("${pdf.storage.cluster.lock-stale-seconds:120}") long lockStaleSeconds,
+                            @Value("${pdf.storage.index.scan-parallelism:0}") int scanParallelism,
+                            PdfMetrics pdfMetrics) throws IOException {
+        this(Paths.get(storagePath), storageLayout, cluster ? Duration.ofSeconds(lockStaleSeconds) : null,
+                scanParallelism, pdfMetrics);
+    }
+
+    /**
+     * Stores PDFs under the given directory. Passing how long an untouched render claim stays valid enables
+     * cluster mode. The index is reconciled by up to {@code scanParallelism} threads, 0 = available processors.
+     */
+    public LooseFileStorage(Path directory, String storageLayout, Duration clusterLockStaleAfter,
+                            int scanParallelism, PdfMetrics pdfMetrics) throws IOException {
+        this.directory = directory;
+        this.pdfMetrics = pdfMetrics;
+        this.scanParallelism = scanParallelism > 0 ? scanParallelism : Runtime.getRuntime().availableProcessors();
+        this.cacheJournal = new CacheIndexJournal(directory.resolve(CACHE_JOURNAL_FILE), true);
+        if (clusterLockStaleAfter != null) {
+            if (!"content-addressed".equalsIgnoreCase(storageLayout)) {
+                logger.info("Cluster mode stores invoice PDFs content-addressed, ignoring the {} layout",
+                        storageLayout);
+            }
+            this.contentAddressed = true;
+            this.renderLocks = new SharedRenderLocks(directory.resolve(LOCK_DIRECTORY), clusterLockStaleAfter);
+        } else {
+            this.contentAddressed = "content-addressed".equalsIgnoreCase(storageLayout);
+            this.renderLocks = null;
+        }
+        removeAbandonedRenders();
+        if (contentAddressed) {
+            indexLoader = null;
+            markIndexLoaded();
+        } else {
+            indexLoader = Executors.newSingleThreadExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "cache-index-loader");
+                thread.setDaemon(true);
+                return thread;
+            });
+            indexLoader.execute(() -> {
+                loadCacheIndex();
+                reconcileCacheIndex();
+            });
+        }
+    }
+
+    /**
+     * Replays the journal and merges it with the entries recorded meanwhile, then journals those. Content
+     * rendered again meanwhile keeps both files, and the hash points back at the replayed one if it still exists.
+     */
+    private void loadCacheIndex() {
+        Map<String, String> loaded = Map.of();
+        try {
+            removeLegacyCacheIndex();
+            loaded = cacheJournal.replay();
+            logger.info("Loaded invoice cache index with {} entries", loaded.size());
+        } catch (Exception e) {
+            logger.error("Error loading invoice cache index, creating new one", e);
+            reopenEmptyJournal();
+        }
+
+        synchronized (indexLoadLock) {
+            loaded.forEach((contentHash, fileName) -> {
+                String current = contentHashToFileName.putIfAbsent(contentHash, fileName);
+                if (current == null) {
+                    fileNameToContentHash.put(fileName, contentHash);
+                } else if (!current.equals(fileName) && Files.exists(storedPath(fileName))) {
+                    indexEntry(contentHash, fileName);
+                    unjournaledEntries.remove(contentHash, current);
+                }
+            });
+            unjournaledEntries.forEach(this::journalPut);
+            unjournaledEntries.clear();
+            markIndexLoaded();
+        }
+        cacheJournal.startBackgroundCompaction(() -> contentHashToFileName, CACHE_COMPACTION_INTERVAL);
+    }
+
+    /**
+     * Starts an empty journal when the replay failed before opening it, so entries are journaled from now on.
+     */
+    private void reopenEmptyJournal() {
+        if (cacheJournal.isOpen()) {
+            return;
+        }
+        try {
+            cacheJournal.openEmpty();
+        } catch (IOException e) {
+            logger.error("Could not open a new invoice cache journal, entries will not survive a restart", e);
+        }
+    }
+
+    private void markIndexLoaded() {
+        pdfMetrics.recordIndexReady(startNanos);
+        indexLoaded = true;
+        indexReady.countDown();
+    }
+
+    /**
+     * Removes the old whole-map serialized index. Its content hashes predate {@link DocumentContentHasher}, so
+     * none of them would ever be looked up again; the PDFs it pointed at stay downloadable by name.
+     */
+    private void removeLegacyCacheIndex() throws IOException {
+        if (Files.deleteIfExists(directory.resolve(CACHE_INDEX_FILE))) {
+            logger.info("Removed legacy invoice cache index, its PDFs are rendered again when requested");
+        }
+    }
+
+    /**
+     * Lists the stored PDFs, each shard directory on a scan thread of its own, then drops the index entries whose
+     * file is gone and indexes content-addressed files the index misses. Other unindexed files can only be
+     * found by name and are left to retention.
+     */
+    private void reconcileCacheIndex() {
+        long start = System.nanoTime();
+        Set<String> storedFileNames = ConcurrentHashMap.newKeySet();
+        ExecutorService scanners = Executors.newFixedThreadPool(scanParallelism, runnable -> {
+            Thread thread = new Thread(runnable, "cache-index-scan");
+            thread.setDaemon(true);
+            return thread;
+        });
+        try (DirectoryStream<Path> entries = Files.newDirectoryStream(directory)) {
+            List<Future<?>> scans = new ArrayList<>();
+            for (Path entry : entries) {
+                String name = entry.getFileName().toString();
+                if (name.endsWith(PDF_SUFFIX)) {
+                    storedFileNames.add(name);
+                } else if (Files.isDirectory(entry) && !entry.equals(directory.resolve(LOCK_DIRECTORY))) {
+                    scans.add(scanners.submit(() -> collectStoredFileNames(entry, storedFileNames)));
+                }
+            }
+            for (Future<?> scan : scans) {
+                scan.get();
+            }
+        } catch (NoSuchFileException e) {
+            // Nothing has been stored yet
+        } catch (IOException | ExecutionException e) {
+            logger.warn("Could not scan invoice PDFs to reconcile the cache index", e);
+            return;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return;
+        } finally {
+            scanners.shutdownNow();
+        }
+
+        int removed = 0;
+        for (Map.Entry<String, String> entry : contentHashToFileName.entrySet()) {
+            if (closed) {
+                return;
+            }
+            // Stored after the listing if it exists now
+            if (!storedFileNames.contains(entry.getValue()) && !Files.exists(storedPath(entry.getValue()))) {
+                removeCacheEntry(entry.getKey(), entry.getValue());
+                removed++;
+            }
+        }
+        int added = 0;
+        int unindexed = 0;
+        for (String fileName : storedFileNames) {
+            if (closed) {
+                return;
+            }
+            if (fileNameToContentHash.containsKey(fileName)) {
+                continue;
+            }
+            String contentHash = PdfStorage.contentHashOf(fileName);
+            if (contentHash != null && !contentHashToFileName.containsKey(contentHash)) {
+                recordCacheEntry(contentHash, fileName);
+                added++;
+            } else {
+                unindexed++;
+            }
+        }
+        logger.info("Reconciled invoice cache index with {} stored PDFs in {} ms: {} missing removed, {} indexed, "
+                        + "{} left unindexed", storedFileNames.size(),
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start), removed, added, unindexed);
+    }
+
+    private static Void collectStoredFileNames(Path shard, Set<String> storedFileNames) throws IOException {
+        Files.walkFileTree(shard, EnumSet.noneOf(FileVisitOption.class), STORAGE_DEPTH - 1,
+                new SimpleFileVisitor<>() {
+                    @Override
+                    public FileVisitResult visitFile(Path file, BasicFileAttributes attributes) {
+                        String fileName = file.getFileName().toString();
+                        if (attributes.isRegularFile() && fileName.endsWith(PDF_SUFFIX)) {
+                            storedFileNames.add(fileName);
+                        }
+                        return FileVisitResult.CONTINUE;
+                    }
+
+                    @Override
+                    public FileVisitResult visitFileFailed(Path file, IOException e) throws IOException {
+                        if (e instanceof NoSuchFileException) {
+                            return FileVisitResult.CONTINUE;
+                        }
+                        throw e;
+                    }
+                });
+        return null;
+    }
+
+    private void recordCacheEntry(String contentHash, String fileName) {
+        if (!indexLoaded) {
+            synchronized (indexLoadLock) {
+                if (!indexLoaded) {
+                    indexEntry(contentHash, fileName);
+                    unjournaledEntries.put(contentHash, fileName);
+                    return;
+                }
+            }
+        }
+        // Held across both so a compaction snapshot never sees the index and the journal disagree
+        synchronized (cacheJournal) {
+            indexEntry(contentHash, fileName);
+            journalPut(contentHash, fileName);
+        }
+    }
+
+    /**
+     * Points the content hash at the file. A file it pointed at before keeps its reverse entry, since its name
+     * may have been handed out and it stays downloadable.
+     */
+    private void indexEntry(String contentHash, String fileName) {
+        contentHashToFileName.put(contentHash, fileName);
+        fileNameToContentHash.put(fileName, contentHash);
+    }
+
+    private void journalPut(String contentHash, String fileName) {
+        try {
+            cacheJournal.appendPut(contentHash, fileName);
+        } catch (IOException e) {
+            logger.error("Error saving invoice cache index entry", e);
+        }
+    }
+
+    private void removeCacheEntry(String contentHash, String fileName) {
+        if (!indexLoaded) {
+            synchronized (indexLoadLock) {
+                if (!indexLoaded) {
+                    unindexEntry(contentHash, fileName);
+                    unjournaledEntries.remove(contentHash, fileName);
+                    return;
+                }
+            }
+        }
+        synchronized (cacheJournal) {
+            if (!unindexEntry(contentHash, fileName)) {
+                return;
+            }
+            try {
+                cacheJournal.appendRemove(contentHash);
+            } catch (IOException e) {
+                logger.error("Error removing invoice cache index entry", e);
+            }
+        }
+    }
+
+    /**
+     * Drops the file's entries, returning whether the content hash pointed at it.
+     */
+    private boolean unindexEntry(String contentHash, String fileName) {
+        fileNameToContentHash.remove(fileName, contentHash);
+        return contentHashToFileName.remove(contentHash, fileName);
+    }
+
+    public boolean isIndexReady() {
+        return indexLoaded;
+    }
+
+    /**
+     * Waits until the index answers lookups, returning whether it does.
+     */
+    public boolean awaitIndexReady(Duration timeout) throws InterruptedException {
+        return indexReady.await(timeout.toMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public void close() throws IOException {
+        closed = true;
+        if (indexLoader != null) {
+            // Entries recorded while the index loads are only journaled once it has
+            try {
+                awaitIndexReady(CLOSE_INDEX_LOAD_WAIT);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            indexLoader.shutdownNow();
+        }
+        cacheJournal.close();
+        if (renderLocks != null) {
+            renderLocks.close();
+        }
+    }
+
+    @Override
+    public String find(String contentHash) {
+        if (contentAddressed) {
+            String fileName = PdfStorage.contentAddressedFileName(contentHash);
+            return Files.exists(storedPath(fileName)) ? fileName : null;
+        }
+
+        String existingFileName = contentHashToFileName.get(contentHash);
+        if (existingFileName == null && !indexLoaded) {
+            // Checked directly until the index is loaded, in case it was stored content-addressed
+            String fileName = PdfStorage.contentAddressedFileName(contentHash);
+            return Files.exists(storedPath(fileName)) ? fileName : null;
+        }
+        if (existingFileName != null) {
+            Path existingFile = storedPath(existingFileName);
+            if (Files.exists(existingFile)) {
+                logger.info("Returning existing invoice PDF file: {}", existingFileName);
+                return existingFileName;
+            } else {
+                removeCacheEntry(contentHash, existingFileName);
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public String store(String contentHash, Document document, PdfContentWriter writer)
+            throws IOException, PdfGenerationException {
+        // Create filename using GSTIN for better organization, unless it is derived from the content
+        String fileName = contentAddressed ? PdfStorage.contentAddressedFileName(contentHash)
+                : String.format("%s_%s_%s.pdf",
+                        gstinOrDefault(document != null ? document.getSellerGstin() : null),
+                        gstinOrDefault(document != null ? document.getBuyerGstin() : null),
+                        UUID.randomUUID().toString());
+
+        Path filePath = storedPath(fileName);
+        SharedRenderLocks.Claim claim = null;
+        if (renderLocks != null) {
+            claim = claimRender(fileName, filePath);
+            if (claim == null) {
+                return fileName;
+            }
+        }
+
+        // Kept in the top-level directory, on the same filesystem as every shard, so startup cleanup is one listing.
+        // Unique per render in cluster mode, where a stale claim can leave two nodes rendering the same file.
+        Path tempFile = directory.resolve(renderLocks != null
+                ? fileName + "." + UUID.randomUUID() + TEMP_FILE_SUFFIX
+                : fileName + TEMP_FILE_SUFFIX);
+
+        try {
+            Files.createDirectories(filePath.getParent());
+            Files.createDirectories(tempFile.getParent());
+
+            // Render straight to disk so the PDF is never held on the heap, and only expose it under its
+            // final name once it is complete and durable
+            try (OutputStream outputStream = new BufferedOutputStream(Files.newOutputStream(tempFile,
+                    StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE), RENDER_BUFFER_SIZE)) {
+                writer.write(outputStream);
+            }
+
+            // The renderer closes its stream when done, so the fsync goes through a fresh channel
+            long start = System.nanoTime();
+            try (FileChannel channel = FileChannel.open(tempFile, StandardOpenOption.WRITE)) {
+                channel.force(true);
+                pdfMetrics.recordOutputSize(channel.size());
+            }
+            Files.move(tempFile, filePath, StandardCopyOption.ATOMIC_MOVE);
+            start = pdfMetrics.recordStage(PdfMetrics.Stage.STORE, start);
+
+            if (!contentAddressed) {
+                recordCacheEntry(contentHash, fileName);
+                pdfMetrics.recordStage(PdfMetrics.Stage.INDEX, start);
+            }
+
+            logger.info("Generated new invoice PDF and stored at: {}", filePath);
+            return fileName;
+        } catch (IOException | PdfGenerationException | RuntimeException e) {
+            deleteQuietly(tempFile);
+            throw e;
+        } finally {
+            if (claim != null) {
+                claim.close();
+            }
+        }
+    }
+
+    private static String gstinOrDefault(String gstin) {
+        return gstin != null ? gstin : "noGstin";
+    }
+
+    /**
+     * Waits until this node holds the render claim for a file or another node has published it, in which case
+     * null is returned.
+     */
+    private SharedRenderLocks.Claim claimRender(String fileName, Path filePath)
+            throws IOException, PdfGenerationException {
+        while (true) {
+            if (Files.exists(filePath)) {
+                logger.info("Returning invoice PDF rendered by another node: {}", fileName);
+                return null;
+            }
+            SharedRenderLocks.Claim claim = renderLocks.tryClaim(fileName);
+            if (claim != null) {
+                // The previous holder may have published the file and released the claim after the check above
+                if (Files.exists(filePath)) {
+                    claim.close();
+                    return null;
+                }
+                return claim;
+            }
+            try {
+                Thread.sleep(CLAIM_POLL_INTERVAL.toMillis());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new PdfGenerationException("Interrupted while waiting for another node to render invoice PDF",
+                        e);
+            }
+        }
+    }
+
+    @Override
+    public boolean exists(String fileName) {
+        return Files.exists(storedPath(fileName));
+    }
+
+    @Override
+    public StoredPdf stat(String fileName) throws IOException {
+        try {
+            BasicFileAttributes attributes = Files.readAttributes(storedPath(fileName), BasicFileAttributes.class);
+            if (!attributes.isRegularFile()) {
+                return null;
+            }
+            return new StoredPdf(fileName, contentHashOf(fileName), attributes.size(),
+                    attributes.lastModifiedTime().toInstant());
+        } catch (NoSuchFileException e) {
+            return null;
+        }
+    }
+
+    private String contentHashOf(String fileName) {
+        String contentHash = fileNameToContentHash.get(fileName);
+        return contentHash != null ? contentHash : PdfStorage.contentHashOf(fileName);
+    }
+
+    @Override
+    public Resource load(String fileName) throws IOException {
+        Path filePath = storedPath(fileName);
+        if (!Files.exists(filePath)) {
+            throw new NoSuchFileException(filePath.toString());
+        }
+        return new FileSystemResource(filePath);
+    }
+
+    @Override
+    public boolean delete(String fileName) throws IOException {
+        // Unindexed before the file goes, so a lookup never returns a PDF that is being deleted
+        String contentHash = fileNameToContentHash.get(fileName);
+        if (contentHash != null) {
+            removeCacheEntry(contentHash, fileName);
+        }
+        return Files.deleteIfExists(storedPath(fileName));
+    }
+
+    @Override
+    public int getEntryCount() {
+        return contentHashToFileName.size();
+    }
+
+    /**
+     * Walks the top-level directory and the hash-prefix shards. A PDF counts as stored when its file was last
+     * modified, which is when it was published since stored files are never rewritten.
+     */
+    @Override
+    public void forEachStored(Consumer<StoredPdf> visitor) throws IOException {
+        if (!Files.isDirectory(directory)) {
+            return;
+        }
+        Files.walkFileTree(directory, EnumSet.noneOf(FileVisitOption.class), STORAGE_DEPTH,
+                new SimpleFileVisitor<>() {
+                    @Override
+                    public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attributes) {
+                        return dir.equals(directory.resolve(LOCK_DIRECTORY))
+                                ? FileVisitResult.SKIP_SUBTREE : FileVisitResult.CONTINUE;
+                    }
+
+                    @Override
+                    public FileVisitResult visitFile(Path file, BasicFileAttributes attributes) {
+                        String fileName = file.getFileName().toString();
+                        if (attributes.isRegularFile() && fileName.endsWith(PDF_SUFFIX)) {
+                            visitor.accept(new StoredPdf(fileName, contentHashOf(fileName), attributes.size(),
+                                    attributes.lastModifiedTime().toInstant()));
+                        }
+                        return FileVisitResult.CONTINUE;
+                    }
+
+                    @Override
+                    public FileVisitResult visitFileFailed(Path file, IOException e) throws IOException {
+                        // Deleted while the walk was under way
+                        if (e instanceof NoSuchFileException) {
+                            return FileVisitResult.CONTINUE;
+                        }
+                        throw e;
+                    }
+                });
+    }
+
+    /**
+     * Location of a stored PDF. Content-addressed files are sharded two levels deep by hash prefix, so no directory
+     * grows past a few hundred entries even with many millions of PDFs; older flat names stay in the top level.
+     */
+    private Path storedPath(String fileName) {
+        if (CONTENT_ADDRESSED_NAME.matcher(fileName).matches()) {
+            return directory.resolve(fileName.substring(0, 2)).resolve(fileName.substring(2, 4)).resolve(fileName);
+        }
+        return directory.resolve(fileName);
+    }
+
+    private static void deleteQuietly(Path file) {
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException e) {
+            logger.warn("Could not delete partial invoice PDF {}", file, e);
+        }
+    }
+
+    /**
+     * Removes renders left half-written by a crash. They were never published under a final name. In cluster
+     * mode only renders older than a stale claim are removed, the others may still be written by another node.
+     */
+    private void removeAbandonedRenders() {
+        Instant abandonedBefore = renderLocks != null ? Instant.now().minus(renderLocks.getStaleAfter()) : null;
+        try (DirectoryStream<Path> tempFiles = Files.newDirectoryStream(directory, "*" + TEMP_FILE_SUFFIX)) {
+            for (Path tempFile : tempFiles) {
+                if (abandonedBefore == null || isModifiedBefore(tempFile, abandonedBefore)) {
+                    deleteQuietly(tempFile);
+                }
+            }
+        } catch (NoSuchFileException e) {
+            // Nothing has been stored yet
+        } catch (IOException e) {
+            logger.warn("Could not scan for abandoned invoice PDF renders", e);
+        }
+    }
+
+    private static boolean isModifiedBefore(Path file, Instant instant) {
+        try {
+            return Files.getLastModifiedTime(file).toInstant().isBefore(instant);
+        } catch (IOException e) {
+            return false;
+        }
+    }
+}
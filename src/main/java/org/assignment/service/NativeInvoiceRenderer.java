@@ -0,0 +1,164 @@
+package org.assignment.service;
+
+import com.itextpdf.text.Chunk;
+import com.itextpdf.text.DocumentException;
+import com.itextpdf.text.Element;
+import com.itextpdf.text.Font;
+import com.itextpdf.text.PageSize;
+import com.itextpdf.text.Paragraph;
+import com.itextpdf.text.Phrase;
+import com.itextpdf.text.Rectangle;
+import com.itextpdf.text.SplitCharacter;
+import com.itextpdf.text.pdf.DefaultSplitCharacter;
+import com.itextpdf.text.pdf.PdfChunk;
+import com.itextpdf.text.pdf.PdfPCell;
+import com.itextpdf.text.pdf.PdfPTable;
+import com.itextpdf.text.pdf.PdfWriter;
+import org.assignment.domainmodel.Document;
+import org.assignment.domainmodel.Item;
+import org.springframework.stereotype.Component;
+
+import java.io.OutputStream;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Draws the built-in {@code document} invoice template directly with iText tables, skipping the XHTML parse and
+ * CSS layout of the HTML path. Dimensions follow {@code templates/document.html} at 0.75pt per CSS pixel.
+ *
+ * The item table is flushed to the page every {@link #ROWS_PER_FLUSH} rows, so memory stays flat however many
+ * items an invoice has.
+ */
+@Component
+public class NativeInvoiceRenderer {
+
+    public static final String TEMPLATE_NAME = "document";
+
+    private static final float MARGIN = 15f;
+    private static final float BORDER_WIDTH = 0.75f;
+    private static final float DETAILS_PADDING = 11.25f;
+    private static final float ITEM_PADDING_VERTICAL = 6f;
+    private static final float ITEM_PADDING_HORIZONTAL = 11.25f;
+    private static final float TRAILING_ROW_HEIGHT = 75f;
+    private static final int ROWS_PER_FLUSH = 500;
+
+    private static final Font TEXT_FONT = new Font(Font.FontFamily.COURIER, 10.5f);
+    private static final Font BOLD_FONT = new Font(Font.FontFamily.COURIER, 10.5f, Font.BOLD);
+
+    // iText's default splitter runs a date regex on every candidate break, which dominates the render time of long
+    // item lists. Breaking at whitespace and hyphens is all the invoice text needs.
+    private static final SplitCharacter SPLIT_CHARACTER = new DefaultSplitCharacter() {
+        @Override
+        public boolean isSplitCharacter(int start, int current, int end, char[] cc, PdfChunk[] ck) {
+            char c = getCurrentCharacter(current, cc, ck);
+            return c <= ' ' || c == '-' || c == '\u2010';
+        }
+    };
+
+    public boolean supports(String templateName) {
+        return TEMPLATE_NAME.equals(templateName);
+    }
+
+    public void render(Document document, OutputStream outputStream) throws DocumentException {
+        com.itextpdf.text.Document pdf = new com.itextpdf.text.Document(PageSize.A4, MARGIN, MARGIN, MARGIN, MARGIN);
+        PdfWriter.getInstance(pdf, outputStream);
+        pdf.addTitle("Invoice");
+        pdf.open();
+        try {
+            pdf.add(detailsTable(document));
+            addItemsTable(pdf, document.getItems());
+        } finally {
+            pdf.close();
+        }
+    }
+
+    private static PdfPTable detailsTable(Document document) {
+        PdfPTable table = new PdfPTable(2);
+        table.setWidthPercentage(100);
+        table.addCell(detailsCell("Seller:", document.getSeller(), document.getSellerAddress(),
+                document.getSellerGstin()));
+        table.addCell(detailsCell("Buyer:", document.getBuyer(), document.getBuyerAddress(),
+                document.getBuyerGstin()));
+        return table;
+    }
+
+    private static PdfPCell detailsCell(String header, String name, String address, String gstin) {
+        PdfPCell cell = new PdfPCell();
+        cell.setBorderWidth(BORDER_WIDTH);
+        cell.setBorder(Rectangle.LEFT | Rectangle.RIGHT | Rectangle.TOP);
+        cell.setPadding(DETAILS_PADDING);
+        cell.setVerticalAlignment(Element.ALIGN_TOP);
+
+        Paragraph headerLine = new Paragraph(chunk(header, BOLD_FONT));
+        headerLine.setSpacingAfter(3.75f);
+        cell.addElement(headerLine);
+        cell.addElement(new Paragraph(chunk(text(name), TEXT_FONT)));
+        Paragraph addressLine = new Paragraph(chunk(text(address), TEXT_FONT));
+        addressLine.setSpacingBefore(3.75f);
+        addressLine.setSpacingAfter(3.75f);
+        cell.addElement(addressLine);
+        cell.addElement(new Paragraph(chunk("GSTIN: " + text(gstin), TEXT_FONT)));
+        return cell;
+    }
+
+    private static void addItemsTable(com.itextpdf.text.Document pdf, List<Item> items) throws DocumentException {
+        PdfPTable table = new PdfPTable(4);
+        table.setWidthPercentage(100);
+        table.setHeaderRows(1);
+        table.setComplete(false);
+        for (String heading : new String[]{"Item", "Quantity", "Rate", "Amount"}) {
+            table.addCell(itemCell(heading));
+        }
+
+        if (items != null) {
+            int rows = 0;
+            for (Item item : items) {
+                if (item == null) {
+                    continue;
+                }
+                RenderCancellation.check();
+                table.addCell(itemCell(text(item.getName())));
+                table.addCell(itemCell(text(item.getQuantity())));
+                table.addCell(itemCell(formatAmount(item.getRate())));
+                table.addCell(itemCell(formatAmount(item.getAmount())));
+                if (++rows % ROWS_PER_FLUSH == 0) {
+                    pdf.add(table);
+                }
+            }
+        }
+
+        PdfPCell trailingRow = new PdfPCell();
+        trailingRow.setColspan(4);
+        trailingRow.setFixedHeight(TRAILING_ROW_HEIGHT);
+        trailingRow.setBorderWidth(BORDER_WIDTH);
+        table.addCell(trailingRow);
+
+        table.setComplete(true);
+        pdf.add(table);
+    }
+
+    private static PdfPCell itemCell(String content) {
+        PdfPCell cell = new PdfPCell(new Phrase(chunk(content, TEXT_FONT)));
+        cell.setBorderWidth(BORDER_WIDTH);
+        cell.setPaddingTop(ITEM_PADDING_VERTICAL);
+        cell.setPaddingBottom(ITEM_PADDING_VERTICAL);
+        cell.setPaddingLeft(ITEM_PADDING_HORIZONTAL);
+        cell.setPaddingRight(ITEM_PADDING_HORIZONTAL);
+        cell.setHorizontalAlignment(Element.ALIGN_LEFT);
+        return cell;
+    }
+
+    private static Chunk chunk(String content, Font font) {
+        Chunk chunk = new Chunk(content, font);
+        chunk.setSplitCharacter(SPLIT_CHARACTER);
+        return chunk;
+    }
+
+    private static String text(String value) {
+        return value != null ? value : "";
+    }
+
+    private static String formatAmount(double value) {
+        return String.format(Locale.ROOT, "%.2f", value);
+    }
+}
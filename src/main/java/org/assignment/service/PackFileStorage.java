@@ -0,0 +1,724 @@
+package org.assignment.service;
+
+import jakarta.annotation.PreDestroy;
+import org.assignment.domainmodel.Document;
+import org.assignment.exception.PdfGenerationException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.core.io.Resource;
+import org.springframework.stereotype.Component;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * Stores PDFs back to back in large append-only segment files instead of one file per PDF, which saves an inode
+ * and the block slack of every small invoice and turns backups into a copy of a few large files.
+ *
+ * A segment starts with a magic number and format version, followed by records of
+ * {@code [int crc32][long stored at][short name length][name][int data length][data]}, the time being in epoch
+ * milliseconds. A data length of -1 is a tombstone for a deleted PDF. The checksum covers the data followed by
+ * the rest of the record, so it can be computed while the PDF is rendered. The (segment, offset, length) index is
+ * held in memory and rebuilt on startup from the records; later records win, and replay of a segment stops at the
+ * first record that is torn or fails its checksum.
+ *
+ * Reads are slices of the memory-mapped segment, so serving a PDF copies nothing onto the heap. A sealed segment
+ * is mapped once; the active segment is mapped in fixed windows, of which only the last one grows with appends.
+ *
+ * PDFs are rendered to a temp file and then appended under a lock, so only the copy into the segment is
+ * serialized. Each store waits for its fsync after releasing the lock and publishes its record once that returns,
+ * so concurrent stores copy while others wait for the disk and share its flushes. Records still land in lock
+ * order, so a crash can only tear records that were never published.
+ * A background compactor rewrites the live records of segments that are mostly dead into the active segment and
+ * deletes them.
+ *
+ * Segments are replayed in the background, so startup does not grow with storage. Appends go to a fresh active
+ * segment from startup on, and until the replay is done only PDFs stored since startup are found; any other is
+ * rendered again, and its older record counted dead once the replay catches up.
+ *
+ * When a PDF was stored is kept in its record and carried over by compaction, so retention ages it from when it
+ * was rendered however often it has been moved.
+ */
+@Component
+@ConditionalOnProperty(name = "pdf.storage.backend", havingValue = "pack")
+public class PackFileStorage implements PdfStorage {
+
+    private static final Logger logger = LoggerFactory.getLogger(PackFileStorage.class);
+
+    private static final int SEGMENT_MAGIC = 0x50444650;
+    private static final byte FORMAT_VERSION = 3;
+    private static final int SEGMENT_HEADER_SIZE = 5;
+    // Checksum, stored at, name length and data length
+    private static final int RECORD_HEADER_SIZE = 4 + 8 + 2 + 4;
+    private static final long MAP_WINDOW_BYTES = 64L * 1024 * 1024;
+    private static final int TOMBSTONE = -1;
+    private static final String SEGMENT_PREFIX = "segment-";
+    private static final String SEGMENT_SUFFIX = ".pack";
+    private static final String TEMP_FILE_SUFFIX = ".tmp";
+    private static final int RENDER_BUFFER_SIZE = 64 * 1024;
+    private static final Duration COMPACTION_INTERVAL = Duration.ofMinutes(5);
+    private static final Duration CLOSE_INDEX_LOAD_WAIT = Duration.ofSeconds(30);
+
+    /**
+     * Location of a stored PDF's bytes, and when it was stored.
+     */
+    private record Entry(int segmentId, long offset, int length, Instant storedAt) {
+    }
+
+    @FunctionalInterface
+    private interface RecordVisitor {
+        void visit(String fileName, long dataOffset, int length, Instant storedAt) throws IOException;
+    }
+
+    @FunctionalInterface
+    private interface RecordContent {
+        void writeTo(FileChannel segment, long position) throws IOException;
+    }
+
+    private static final class Segment {
+        final int id;
+        final Path file;
+        final FileChannel channel;
+        final AtomicLong deadBytes = new AtomicLong();
+        // Bytes of complete records; the file is never mapped past it, as mapping would extend the file
+        volatile long size;
+        // Records still waiting for their store's fsync, which keep the segment from being compacted; guarded by
+        // the storage's lock
+        int unpublishedAppends;
+        private volatile boolean sealed;
+        private volatile MappedByteBuffer mapped;
+        private final Map<Long, MappedByteBuffer> windows = new ConcurrentHashMap<>();
+
+        Segment(int id, Path file, FileChannel channel) {
+            this.id = id;
+            this.file = file;
+            this.channel = channel;
+        }
+
+        /**
+         * Called once no more records are appended to the segment. Its windows are dropped for a single mapping.
+         */
+        void seal() {
+            sealed = true;
+            windows.clear();
+        }
+
+        /**
+         * Returns a read-only view of part of the segment.
+         */
+        ByteBuffer read(long offset, int length) throws IOException {
+            ByteBuffer view;
+            long viewStart;
+            if (sealed) {
+                view = mapped;
+                if (view == null) {
+                    synchronized (this) {
+                        if (mapped == null) {
+                            mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+                        }
+                        view = mapped;
+                    }
+                }
+                viewStart = 0;
+            } else if (offset / MAP_WINDOW_BYTES == (offset + length - 1) / MAP_WINDOW_BYTES) {
+                viewStart = offset - offset % MAP_WINDOW_BYTES;
+                view = window(viewStart, offset + length);
+            } else {
+                // Rare record straddling two windows
+                viewStart = offset;
+                view = channel.map(FileChannel.MapMode.READ_ONLY, offset, length);
+            }
+            int start = (int) (offset - viewStart);
+            return view.duplicate().position(start).limit(start + length).slice().asReadOnlyBuffer();
+        }
+
+        /**
+         * Maps the window at the given start, far enough to cover the end offset. Only the last window of the
+         * active segment is short, so it alone is mapped again as records are appended to it.
+         */
+        private MappedByteBuffer window(long windowStart, long end) throws IOException {
+            MappedByteBuffer view = windows.get(windowStart);
+            if (view == null || windowStart + view.capacity() < end) {
+                synchronized (this) {
+                    view = windows.get(windowStart);
+                    if (view == null || windowStart + view.capacity() < end) {
+                        view = channel.map(FileChannel.MapMode.READ_ONLY, windowStart,
+                                Math.min(MAP_WINDOW_BYTES, size - windowStart));
+                        windows.put(windowStart, view);
+                    }
+                }
+            }
+            return view;
+        }
+    }
+
+    private final Path directory;
+    private final long maxSegmentBytes;
+    private final PdfMetrics pdfMetrics;
+
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+    // Records appended by stores still waiting for their fsync, by name; a store only publishes its record if it is
+    // still the latest appended under the name once the fsync returns. Guarded by this
+    private final Map<String, Entry> pendingStores = new HashMap<>();
+    private final ConcurrentSkipListMap<Integer, Segment> segments = new ConcurrentSkipListMap<>();
+    private final ScheduledExecutorService compactor;
+
+    // Replays the segments found at startup off the startup path, null when there were none
+    private final ExecutorService segmentLoader;
+    private final long startNanos = System.nanoTime();
+    private final CountDownLatch indexReady = new CountDownLatch(1);
+    private volatile boolean indexLoaded;
+
+    // PDFs deleted while the index loads, which the replay must not bring back; guarded by this
+    private final Set<String> deletedWhileLoading = new HashSet<>();
+
+    // Appends go to the newest segment; guarded by this
+    private Segment active;
+
+    @Autowired
+    public PackFileStorage(@Value("${pdf.storage.path:${user.home}/generated_pdfs}") String storagePath,
+                           @Value("${pdf.storage.pack.segment-size-mb:256}") long segmentSizeMb,
+                           PdfMetrics pdfMetrics) throws IOException {
+        this(Paths.get(storagePath, "packs"), segmentSizeMb * 1024 * 1024, pdfMetrics);
+    }
+
+    public PackFileStorage(Path directory, long maxSegmentBytes, PdfMetrics pdfMetrics) throws IOException {
+        this.directory = directory;
+        // Reads slice a single mapped buffer, so a segment cannot exceed what a ByteBuffer can address
+        this.maxSegmentBytes = Math.min(maxSegmentBytes, Integer.MAX_VALUE);
+        this.pdfMetrics = pdfMetrics;
+
+        Files.createDirectories(directory);
+        removeAbandonedRenders();
+        List<Segment> replayed = openSegments();
+        if (replayed.isEmpty()) {
+            segmentLoader = null;
+            markIndexLoaded();
+        } else {
+            segmentLoader = Executors.newSingleThreadExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "pdf-pack-loader");
+                thread.setDaemon(true);
+                return thread;
+            });
+            segmentLoader.execute(() -> loadSegments(replayed));
+        }
+
+        compactor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "pdf-pack-compactor");
+            thread.setDaemon(true);
+            return thread;
+        });
+        compactor.scheduleWithFixedDelay(() -> {
+            try {
+                compact();
+            } catch (Exception e) {
+                logger.error("Error compacting invoice PDF pack segments", e);
+            }
+        }, COMPACTION_INTERVAL.toMillis(), COMPACTION_INTERVAL.toMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Opens the existing segments and the active one, returning the segments that hold records to replay. The
+     * newest segment stays active if nothing was ever appended to it, and a new one is started otherwise.
+     */
+    private List<Segment> openSegments() throws IOException {
+        List<Path> files = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory,
+                SEGMENT_PREFIX + "*" + SEGMENT_SUFFIX)) {
+            stream.forEach(files::add);
+        }
+        files.sort((a, b) -> Integer.compare(segmentId(a), segmentId(b)));
+
+        List<Segment> replayed = new ArrayList<>();
+        for (Path file : files) {
+            Segment segment = new Segment(segmentId(file), file,
+                    FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE));
+            segments.put(segment.id, segment);
+            replayed.add(segment);
+        }
+
+        Segment newest = replayed.isEmpty() ? null : replayed.get(replayed.size() - 1);
+        if (newest != null && newest.channel.size() <= SEGMENT_HEADER_SIZE) {
+            writeSegmentHeader(newest.channel);
+            newest.size = SEGMENT_HEADER_SIZE;
+            replayed.remove(newest);
+            active = newest;
+        } else {
+            active = createSegment(newest != null ? newest.id + 1 : 1);
+        }
+        return replayed;
+    }
+
+    /**
+     * Replays the segments in order, then merges their records under the ones appended meanwhile, which are
+     * newer. A segment that cannot be read is left on disk and out of the index.
+     */
+    private void loadSegments(List<Segment> replayed) {
+        Map<String, Entry> loaded = new HashMap<>();
+        for (int i = 0; i < replayed.size(); i++) {
+            Segment segment = replayed.get(i);
+            try {
+                loadSegment(segment, i == replayed.size() - 1, loaded);
+                segment.seal();
+            } catch (IOException e) {
+                logger.error("Error loading invoice PDF pack segment {}, leaving it out", segment.file, e);
+                segments.remove(segment.id);
+                loaded.values().removeIf(entry -> entry.segmentId() == segment.id);
+            }
+        }
+
+        synchronized (this) {
+            loaded.forEach((fileName, entry) -> {
+                if (entries.containsKey(fileName) || deletedWhileLoading.contains(fileName)) {
+                    markDead(fileName, entry);
+                } else {
+                    entries.put(fileName, entry);
+                }
+            });
+            deletedWhileLoading.clear();
+            markIndexLoaded();
+        }
+        logger.info("Loaded {} invoice PDF pack segments with {} entries", replayed.size(), entries.size());
+    }
+
+    private void markIndexLoaded() {
+        pdfMetrics.recordIndexReady(startNanos);
+        indexLoaded = true;
+        indexReady.countDown();
+    }
+
+    private void loadSegment(Segment segment, boolean last, Map<String, Entry> loaded) throws IOException {
+        long fileSize = segment.channel.size();
+        if (fileSize < SEGMENT_HEADER_SIZE) {
+            segment.size = fileSize;
+            return;
+        }
+
+        ByteBuffer contents = segment.channel.map(FileChannel.MapMode.READ_ONLY, 0, fileSize);
+        if (contents.getInt(0) != SEGMENT_MAGIC || contents.get(4) != FORMAT_VERSION) {
+            throw new IOException("Not an invoice PDF pack segment: " + segment.file);
+        }
+
+        long end = readRecords(contents, fileSize, (fileName, dataOffset, length, storedAt) -> {
+            if (length == TOMBSTONE) {
+                markDead(fileName, loaded.remove(fileName));
+                segment.deadBytes.addAndGet(recordSize(fileName, TOMBSTONE));
+            } else {
+                Entry entry = new Entry(segment.id, dataOffset, length, storedAt);
+                markDead(fileName, loaded.put(fileName, entry));
+            }
+        });
+
+        if (end < fileSize) {
+            if (last) {
+                // The last append to the newest segment can be torn by a crash
+                logger.warn("Truncating torn tail of invoice PDF pack segment {} at {} of {} bytes",
+                        segment.file, end, fileSize);
+                segment.channel.truncate(end);
+            } else {
+                // Left in place, but counted as dead so compaction moves the intact records out of the segment
+                logger.error("Invoice PDF pack segment {} is corrupt at {} of {} bytes, ignoring the rest of it",
+                        segment.file, end, fileSize);
+                segment.deadBytes.addAndGet(fileSize - end);
+            }
+        }
+        segment.size = end;
+    }
+
+    /**
+     * Visits every intact record and returns the offset just past the last one. Stops at the first record that
+     * is incomplete or fails its checksum, as nothing after it can be trusted.
+     */
+    private static long readRecords(ByteBuffer contents, long size, RecordVisitor visitor) throws IOException {
+        long position = SEGMENT_HEADER_SIZE;
+        CRC32 crc = new CRC32();
+        while (position + RECORD_HEADER_SIZE <= size) {
+            int checksum = contents.getInt((int) position);
+            long storedAtMillis = contents.getLong((int) position + 4);
+            int nameLength = contents.getShort((int) position + 12) & 0xFFFF;
+            long lengthOffset = position + 14 + nameLength;
+            if (nameLength == 0 || lengthOffset + 4 > size) {
+                break;
+            }
+            int length = contents.getInt((int) lengthOffset);
+            long dataOffset = lengthOffset + 4;
+            if (length < TOMBSTONE || dataOffset + Math.max(length, 0) > size) {
+                break;
+            }
+
+            crc.reset();
+            crc.update(contents.duplicate().position((int) dataOffset).limit((int) dataOffset + Math.max(length, 0)));
+            crc.update(contents.duplicate().position((int) position + 4).limit((int) dataOffset));
+            if ((int) crc.getValue() != checksum) {
+                break;
+            }
+
+            byte[] name = new byte[nameLength];
+            contents.duplicate().position((int) position + 14).get(name);
+            visitor.visit(new String(name, StandardCharsets.UTF_8), dataOffset, length,
+                    Instant.ofEpochMilli(storedAtMillis));
+            position = dataOffset + Math.max(length, 0);
+        }
+        return position;
+    }
+
+    private static long recordSize(String fileName, int length) {
+        return RECORD_HEADER_SIZE + fileName.getBytes(StandardCharsets.UTF_8).length + Math.max(length, 0);
+    }
+
+    private static int segmentId(Path file) {
+        String name = file.getFileName().toString();
+        return Integer.parseInt(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+    }
+
+    private Segment createSegment(int id) throws IOException {
+        Path file = directory.resolve(String.format("%s%06d%s", SEGMENT_PREFIX, id, SEGMENT_SUFFIX));
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE_NEW,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+        writeSegmentHeader(channel);
+        channel.force(true);
+
+        Segment segment = new Segment(id, file, channel);
+        segment.size = SEGMENT_HEADER_SIZE;
+        segments.put(id, segment);
+        return segment;
+    }
+
+    private static void writeSegmentHeader(FileChannel channel) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(SEGMENT_HEADER_SIZE);
+        header.putInt(SEGMENT_MAGIC).put(FORMAT_VERSION).flip();
+        writeFully(channel, header, 0);
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            position += channel.write(buffer, position);
+        }
+    }
+
+    /**
+     * Counts the whole record of a replaced or deleted entry as dead in its segment.
+     */
+    private void markDead(String fileName, Entry entry) {
+        if (entry != null) {
+            Segment segment = segments.get(entry.segmentId());
+            if (segment != null) {
+                segment.deadBytes.addAndGet(recordSize(fileName, entry.length()));
+            }
+        }
+    }
+
+    /**
+     * Appends a record to the active segment, and makes it durable unless the caller syncs it later itself. The
+     * caller publishes the returned entry.
+     *
+     * @param dataChecksum checksum of the data the content writes, to which the rest of the record is added
+     */
+    private synchronized Entry appendRecord(String fileName, int length, Instant storedAt, CRC32 dataChecksum,
+                                            RecordContent content, boolean sync) throws IOException {
+        byte[] name = fileName.getBytes(StandardCharsets.UTF_8);
+        long recordSize = RECORD_HEADER_SIZE + name.length + Math.max(length, 0);
+        if (active.size > SEGMENT_HEADER_SIZE && active.size + recordSize > maxSegmentBytes) {
+            active.seal();
+            active = createSegment(active.id + 1);
+        }
+
+        long position = active.size;
+        try {
+            ByteBuffer header = ByteBuffer.allocate(RECORD_HEADER_SIZE + name.length);
+            header.position(4);
+            header.putLong(storedAt != null ? storedAt.toEpochMilli() : 0)
+                    .putShort((short) name.length).put(name).putInt(length).flip();
+            dataChecksum.update(header.duplicate().position(4));
+            header.putInt(0, (int) dataChecksum.getValue());
+            writeFully(active.channel, header, position);
+            long dataOffset = position + header.capacity();
+            if (length > 0) {
+                content.writeTo(active.channel, dataOffset);
+            }
+            if (sync) {
+                active.channel.force(false);
+            }
+            active.size = dataOffset + Math.max(length, 0);
+            return new Entry(active.id, dataOffset, length, storedAt);
+        } catch (IOException e) {
+            // Drop the partial record so the next append starts from a clean end of segment
+            active.channel.truncate(position);
+            throw e;
+        }
+    }
+
+    public boolean isIndexReady() {
+        return indexLoaded;
+    }
+
+    /**
+     * Waits until the index answers lookups for every stored PDF, returning whether it does.
+     */
+    public boolean awaitIndexReady(Duration timeout) throws InterruptedException {
+        return indexReady.await(timeout.toMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public String find(String contentHash) {
+        String fileName = PdfStorage.contentAddressedFileName(contentHash);
+        return entries.containsKey(fileName) ? fileName : null;
+    }
+
+    @Override
+    public String store(String contentHash, Document document, PdfContentWriter writer)
+            throws IOException, PdfGenerationException {
+        String fileName = PdfStorage.contentAddressedFileName(contentHash);
+        Path tempFile = directory.resolve(fileName + TEMP_FILE_SUFFIX);
+        try {
+            CRC32 checksum = new CRC32();
+            try (OutputStream outputStream = new BufferedOutputStream(new CheckedOutputStream(
+                    Files.newOutputStream(tempFile, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE),
+                    checksum), RENDER_BUFFER_SIZE)) {
+                writer.write(outputStream);
+            }
+
+            long start = System.nanoTime();
+            try (FileChannel source = FileChannel.open(tempFile, StandardOpenOption.READ)) {
+                long length = source.size();
+                if (length > Integer.MAX_VALUE) {
+                    throw new IOException("Invoice PDF too large for a pack segment: " + length + " bytes");
+                }
+                pdfMetrics.recordOutputSize(length);
+                Entry entry;
+                Segment segment;
+                synchronized (this) {
+                    entry = appendRecord(fileName, (int) length, Instant.now().truncatedTo(ChronoUnit.MILLIS),
+                            checksum,
+                            (target, position) -> {
+                                long transferred = 0;
+                                while (transferred < length) {
+                                    target.position(position + transferred);
+                                    transferred += source.transferTo(transferred, length - transferred, target);
+                                }
+                            }, false);
+                    segment = segments.get(entry.segmentId());
+                    segment.unpublishedAppends++;
+                    pendingStores.put(fileName, entry);
+                }
+                publish(fileName, entry, segment);
+            }
+            pdfMetrics.recordStage(PdfMetrics.Stage.STORE, start);
+            logger.info("Generated new invoice PDF and packed it as: {}", fileName);
+            return fileName;
+        } finally {
+            Files.deleteIfExists(tempFile);
+        }
+    }
+
+    /**
+     * Waits for the appended record to be durable, without holding the lock, then makes it visible unless a later
+     * record under the same name was appended meanwhile. A record that fails to sync is left in the segment as dead.
+     */
+    private void publish(String fileName, Entry entry, Segment segment) throws IOException {
+        try {
+            segment.channel.force(false);
+        } catch (IOException e) {
+            synchronized (this) {
+                segment.unpublishedAppends--;
+                pendingStores.remove(fileName, entry);
+                markDead(fileName, entry);
+            }
+            throw e;
+        }
+        synchronized (this) {
+            segment.unpublishedAppends--;
+            if (pendingStores.remove(fileName, entry)) {
+                markDead(fileName, entries.put(fileName, entry));
+            } else {
+                markDead(fileName, entry);
+            }
+        }
+    }
+
+    @Override
+    public boolean exists(String fileName) {
+        return entries.containsKey(fileName);
+    }
+
+    @Override
+    public StoredPdf stat(String fileName) {
+        Entry entry = entries.get(fileName);
+        return entry != null ? storedPdf(fileName, entry) : null;
+    }
+
+    @Override
+    public Resource load(String fileName) throws IOException {
+        // A compaction can move the entry and close its segment between the lookup and the read; retry once
+        for (int attempt = 0; ; attempt++) {
+            Entry entry = entries.get(fileName);
+            Segment segment = entry != null ? segments.get(entry.segmentId()) : null;
+            try {
+                if (segment != null) {
+                    return new ByteBufferResource(segment.read(entry.offset(), entry.length()), fileName);
+                }
+            } catch (ClosedChannelException e) {
+                if (attempt > 0) {
+                    throw e;
+                }
+                continue;
+            }
+            if (entry == null || attempt > 0) {
+                throw new NoSuchFileException(fileName);
+            }
+        }
+    }
+
+    @Override
+    public synchronized boolean delete(String fileName) throws IOException {
+        Entry entry = entries.get(fileName);
+        if (entry == null) {
+            return false;
+        }
+        Entry tombstone = appendRecord(fileName, TOMBSTONE, null, new CRC32(), null, true);
+        entries.remove(fileName);
+        // A store still syncing landed before the tombstone, so it must not publish over it
+        pendingStores.remove(fileName);
+        if (!indexLoaded) {
+            deletedWhileLoading.add(fileName);
+        }
+        markDead(fileName, entry);
+        // The tombstone is dead weight too, kept only as long as an older record may need hiding
+        markDead(fileName, tombstone);
+        return true;
+    }
+
+    @Override
+    public int getEntryCount() {
+        return entries.size();
+    }
+
+    @Override
+    public void forEachStored(Consumer<StoredPdf> visitor) {
+        entries.forEach((fileName, entry) -> visitor.accept(storedPdf(fileName, entry)));
+    }
+
+    private static StoredPdf storedPdf(String fileName, Entry entry) {
+        return new StoredPdf(fileName, PdfStorage.contentHashOf(fileName), entry.length(), entry.storedAt());
+    }
+
+    /**
+     * Rewrites every sealed segment that is at least half dead and holds no record a store is still syncing: live
+     * records are appended to the active segment, then the old segment is deleted. Runs in the background once
+     * the index is loaded; public so it can be triggered directly.
+     */
+    public void compact() throws IOException {
+        if (!indexLoaded) {
+            return;
+        }
+        for (Segment segment : new ArrayList<>(segments.values())) {
+            boolean sealed;
+            synchronized (this) {
+                sealed = segment != active && segment.unpublishedAppends == 0;
+            }
+            long dataBytes = segment.size - SEGMENT_HEADER_SIZE;
+            if (sealed && dataBytes > 0 && segment.deadBytes.get() * 2 >= dataBytes) {
+                compactSegment(segment);
+            }
+        }
+    }
+
+    private void compactSegment(Segment segment) throws IOException {
+        ByteBuffer contents = segment.read(0, (int) segment.size);
+        int[] moved = new int[1];
+
+        readRecords(contents, segment.size, (fileName, dataOffset, length, storedAt) -> {
+            synchronized (this) {
+                if (length == TOMBSTONE) {
+                    // An older segment may still hold the deleted record, so the tombstone has to survive
+                    if (!entries.containsKey(fileName) && segments.firstKey() < segment.id) {
+                        markDead(fileName, appendRecord(fileName, TOMBSTONE, null, new CRC32(), null, true));
+                    }
+                    return;
+                }
+                Entry current = entries.get(fileName);
+                if (current != null && current.segmentId() == segment.id && current.offset() == dataOffset) {
+                    ByteBuffer data = contents.duplicate().position((int) dataOffset)
+                            .limit((int) dataOffset + length).slice();
+                    CRC32 checksum = new CRC32();
+                    checksum.update(data.duplicate());
+                    entries.put(fileName, appendRecord(fileName, length, current.storedAt(), checksum,
+                            (target, position) -> writeFully(target, data, position), true));
+                    // The copy now follows any record still syncing under the name, so that one must not publish
+                    pendingStores.remove(fileName);
+                    moved[0]++;
+                }
+            }
+        });
+
+        synchronized (this) {
+            segments.remove(segment.id);
+            segment.channel.close();
+            Files.delete(segment.file);
+        }
+        logger.info("Compacted invoice PDF pack segment {}, moved {} live entries", segment.file, moved[0]);
+    }
+
+    private void removeAbandonedRenders() throws IOException {
+        try (DirectoryStream<Path> tempFiles = Files.newDirectoryStream(directory, "*" + TEMP_FILE_SUFFIX)) {
+            for (Path tempFile : tempFiles) {
+                Files.deleteIfExists(tempFile);
+            }
+        }
+    }
+
+    @PreDestroy
+    public void close() throws IOException {
+        compactor.shutdownNow();
+        if (segmentLoader != null) {
+            try {
+                awaitIndexReady(CLOSE_INDEX_LOAD_WAIT);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            segmentLoader.shutdownNow();
+        }
+        closeSegments();
+    }
+
+    private synchronized void closeSegments() throws IOException {
+        for (Segment segment : segments.values()) {
+            segment.channel.close();
+        }
+    }
+}
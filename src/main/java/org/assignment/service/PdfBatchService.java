@@ -0,0 +1,125 @@
+package org.assignment.service;
+
+import jakarta.annotation.PreDestroy;
+import org.assignment.domainmodel.BatchResult;
+import org.assignment.domainmodel.Document;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Renders batches of documents in parallel on a bounded worker pool.
+ */
+@Service
+public class PdfBatchService {
+
+    private static final Logger logger = LoggerFactory.getLogger(PdfBatchService.class);
+
+    /**
+     * Receives batch results in completion order.
+     */
+    @FunctionalInterface
+    public interface ResultListener {
+        void onResult(BatchResult result) throws IOException;
+    }
+
+    @Autowired
+    private PdfGeneratorService pdfGeneratorService;
+
+    private final int parallelism;
+    private final ExecutorService workers;
+
+    public PdfBatchService(@Value("${pdf.batch.parallelism:0}") int parallelism) {
+        this.parallelism = parallelism > 0 ? parallelism : Runtime.getRuntime().availableProcessors();
+        AtomicInteger threadCount = new AtomicInteger();
+        this.workers = Executors.newFixedThreadPool(this.parallelism, runnable -> {
+            Thread thread = new Thread(runnable, "pdf-batch-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Renders every document and reports one result per document as each finishes. Documents are pulled
+     * from the iterator only as workers free up, so a streamed batch is never fully held in memory.
+     * A failing document is reported as an error result and does not affect the rest of the batch.
+     *
+     * A document that cannot be read ends the batch. The documents before it are still rendered and reported,
+     * followed by an error result with the index of the unreadable document.
+     */
+    public void generateBatch(Iterator<Document> documents, ResultListener listener)
+            throws IOException, InterruptedException {
+        CompletionService<BatchResult> completions = new ExecutorCompletionService<>(workers);
+        int maxOutstanding = parallelism * 2;
+        int submitted = 0;
+        int outstanding = 0;
+
+        BatchResult unreadable = null;
+        while (unreadable == null) {
+            Document document;
+            try {
+                if (!documents.hasNext()) {
+                    break;
+                }
+                document = documents.next();
+            } catch (RuntimeException e) {
+                logger.warn("Could not read invoice document {} of batch", submitted, e);
+                unreadable = BatchResult.failure(submitted, "Error reading document: " + e.getMessage());
+                break;
+            }
+            int index = submitted++;
+            completions.submit(() -> generate(index, document));
+            outstanding++;
+
+            if (outstanding >= maxOutstanding) {
+                listener.onResult(take(completions));
+                outstanding--;
+            }
+        }
+        while (outstanding > 0) {
+            listener.onResult(take(completions));
+            outstanding--;
+        }
+        if (unreadable != null) {
+            listener.onResult(unreadable);
+        }
+        logger.info("Completed invoice PDF batch of {} documents", submitted);
+    }
+
+    private BatchResult generate(int index, Document document) {
+        if (!pdfGeneratorService.isValidDocument(document)) {
+            return BatchResult.failure(index, "Invalid document: Required fields are missing");
+        }
+        try {
+            return BatchResult.success(index, pdfGeneratorService.generateAndStorePdf(document));
+        } catch (Exception e) {
+            logger.error("Error generating invoice PDF {} of batch", index, e);
+            return BatchResult.failure(index, "Error generating PDF: " + e.getMessage());
+        }
+    }
+
+    private static BatchResult take(CompletionService<BatchResult> completions) throws InterruptedException {
+        try {
+            return completions.take().get();
+        } catch (ExecutionException e) {
+            // generate() reports its own failures, so this only happens on errors like OutOfMemoryError
+            throw new IllegalStateException("Batch worker failed", e.getCause());
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        workers.shutdownNow();
+    }
+}
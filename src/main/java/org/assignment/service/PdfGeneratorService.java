@@ -2,30 +2,48 @@ package org.assignment.service;
 
 
 import com.lowagie.text.DocumentException;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
 import org.assignment.domainmodel.Document;
+import org.assignment.domainmodel.PdfOverlay;
 import org.assignment.exception.PdfGenerationException;
+import org.assignment.exception.RenderQueueFullException;
+import org.assignment.exception.RenderTimeoutException;
+import org.assignment.exception.StoredPdfNotFoundException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.ByteArrayResource;
+import org.springframework.core.io.FileSystemResource;
+import org.springframework.core.io.Resource;
 import org.springframework.stereotype.Service;
 import org.thymeleaf.TemplateEngine;
 import org.thymeleaf.context.Context;
 import org.xhtmlrenderer.pdf.ITextRenderer;
 
 import java.io.ByteArrayOutputStream;
-import java.io.FileInputStream;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.security.MessageDigest;
-import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
 import java.util.Base64;
-import java.util.UUID;
 import java.nio.file.Files;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 @Service
 public class PdfGeneratorService {
@@ -33,160 +51,645 @@ public class PdfGeneratorService {
     @Autowired
     private TemplateEngine templateEngine;
 
+    @Autowired
+    private HotPdfCache hotPdfCache;
+
+    @Autowired
+    private PdfMetrics pdfMetrics;
+
+    @Autowired
+    private NativeInvoiceRenderer nativeInvoiceRenderer;
+
+    @Autowired
+    private ChunkedPdfRenderer chunkedPdfRenderer;
+
+    @Autowired
+    private RenderLimiter renderLimiter;
+
+    @Autowired
+    private RenderQuarantine renderQuarantine;
+
+    @Autowired
+    private PdfRetention pdfRetention;
+
+    @Autowired
+    private PdfOverlayStamper pdfOverlayStamper;
+
+    @Autowired
+    private PdfMerger pdfMerger;
+
+    // Template used for invoices, and whether the built-in one is drawn natively instead of through HTML
+    @Value("${pdf.render.template:document}")
+    private String templateName;
+
+    @Value("${pdf.render.engine:html}")
+    private String renderEngine;
+
+    // Documents with at most this many items reuse their render thread's renderer, 0 = never
+    @Value("${pdf.render.reuse-max-items:20}")
+    private int rendererReuseMaxItems;
+
+    // How long the renders of one request may hold render permits, 0 = no limit
+    @Value("${pdf.render.timeout-seconds:60}")
+    private long renderTimeoutSeconds;
+
+    // Threads generating PDFs for /pdf/generate off the request threads, 0 = twice the render permits
+    @Value("${pdf.render.request-threads:0}")
+    private int requestThreads;
+
+    // /pdf/generate requests that may wait for a generate thread before further ones are turned away
+    @Value("${pdf.render.request-queue-capacity:100}")
+    private int requestQueueCapacity;
+
+    // Most stored PDFs one merge may combine
+    @Value("${pdf.merge.max-files:1000}")
+    private int maxMergeFiles;
+
+    @Autowired
+    private PdfStorage pdfStorage;
+
+    // Default of pdf.storage.path, where the storage backends keep PDFs
     public static final String PDF_STORAGE_PATH = System.getProperty("user.home") + "/generated_pdfs/";
-    private static final String CACHE_INDEX_FILE = PDF_STORAGE_PATH + "cache_index.ser";
 
     private static final Logger logger = LoggerFactory.getLogger(PdfGeneratorService.class);
 
-    // In-memory cache mapping document hashes to filenames
-    private ConcurrentHashMap<String, String> contentHashToFileName;
+    // Renderer kept by each render thread for small documents, so at most one per render permit
+    private static final ThreadLocal<ITextRenderer> reusableRenderer = new ThreadLocal<>();
 
-    public PdfGeneratorService() {
-        loadCacheIndex();
+    // Renders currently in progress, keyed by content hash
+    private final ConcurrentHashMap<String, CompletableFuture<String>> inFlightRenders = new ConcurrentHashMap<>();
+    private final AtomicLong coalescedRequests = new AtomicLong();
+
+    private ThreadPoolExecutor generateThreads;
+    private final AtomicLong generatedRequests = new AtomicLong();
+    private final AtomicLong totalGenerateMillis = new AtomicLong();
+
+    /**
+     * Produces and stores the PDF for a hash that has none yet, returning its file name.
+     */
+    @FunctionalInterface
+    private interface PdfProducer {
+        String produce() throws PdfGenerationException;
     }
-    @SuppressWarnings("unchecked")
-    private void loadCacheIndex() {
-        Path cacheFile = Paths.get(CACHE_INDEX_FILE);
-        if (Files.exists(cacheFile)) {
-            try (ObjectInputStream ois = new ObjectInputStream(new FileInputStream(CACHE_INDEX_FILE))) {
-                contentHashToFileName = (ConcurrentHashMap<String, String>) ois.readObject();
-                logger.info("Loaded invoice cache index with {} entries", contentHashToFileName.size());
-            } catch (Exception e) {
-                logger.error("Error loading invoice cache index, creating new one", e);
-                contentHashToFileName = new ConcurrentHashMap<>();
-            }
-        } else {
-            contentHashToFileName = new ConcurrentHashMap<>();
+
+    /**
+     * Generates a hash for the canonicalized document content. Amounts are compared at two decimal
+     * places to ensure consistent hashing despite floating-point representation issues.
+     */
+    private String generateContentHash(Document document) throws PdfGenerationException {
+        try {
+            byte[] hash = DocumentContentHasher.hash(document);
+            return Base64.getUrlEncoder().withoutPadding().encodeToString(hash);
+        } catch (IllegalStateException | IllegalArgumentException e) {
+            throw new PdfGenerationException("Failed to generate invoice content hash", e);
         }
     }
 
-    private void saveCacheIndex() {
+    private String generateVariantHash(String contentHash, PdfOverlay overlay) {
+        return Base64.getUrlEncoder().withoutPadding()
+                .encodeToString(DocumentContentHasher.hashVariant(contentHash, overlay));
+    }
+
+    private String generateMergeHash(List<String> inputHashes) {
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(DocumentContentHasher.hashMerge(inputHashes));
+    }
+
+    @PostConstruct
+    void startGenerateThreads() {
+        int threads = requestThreads > 0 ? requestThreads : 2 * renderLimiter.getMaxConcurrent();
+        AtomicInteger threadCount = new AtomicInteger();
+        generateThreads = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(requestQueueCapacity), runnable -> {
+                    Thread thread = new Thread(runnable, "pdf-generate-" + threadCount.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }, new ThreadPoolExecutor.AbortPolicy());
+    }
+
+    @PreDestroy
+    void stopGenerateThreads() {
+        generateThreads.shutdownNow();
+    }
+
+    /**
+     * As {@link #generateAndStorePdf(Document)}, without holding the calling thread for a render. A stored PDF is
+     * returned at once; otherwise the PDF is generated on a generate thread, and a request waiting for one holds
+     * no thread at all, so request threads stay free for cache hits and downloads however long renders queue.
+     * The future fails with {@link RenderQueueFullException} when every generate thread is busy and the queue in
+     * front of them is full.
+     */
+    public CompletableFuture<String> generateAndStorePdfAsync(Document document) {
+        String contentHash;
         try {
-            Files.createDirectories(Paths.get(PDF_STORAGE_PATH));
-            try (ObjectOutputStream oos = new ObjectOutputStream(new FileOutputStream(CACHE_INDEX_FILE))) {
-                oos.writeObject(contentHashToFileName);
-                logger.info("Saved invoice cache index with {} entries", contentHashToFileName.size());
+            long start = System.nanoTime();
+            contentHash = generateContentHash(document);
+            pdfMetrics.recordStage(PdfMetrics.Stage.HASH, start);
+            checkNotQuarantined(contentHash);
+            String storedFileName = findStored(PdfOverlayStamper.hasOverlay(document.getOverlay())
+                    ? generateVariantHash(contentHash, document.getOverlay()) : contentHash);
+            if (storedFileName != null) {
+                return CompletableFuture.completedFuture(storedFileName);
             }
-        } catch (Exception e) {
-            logger.error("Error saving invoice cache index", e);
+        } catch (PdfGenerationException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+
+        CompletableFuture<String> generated = new CompletableFuture<>();
+        try {
+            generateThreads.execute(() -> {
+                long start = System.nanoTime();
+                try {
+                    generated.complete(generateAndStorePdf(document, contentHash));
+                } catch (Throwable e) {
+                    generated.completeExceptionally(e);
+                } finally {
+                    generatedRequests.incrementAndGet();
+                    totalGenerateMillis.addAndGet(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            generated.completeExceptionally(new RenderQueueFullException("Invoice PDF render queue is full",
+                    estimateGenerateRetryAfterSeconds()));
         }
+        return generated;
     }
 
     /**
-     * Generates a hash for the document content, including special handling for double values
-     * to ensure consistent hashing despite floating-point representation issues.
+     * Estimates how long until the generate queue has room, from its depth and the average generate time.
      */
-    private String generateContentHash(Document document) throws PdfGenerationException {
-        try {
-            StringBuilder contentBuilder = new StringBuilder();
-            contentBuilder.append(document.getSellerGstin() != null ? document.getSellerGstin() : "")
-                    .append("_")
-                    .append(document.getBuyerGstin() != null ? document.getBuyerGstin() : "")
-                    .append("_")
-                    .append(document.toString());
-
-            // Special handling for double values to ensure consistent hashing
-            if (document.getItems() != null) {
-                document.getItems().forEach(item -> {
-                    contentBuilder.append(String.format("|%.2f:%.2f", item.getRate(), item.getAmount()));
-                });
-            }
+    private long estimateGenerateRetryAfterSeconds() {
+        long generated = generatedRequests.get();
+        long averageMillis = generated > 0 ? totalGenerateMillis.get() / generated : 1000;
+        long drainMillis = averageMillis * generateThreads.getQueue().size() / generateThreads.getMaximumPoolSize();
+        return Math.max(1, TimeUnit.MILLISECONDS.toSeconds(drainMillis));
+    }
 
-            MessageDigest digest = MessageDigest.getInstance("SHA-256");
-            byte[] hash = digest.digest(contentBuilder.toString().getBytes());
-            return Base64.getUrlEncoder().withoutPadding().encodeToString(hash);
-        } catch (NoSuchAlgorithmException e) {
-            throw new PdfGenerationException("Failed to generate invoice content hash", e);
+    /**
+     * Returns the PDF stored under the hash if there is one, counting only hits; a miss is counted by the lookup
+     * that follows it.
+     */
+    private String findStored(String contentHash) {
+        String fileName = pdfStorage.find(contentHash);
+        if (fileName != null) {
+            pdfMetrics.recordCacheLookup(true);
+            pdfRetention.recordAccess(fileName);
         }
+        return fileName;
     }
 
+    /**
+     * Returns the stored PDF for the document, rendering it only if its content has not been rendered before.
+     * A document with an overlay is rendered without it and the overlay stamped onto a copy, so every variant
+     * of an invoice shares one render and is itself cached under the content hash and overlay.
+     */
     public String generateAndStorePdf(Document document) throws PdfGenerationException {
-        try {
-            String contentHash = generateContentHash(document);
-
-            // Check if we already have a PDF for this invoice content
-            String existingFileName = contentHashToFileName.get(contentHash);
-            if (existingFileName != null) {
-                Path existingFile = Paths.get(PDF_STORAGE_PATH, existingFileName);
-                if (Files.exists(existingFile)) {
-                    logger.info("Returning existing invoice PDF file: {}", existingFileName);
-                    return existingFileName;
-                } else {
-                    contentHashToFileName.remove(contentHash);
-                }
-            }
+        long start = System.nanoTime();
+        String contentHash = generateContentHash(document);
+        pdfMetrics.recordStage(PdfMetrics.Stage.HASH, start);
+        checkNotQuarantined(contentHash);
+        return generateAndStorePdf(document, contentHash);
+    }
 
-            // Generate new PDF
-            byte[] pdfBytes = generatePdf(document);
+    private String generateAndStorePdf(Document document, String contentHash) throws PdfGenerationException {
+        RenderLimiter.Deadline deadline = newRenderDeadline();
+        String baseFileName = findOrStore(contentHash, () -> renderAndStorePdf(document, contentHash, deadline));
+        if (!PdfOverlayStamper.hasOverlay(document.getOverlay())) {
+            return baseFileName;
+        }
+        String variantHash = generateVariantHash(contentHash, document.getOverlay());
+        return findOrStore(variantHash, () -> stampAndStorePdf(document, baseFileName, variantHash, deadline));
+    }
 
-            // Create filename using GSTIN for better organization
-            String fileName = String.format("%s_%s_%s.pdf",
-                    document.getSellerGstin() != null ? document.getSellerGstin() : "noGstin",
-                    document.getBuyerGstin() != null ? document.getBuyerGstin() : "noGstin",
-                    UUID.randomUUID().toString());
+    /**
+     * One deadline covers every render of a request, however many chunks and steps it takes. It only runs while
+     * one of them holds a render permit, so a request is never timed out for the load it queued behind.
+     */
+    private RenderLimiter.Deadline newRenderDeadline() {
+        return renderTimeoutSeconds > 0 ? new RenderLimiter.Deadline(Duration.ofSeconds(renderTimeoutSeconds)) : null;
+    }
 
-            Path filePath = Paths.get(PDF_STORAGE_PATH, fileName);
+    /**
+     * Returns the PDF stored under the hash, or has the producer store it. Concurrent requests for the same
+     * hash are coalesced onto a single producer.
+     */
+    private String findOrStore(String contentHash, PdfProducer producer) throws PdfGenerationException {
+        // Check if we already have a PDF for this invoice content
+        String existingFileName = pdfStorage.find(contentHash);
+        pdfMetrics.recordCacheLookup(existingFileName != null);
+        if (existingFileName != null) {
+            pdfRetention.recordAccess(existingFileName);
+            return existingFileName;
+        }
 
-            Files.createDirectories(filePath.getParent());
-            Files.write(filePath, pdfBytes);
+        // Coalesce concurrent requests for the same content onto a single render
+        CompletableFuture<String> render = new CompletableFuture<>();
+        CompletableFuture<String> inFlight = inFlightRenders.putIfAbsent(contentHash, render);
+        if (inFlight != null) {
+            coalescedRequests.incrementAndGet();
+            logger.info("Waiting for in-flight invoice PDF render of identical content");
+            return awaitRender(inFlight);
+        }
 
-            contentHashToFileName.put(contentHash, fileName);
-            saveCacheIndex();
+        try {
+            // A render for this content may have completed between the lookup and claiming it
+            String fileName = pdfStorage.find(contentHash);
+            if (fileName == null) {
+                fileName = producer.produce();
+            }
+            render.complete(fileName);
+            return fileName;
+        } catch (PdfGenerationException | RuntimeException e) {
+            render.completeExceptionally(e);
+            throw e;
+        } finally {
+            inFlightRenders.remove(contentHash, render);
+        }
+    }
 
-            logger.info("Generated new invoice PDF and stored at: {}", filePath);
+    private String awaitRender(CompletableFuture<String> inFlight) throws PdfGenerationException {
+        try {
+            return inFlight.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new PdfGenerationException("Interrupted while waiting for invoice PDF generation", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RenderTimeoutException) {
+                throw new RenderTimeoutException(e.getCause().getMessage(), e.getCause());
+            }
+            throw new PdfGenerationException("Invoice PDF generation failed for identical in-flight request",
+                    e.getCause());
+        }
+    }
+
+    private void checkNotQuarantined(String contentHash) throws RenderTimeoutException {
+        Instant quarantinedUntil = renderQuarantine.getQuarantinedUntil(contentHash);
+        if (quarantinedUntil != null) {
+            throw new RenderTimeoutException("Invoice PDF rendering of this document exceeded the render deadline "
+                    + "and is refused until " + quarantinedUntil);
+        }
+    }
+
+    private String renderAndStorePdf(Document document, String contentHash, RenderLimiter.Deadline deadline)
+            throws PdfGenerationException {
+        try {
+            String fileName = pdfStorage.store(contentHash, document,
+                    outputStream -> generatePdf(document, outputStream, deadline));
+            pdfMetrics.recordDocument(document.getItems() != null ? document.getItems().size() : 0);
             return fileName;
+        } catch (RenderTimeoutException e) {
+            // Only rendering counts against the deadline, so this document is what took too long
+            renderQuarantine.add(contentHash);
+            logger.warn("Quarantined invoice content {} after it exceeded the render deadline", contentHash);
+            throw e;
         } catch (IOException e) {
             throw new PdfGenerationException("Failed to generate or store invoice PDF due to IO error", e);
+        } catch (PdfGenerationException e) {
+            throw e;
         } catch (Exception e) {
             throw new PdfGenerationException("Unexpected error in invoice PDF generation process", e);
         }
     }
 
-    private byte[] generatePdf(Document document) throws PdfGenerationException {
+    private String stampAndStorePdf(Document document, String baseFileName, String variantHash,
+                                    RenderLimiter.Deadline deadline) throws PdfGenerationException {
         try {
-            Context context = new Context();
-            context.setVariable("document", document);
+            String fileName = pdfStorage.store(variantHash, document,
+                    outputStream -> stampPdf(document, baseFileName, outputStream, deadline));
+            return fileName;
+        } catch (IOException e) {
+            throw new PdfGenerationException("Failed to stamp or store invoice PDF variant due to IO error", e);
+        }
+    }
 
-            String processedHtml = templateEngine.process("document", context);
+    /**
+     * Returns a stored PDF with the pages of the given stored PDFs in order, copied without rendering anything.
+     * The merge is cached under the ordered hashes of its inputs, so merging the same PDFs again is a lookup.
+     */
+    public String mergeStoredPdfs(List<String> fileNames) throws PdfGenerationException {
+        List<String> inputHashes = new ArrayList<>(fileNames.size());
+        for (String fileName : fileNames) {
+            PdfStorage.StoredPdf stored = statStoredPdf(fileName);
+            // A file stored outside the index is known only by its name, which is unique to it
+            inputHashes.add(stored.contentHash() != null ? stored.contentHash() : fileName);
+        }
+        String mergeHash = generateMergeHash(inputHashes);
+        RenderLimiter.Deadline deadline = newRenderDeadline();
+        return findOrStore(mergeHash, () -> mergeAndStorePdf(fileNames, mergeHash, deadline));
+    }
 
-            ITextRenderer renderer = new ITextRenderer();
-            renderer.setDocumentFromString(processedHtml);
-            renderer.layout();
+    /**
+     * Merged PDFs are left out of the hot cache, where a single one could push out many invoices.
+     */
+    private String mergeAndStorePdf(List<String> fileNames, String mergeHash, RenderLimiter.Deadline deadline)
+            throws PdfGenerationException {
+        try {
+            String fileName = pdfStorage.store(mergeHash, null,
+                    outputStream -> mergePdfs(fileNames, outputStream, deadline));
+            logger.info("Merged {} invoice PDFs into {}", fileNames.size(), fileName);
+            return fileName;
+        } catch (IOException e) {
+            throw new PdfGenerationException("Failed to merge or store invoice PDFs due to IO error", e);
+        }
+    }
 
-            try (ByteArrayOutputStream outputStream = new ByteArrayOutputStream()) {
-                renderer.createPDF(outputStream);
-                return outputStream.toByteArray();
+    /**
+     * Copies the pages under a permit of the large lane. Inputs are read from the hot cache when there, and
+     * otherwise straight from storage without being cached.
+     */
+    private void mergePdfs(List<String> fileNames, OutputStream outputStream, RenderLimiter.Deadline deadline)
+            throws PdfGenerationException {
+        List<Resource> inputs = new ArrayList<>(fileNames.size());
+        for (String fileName : fileNames) {
+            checkStored(fileName);
+            ByteBuffer cached = hotPdfCache.get(fileName);
+            try {
+                inputs.add(cached != null ? new ByteBufferResource(cached, fileName) : pdfStorage.load(fileName));
+            } catch (NoSuchFileException e) {
+                throw new StoredPdfNotFoundException("Invoice PDF file not found: " + fileName, e);
+            } catch (IOException e) {
+                throw new PdfGenerationException("Error reading invoice PDF file", e);
             }
+        }
+        try {
+            renderLimiter.render(RenderLimiter.Lane.LARGE, deadline, () -> {
+                long start = System.nanoTime();
+                pdfMerger.merge(inputs, outputStream);
+                pdfMetrics.recordStage(PdfMetrics.Stage.MERGE, start);
+            });
+        } catch (PdfGenerationException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new PdfGenerationException("Failed to merge invoice PDFs", e);
+        }
+    }
+
+    /**
+     * Stamps the overlay onto the stored base PDF. Cheap as it is, it is CPU work and takes a render permit.
+     */
+    private void stampPdf(Document document, String baseFileName, OutputStream outputStream,
+                          RenderLimiter.Deadline deadline) throws PdfGenerationException {
+        Resource basePdf = loadStoredPdf(baseFileName);
+        try {
+            renderLimiter.render(renderLimiter.laneFor(document), deadline, () -> {
+                long start = System.nanoTime();
+                pdfOverlayStamper.stamp(basePdf, document.getOverlay(), outputStream);
+                pdfMetrics.recordStage(PdfMetrics.Stage.STAMP, start);
+            });
+        } catch (PdfGenerationException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new PdfGenerationException("Failed to stamp invoice PDF variant", e);
+        }
+    }
+
+    /**
+     * Hashes and renders the document, and stamps its overlay if it has one, without storing anything. Loads and
+     * compiles the code a first request would otherwise wait for.
+     */
+    public void warmUp(Document document) throws PdfGenerationException {
+        generateContentHash(document);
+        ByteArrayOutputStream pdf = new ByteArrayOutputStream();
+        generatePdf(document, pdf, newRenderDeadline());
+        if (PdfOverlayStamper.hasOverlay(document.getOverlay())) {
+            try {
+                pdfOverlayStamper.stamp(new ByteArrayResource(pdf.toByteArray()), document.getOverlay(),
+                        OutputStream.nullOutputStream());
+            } catch (Exception e) {
+                throw new PdfGenerationException("Failed to stamp invoice PDF variant", e);
+            }
+        }
+    }
+
+    /**
+     * Pulls PDFs kept as individual files into the off-heap hot cache on their first download, so one-off
+     * documents never displace it. Backends that already serve memory-mapped data do not need it. Returns the
+     * cached content, or null if it was not cached.
+     */
+    private ByteBuffer cacheIfLocalFile(String fileName, Resource resource) throws IOException {
+        if (resource.isFile()) {
+            return hotPdfCache.put(fileName, resource.getFile().toPath());
+        }
+        return null;
+    }
+
+    /**
+     * Number of requests that were served by waiting on an identical in-flight render.
+     */
+    public long getCoalescedRequestCount() {
+        return coalescedRequests.get();
+    }
+
+    public int getCacheIndexSize() {
+        return pdfStorage.getEntryCount();
+    }
+
+    /**
+     * Renders the document under a render permit from the lane for its size. Chunked documents take one permit
+     * per chunk rather than one for the whole merge, so the chunks can use every permit of their lane. The
+     * chunks share the request's deadline, each being given only the time the earlier ones left.
+     */
+    private void generatePdf(Document document, OutputStream outputStream, RenderLimiter.Deadline deadline)
+            throws PdfGenerationException {
+        try {
+            RenderLimiter.Lane lane = renderLimiter.laneFor(document);
+            if (isNativeRendering()) {
+                renderLimiter.render(lane, deadline, () -> {
+                    long start = System.nanoTime();
+                    nativeInvoiceRenderer.render(document, outputStream);
+                    pdfMetrics.recordStage(PdfMetrics.Stage.NATIVE, start);
+                });
+            } else if (chunkedPdfRenderer.shouldChunk(document)) {
+                chunkedPdfRenderer.render(document, outputStream, (chunk, firstChunk, lastChunk, chunkOutput) ->
+                        renderLimiter.render(lane, deadline,
+                                () -> renderHtml(chunk, firstChunk, lastChunk, chunkOutput)));
+            } else {
+                renderLimiter.render(lane, deadline, () -> renderHtml(document, true, true, outputStream));
+            }
+        } catch (RenderTimeoutException e) {
+            throw e;
         } catch (Exception e) {
             throw new PdfGenerationException("Failed to generate invoice PDF", e);
         }
     }
 
+    /**
+     * Renders the document, or one chunk of it, through the HTML template. Continuation chunks leave out the
+     * party header and all but the last chunk leave out the closing row.
+     */
+    private void renderHtml(Document document, boolean firstChunk, boolean lastChunk, OutputStream outputStream)
+            throws Exception {
+        long start = System.nanoTime();
+        Context context = new Context();
+        context.setVariable("document", document);
+        context.setVariable("continuation", !firstChunk);
+        context.setVariable("moreChunks", !lastChunk);
+
+        String processedHtml = templateEngine.process(templateName, context);
+        start = pdfMetrics.recordStage(PdfMetrics.Stage.TEMPLATE, start);
+
+        boolean reuse = document.getItems() != null && document.getItems().size() <= rendererReuseMaxItems;
+        ITextRenderer renderer = reuse ? reusableRenderer.get() : null;
+        if (renderer == null) {
+            renderer = newRenderer();
+            if (reuse) {
+                reusableRenderer.set(renderer);
+            }
+        }
+        try {
+            renderer.setDocumentFromString(processedHtml);
+            renderer.layout();
+            start = pdfMetrics.recordStage(PdfMetrics.Stage.LAYOUT, start);
+
+            renderer.createPDF(outputStream);
+            pdfMetrics.recordStage(PdfMetrics.Stage.SERIALIZE, start);
+        } catch (Exception | Error e) {
+            // A render cut short, by its deadline among others, may leave the renderer half way through a document
+            if (reuse) {
+                reusableRenderer.remove();
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Creating a renderer builds its font resolver and shared context, about a third of the time a two-item
+     * invoice takes to render (RendererReuseBenchmark), so small documents reuse one. Larger documents get their
+     * own: reuse made 100-item invoices slower, and a reused renderer keeps its last layout tree reachable.
+     */
+    private static ITextRenderer newRenderer() {
+        ITextRenderer renderer = new ITextRenderer();
+        renderer.getSharedContext().setTextRenderer(new RenderCancellation.TextRenderer());
+        return renderer;
+    }
+
+    /**
+     * Custom templates always go through the HTML path, the native renderer only knows the built-in layout.
+     */
+    private boolean isNativeRendering() {
+        return "native".equalsIgnoreCase(renderEngine) && nativeInvoiceRenderer.supports(templateName);
+    }
+
     public byte[] retrieveStoredPdf(String fileNameOrPath) throws PdfGenerationException {
-        Path filePath;
-        if (fileNameOrPath.contains("/")) {
-            filePath = Paths.get(fileNameOrPath);
-        } else {
-            filePath = Paths.get(PDF_STORAGE_PATH, fileNameOrPath);
+        if (!isStoredFileName(fileNameOrPath)) {
+            try {
+                return Files.readAllBytes(resolveExternalPdf(fileNameOrPath));
+            } catch (IOException e) {
+                throw new PdfGenerationException("Error reading invoice PDF file", e);
+            }
         }
 
-        if (!Files.exists(filePath)) {
-            logger.error("Invoice PDF file not found at: {}", filePath);
-            throw new PdfGenerationException("Invoice PDF file not found: " + fileNameOrPath);
+        checkStored(fileNameOrPath);
+        pdfRetention.recordAccess(fileNameOrPath);
+        ByteBuffer cached = hotPdfCache.get(fileNameOrPath);
+        if (cached != null) {
+            byte[] pdfBytes = new byte[cached.remaining()];
+            cached.get(pdfBytes);
+            return pdfBytes;
+        }
+
+        try {
+            Resource resource = pdfStorage.load(fileNameOrPath);
+            ByteBuffer justCached = cacheIfLocalFile(fileNameOrPath, resource);
+            if (justCached != null) {
+                byte[] pdfBytes = new byte[justCached.remaining()];
+                justCached.get(pdfBytes);
+                return pdfBytes;
+            }
+            return resource.getContentAsByteArray();
+        } catch (NoSuchFileException e) {
+            throw new StoredPdfNotFoundException("Invoice PDF file not found: " + fileNameOrPath, e);
+        } catch (IOException e) {
+            throw new PdfGenerationException("Error reading invoice PDF file", e);
+        }
+    }
+
+    /**
+     * Returns the stored PDF as a resource that can be streamed without loading it on the heap, served from
+     * the off-heap hot cache when possible.
+     */
+    public Resource loadStoredPdf(String fileNameOrPath) throws PdfGenerationException {
+        if (!isStoredFileName(fileNameOrPath)) {
+            return new FileSystemResource(resolveExternalPdf(fileNameOrPath));
+        }
+
+        checkStored(fileNameOrPath);
+        pdfRetention.recordAccess(fileNameOrPath);
+        ByteBuffer cached = hotPdfCache.get(fileNameOrPath);
+        if (cached != null) {
+            return new ByteBufferResource(cached, fileNameOrPath);
         }
 
         try {
-            return Files.readAllBytes(filePath);
+            Resource resource = pdfStorage.load(fileNameOrPath);
+            // Served from the bytes just cached rather than read from the file a second time
+            ByteBuffer justCached = cacheIfLocalFile(fileNameOrPath, resource);
+            return justCached != null ? new ByteBufferResource(justCached, fileNameOrPath) : resource;
+        } catch (NoSuchFileException e) {
+            throw new StoredPdfNotFoundException("Invoice PDF file not found: " + fileNameOrPath, e);
         } catch (IOException e) {
             throw new PdfGenerationException("Error reading invoice PDF file", e);
         }
     }
 
+    /**
+     * Returns the metadata of a stored PDF, read from storage without opening the PDF.
+     */
+    public PdfStorage.StoredPdf statStoredPdf(String fileName) throws PdfGenerationException {
+        PdfStorage.StoredPdf stored;
+        try {
+            stored = pdfStorage.stat(fileName);
+        } catch (IOException e) {
+            throw new PdfGenerationException("Error reading invoice PDF file", e);
+        }
+        if (stored == null) {
+            hotPdfCache.invalidate(fileName);
+            logger.error("Invoice PDF file not found: {}", fileName);
+            throw new StoredPdfNotFoundException("Invoice PDF file not found: " + fileName);
+        }
+        pdfRetention.recordAccess(fileName);
+        return stored;
+    }
+
+    private static boolean isStoredFileName(String fileNameOrPath) {
+        return !fileNameOrPath.contains("/");
+    }
+
+    /**
+     * Checked even on a cache hit, so a PDF removed from storage is never served from the cache.
+     */
+    private void checkStored(String fileName) throws PdfGenerationException {
+        if (!pdfStorage.exists(fileName)) {
+            hotPdfCache.invalidate(fileName);
+            logger.error("Invoice PDF file not found: {}", fileName);
+            throw new StoredPdfNotFoundException("Invoice PDF file not found: " + fileName);
+        }
+    }
+
+    private Path resolveExternalPdf(String path) throws PdfGenerationException {
+        Path filePath = Paths.get(path);
+        if (!Files.exists(filePath)) {
+            logger.error("Invoice PDF file not found at: {}", filePath);
+            throw new PdfGenerationException("Invoice PDF file not found: " + path);
+        }
+        return filePath;
+    }
+
+    /**
+     * A merge takes between one and the maximum number of stored file names, never paths.
+     */
+    public boolean isValidMergeRequest(List<String> fileNames) {
+        return fileNames != null && !fileNames.isEmpty() && fileNames.size() <= maxMergeFiles &&
+                fileNames.stream().allMatch(fileName ->
+                        fileName != null && !fileName.trim().isEmpty() && isStoredFileName(fileName));
+    }
+
     public boolean isValidDocument(Document document) {
         return document != null &&
                 document.getSellerGstin() != null && !document.getSellerGstin().trim().isEmpty() &&
                 document.getBuyerGstin() != null && !document.getBuyerGstin().trim().isEmpty() &&
-                document.getItems() != null && !document.getItems().isEmpty();
+                document.getItems() != null && !document.getItems().isEmpty() &&
+                document.getItems().stream().allMatch(item -> item == null
+                        || Double.isFinite(item.getRate()) && Double.isFinite(item.getAmount()));
     }
 
 }
@@ -0,0 +1,172 @@
+package org.assignment.service;
+
+import jakarta.annotation.PreDestroy;
+import org.assignment.domainmodel.Document;
+import org.assignment.domainmodel.PdfJob;
+import org.assignment.exception.RenderQueueFullException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Runs PDF generation jobs asynchronously on a fixed pool of render workers fed by a bounded queue.
+ * Submissions are rejected when the queue is full rather than letting latency pile up.
+ */
+@Service
+public class PdfJobService {
+
+    private static final Logger logger = LoggerFactory.getLogger(PdfJobService.class);
+
+    private final PdfGeneratorService pdfGeneratorService;
+    private final ThreadPoolExecutor workers;
+    private final ScheduledExecutorService janitor;
+    private final Duration retention;
+
+    private final ConcurrentHashMap<String, PdfJob> jobs = new ConcurrentHashMap<>();
+
+    private final AtomicLong startedJobs = new AtomicLong();
+    private final AtomicLong totalQueueWaitMillis = new AtomicLong();
+    private final AtomicLong maxQueueWaitMillis = new AtomicLong();
+    private final AtomicLong finishedJobs = new AtomicLong();
+    private final AtomicLong totalRenderMillis = new AtomicLong();
+    private final AtomicLong rejectedJobs = new AtomicLong();
+
+    public PdfJobService(PdfGeneratorService pdfGeneratorService,
+                         @Value("${pdf.jobs.workers:0}") int workerCount,
+                         @Value("${pdf.jobs.queue-capacity:100}") int queueCapacity,
+                         @Value("${pdf.jobs.retention-minutes:60}") long retentionMinutes) {
+        this.pdfGeneratorService = pdfGeneratorService;
+        this.retention = Duration.ofMinutes(retentionMinutes);
+
+        int threads = workerCount > 0 ? workerCount : Runtime.getRuntime().availableProcessors();
+        AtomicInteger threadCount = new AtomicInteger();
+        this.workers = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueCapacity), runnable -> {
+                    Thread thread = new Thread(runnable, "pdf-job-worker-" + threadCount.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }, new ThreadPoolExecutor.AbortPolicy());
+
+        this.janitor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "pdf-job-janitor");
+            thread.setDaemon(true);
+            return thread;
+        });
+        janitor.scheduleWithFixedDelay(this::removeExpiredJobs, 1, 1, TimeUnit.MINUTES);
+    }
+
+    /**
+     * Queues the document for rendering and returns its job immediately.
+     *
+     * @throws RenderQueueFullException if the render queue is at capacity
+     */
+    public PdfJob submit(Document document) throws RenderQueueFullException {
+        PdfJob job = new PdfJob(UUID.randomUUID().toString());
+        jobs.put(job.getId(), job);
+        try {
+            workers.execute(() -> run(job, document));
+        } catch (RejectedExecutionException e) {
+            jobs.remove(job.getId());
+            rejectedJobs.incrementAndGet();
+            throw new RenderQueueFullException("Invoice PDF render queue is full", estimateRetryAfterSeconds());
+        }
+        return job;
+    }
+
+    public PdfJob getJob(String id) {
+        return jobs.get(id);
+    }
+
+    private void run(PdfJob job, Document document) {
+        job.markRunning();
+        long waitMillis = Duration.between(job.getSubmittedAt(), job.getStartedAt()).toMillis();
+        startedJobs.incrementAndGet();
+        totalQueueWaitMillis.addAndGet(waitMillis);
+        maxQueueWaitMillis.accumulateAndGet(waitMillis, Math::max);
+
+        try {
+            job.markCompleted(pdfGeneratorService.generateAndStorePdf(document));
+        } catch (Exception e) {
+            logger.error("Invoice PDF job {} failed", job.getId(), e);
+            job.markFailed("Error generating PDF: " + e.getMessage());
+        } finally {
+            finishedJobs.incrementAndGet();
+            totalRenderMillis.addAndGet(Duration.between(job.getStartedAt(), job.getCompletedAt()).toMillis());
+        }
+    }
+
+    /**
+     * Estimates how long until the queue has room, from the queue depth and the average render time.
+     */
+    private long estimateRetryAfterSeconds() {
+        long finished = finishedJobs.get();
+        long averageRenderMillis = finished > 0 ? totalRenderMillis.get() / finished : 1000;
+        long drainMillis = averageRenderMillis * workers.getQueue().size() / workers.getMaximumPoolSize();
+        return Math.max(1, TimeUnit.MILLISECONDS.toSeconds(drainMillis));
+    }
+
+    private void removeExpiredJobs() {
+        Instant cutoff = Instant.now().minus(retention);
+        jobs.values().removeIf(job -> job.isFinished() && job.getCompletedAt().isBefore(cutoff));
+    }
+
+    public int getQueueDepth() {
+        return workers.getQueue().size();
+    }
+
+    public int getQueueCapacity() {
+        return workers.getQueue().size() + workers.getQueue().remainingCapacity();
+    }
+
+    public int getActiveWorkers() {
+        return workers.getActiveCount();
+    }
+
+    public long getStartedJobCount() {
+        return startedJobs.get();
+    }
+
+    public long getTotalQueueWaitMillis() {
+        return totalQueueWaitMillis.get();
+    }
+
+    public long getRejectedJobCount() {
+        return rejectedJobs.get();
+    }
+
+    public Map<String, Object> getStats() {
+        long started = startedJobs.get();
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("queueDepth", getQueueDepth());
+        stats.put("queueCapacity", getQueueCapacity());
+        stats.put("activeWorkers", workers.getActiveCount());
+        stats.put("workers", workers.getMaximumPoolSize());
+        stats.put("startedJobs", started);
+        stats.put("rejectedJobs", rejectedJobs.get());
+        stats.put("averageQueueWaitMillis", started > 0 ? totalQueueWaitMillis.get() / started : 0);
+        stats.put("maxQueueWaitMillis", maxQueueWaitMillis.get());
+        return stats;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        janitor.shutdownNow();
+        workers.shutdownNow();
+    }
+}
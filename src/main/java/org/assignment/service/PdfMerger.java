@@ -0,0 +1,57 @@
+package org.assignment.service;
+
+import com.itextpdf.text.DocumentException;
+import com.itextpdf.text.io.RandomAccessSourceFactory;
+import com.itextpdf.text.pdf.PdfReader;
+import com.itextpdf.text.pdf.PdfSmartCopy;
+import com.itextpdf.text.pdf.RandomAccessFileOrArray;
+import org.springframework.core.io.Resource;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.List;
+
+/**
+ * Concatenates already rendered PDFs by copying their pages into one output PDF. Nothing is laid out again,
+ * so a merge costs time in proportion to the bytes copied.
+ *
+ * Identical objects, such as the fonts every invoice embeds, are written to the output once and shared by all
+ * the pages using them. Inputs are read one at a time and released as soon as their pages are copied.
+ */
+@Component
+public class PdfMerger {
+
+    public void merge(List<Resource> inputs, OutputStream outputStream) throws IOException, DocumentException {
+        com.itextpdf.text.Document merged = new com.itextpdf.text.Document();
+        PdfSmartCopy copy = new PdfSmartCopy(merged, outputStream);
+        merged.open();
+        for (Resource input : inputs) {
+            PdfReader reader = open(input);
+            try {
+                for (int page = 1; page <= reader.getNumberOfPages(); page++) {
+                    RenderCancellation.check();
+                    copy.addPage(copy.getImportedPage(reader, page));
+                }
+                copy.freeReader(reader);
+            } finally {
+                reader.close();
+            }
+        }
+        merged.close();
+    }
+
+    /**
+     * Files are read partially, objects being loaded as their pages are copied rather than all up front.
+     */
+    private static PdfReader open(Resource pdf) throws IOException {
+        if (pdf.isFile()) {
+            return new PdfReader(new RandomAccessFileOrArray(
+                    new RandomAccessSourceFactory().createBestSource(pdf.getFile().getPath())), null);
+        }
+        try (InputStream inputStream = pdf.getInputStream()) {
+            return new PdfReader(inputStream);
+        }
+    }
+}
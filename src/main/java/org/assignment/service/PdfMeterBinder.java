@@ -0,0 +1,117 @@
+package org.assignment.service;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.FunctionTimer;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Exposes the counters the PDF services already keep as meters. Values are read from the services when
+ * the registry is scraped, so none of this adds work to the request path.
+ */
+@Component
+public class PdfMeterBinder implements MeterBinder {
+
+    private final PdfGeneratorService pdfGeneratorService;
+    private final PdfJobService pdfJobService;
+    private final HotPdfCache hotPdfCache;
+    private final RenderLimiter renderLimiter;
+    private final RenderQuarantine renderQuarantine;
+    private final PdfRetention pdfRetention;
+
+    public PdfMeterBinder(PdfGeneratorService pdfGeneratorService, PdfJobService pdfJobService,
+                          HotPdfCache hotPdfCache, RenderLimiter renderLimiter, RenderQuarantine renderQuarantine,
+                          PdfRetention pdfRetention) {
+        this.pdfGeneratorService = pdfGeneratorService;
+        this.pdfJobService = pdfJobService;
+        this.hotPdfCache = hotPdfCache;
+        this.renderLimiter = renderLimiter;
+        this.renderQuarantine = renderQuarantine;
+        this.pdfRetention = pdfRetention;
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        Gauge.builder("pdf.cache.index.size", pdfGeneratorService, PdfGeneratorService::getCacheIndexSize)
+                .description("Entries in the content hash index")
+                .register(registry);
+        FunctionCounter.builder("pdf.generate.coalesced", pdfGeneratorService,
+                        PdfGeneratorService::getCoalescedRequestCount)
+                .description("Requests served by waiting on an identical in-flight render")
+                .register(registry);
+
+        Gauge.builder("pdf.jobs.queue.depth", pdfJobService, PdfJobService::getQueueDepth)
+                .description("Jobs waiting for a render worker")
+                .register(registry);
+        Gauge.builder("pdf.jobs.active", pdfJobService, PdfJobService::getActiveWorkers)
+                .description("Render workers currently busy")
+                .register(registry);
+        FunctionTimer.builder("pdf.jobs.queue.wait", pdfJobService,
+                        PdfJobService::getStartedJobCount, PdfJobService::getTotalQueueWaitMillis,
+                        TimeUnit.MILLISECONDS)
+                .description("Time jobs spent queued before a worker picked them up")
+                .register(registry);
+        FunctionCounter.builder("pdf.jobs.rejected", pdfJobService, PdfJobService::getRejectedJobCount)
+                .description("Jobs rejected because the render queue was full")
+                .register(registry);
+
+        for (RenderLimiter.Lane lane : RenderLimiter.Lane.values()) {
+            Gauge.builder("pdf.render.active", renderLimiter, limiter -> limiter.getActiveRenders(lane))
+                    .description("Renders currently holding a render permit")
+                    .tag("lane", lane.tag())
+                    .register(registry);
+            Gauge.builder("pdf.render.waiting", renderLimiter, limiter -> limiter.getWaitingRenders(lane))
+                    .description("Renders waiting for a render permit")
+                    .tag("lane", lane.tag())
+                    .register(registry);
+            FunctionTimer.builder("pdf.render.permit.wait", renderLimiter,
+                            limiter -> limiter.getStartedRenderCount(lane),
+                            limiter -> limiter.getTotalWaitMillis(lane), TimeUnit.MILLISECONDS)
+                    .description("Time renders waited in their lane for a render permit")
+                    .tag("lane", lane.tag())
+                    .register(registry);
+        }
+        FunctionCounter.builder("pdf.render.promoted", renderLimiter, RenderLimiter::getPromotedRenderCount)
+                .description("Renders started ahead of their lane's turn because they had waited too long")
+                .register(registry);
+        FunctionCounter.builder("pdf.render.timeouts", renderLimiter, RenderLimiter::getTimedOutRenderCount)
+                .description("Renders stopped for exceeding the render deadline")
+                .register(registry);
+        Gauge.builder("pdf.render.quarantined", renderQuarantine, RenderQuarantine::size)
+                .description("Documents refused because an earlier render exceeded the deadline")
+                .register(registry);
+
+        FunctionCounter.builder("pdf.retention.evictions", pdfRetention, PdfRetention::getExpiredEvictionCount)
+                .description("Stored PDFs deleted by retention")
+                .tag("reason", "age")
+                .register(registry);
+        FunctionCounter.builder("pdf.retention.evictions", pdfRetention, PdfRetention::getQuotaEvictionCount)
+                .description("Stored PDFs deleted by retention")
+                .tag("reason", "size")
+                .register(registry);
+        Gauge.builder("pdf.storage.size", pdfRetention, PdfRetention::getStoredBytes)
+                .description("Total size of the stored PDFs as of the last retention sweep")
+                .baseUnit("bytes")
+                .register(registry);
+
+        FunctionCounter.builder("pdf.cache.hot.requests", hotPdfCache, HotPdfCache::getHitCount)
+                .description("Lookups of stored PDFs in the off-heap hot cache")
+                .tag("result", "hit")
+                .register(registry);
+        FunctionCounter.builder("pdf.cache.hot.requests", hotPdfCache, HotPdfCache::getMissCount)
+                .description("Lookups of stored PDFs in the off-heap hot cache")
+                .tag("result", "miss")
+                .register(registry);
+        FunctionCounter.builder("pdf.cache.hot.evictions", hotPdfCache, HotPdfCache::getEvictionCount)
+                .description("PDFs evicted from the hot cache to stay within its budget")
+                .register(registry);
+        Gauge.builder("pdf.cache.hot.size", hotPdfCache, HotPdfCache::getSizeBytes)
+                .description("Off-heap memory held by the PDFs in the hot cache")
+                .baseUnit("bytes")
+                .register(registry);
+    }
+}
@@ -0,0 +1,88 @@
+package org.assignment.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.stereotype.Component;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Meters on the PDF generation hot path. Meters are created once up front so recording a stage is a
+ * clock read and an atomic update. Percentiles and histograms are configured through the
+ * {@code management.metrics.distribution.*} properties for the {@code pdf} prefix.
+ */
+@Component
+public class PdfMetrics {
+
+    public enum Stage {
+        HASH, TEMPLATE, LAYOUT, SERIALIZE, NATIVE, STAMP, MERGE, STORE, INDEX;
+
+        String tag() {
+            return name().toLowerCase();
+        }
+    }
+
+    private final Map<Stage, Timer> stageTimers = new EnumMap<>(Stage.class);
+    private final Counter cacheHits;
+    private final Counter cacheMisses;
+    private final DistributionSummary documentItems;
+    private final DistributionSummary outputSize;
+    private final Timer indexReady;
+
+    public PdfMetrics(MeterRegistry registry) {
+        for (Stage stage : Stage.values()) {
+            stageTimers.put(stage, Timer.builder("pdf.generate.stage")
+                    .description("Time spent in each stage of invoice PDF generation")
+                    .tag("stage", stage.tag())
+                    .register(registry));
+        }
+        cacheHits = Counter.builder("pdf.cache.lookups")
+                .description("Content hash lookups in the invoice cache index")
+                .tag("result", "hit")
+                .register(registry);
+        cacheMisses = Counter.builder("pdf.cache.lookups")
+                .description("Content hash lookups in the invoice cache index")
+                .tag("result", "miss")
+                .register(registry);
+        documentItems = DistributionSummary.builder("pdf.document.items")
+                .description("Number of items in rendered documents")
+                .register(registry);
+        outputSize = DistributionSummary.builder("pdf.output.size")
+                .description("Size of rendered PDFs")
+                .baseUnit("bytes")
+                .register(registry);
+        indexReady = Timer.builder("pdf.storage.index.ready")
+                .description("Time from startup until the stored PDF index answered lookups")
+                .register(registry);
+    }
+
+    /**
+     * Records the time since {@code startNanos} against the stage and returns the current time, so
+     * consecutive stages can be timed from a single running clock.
+     */
+    public long recordStage(Stage stage, long startNanos) {
+        long now = System.nanoTime();
+        stageTimers.get(stage).record(now - startNanos, TimeUnit.NANOSECONDS);
+        return now;
+    }
+
+    public void recordCacheLookup(boolean hit) {
+        (hit ? cacheHits : cacheMisses).increment();
+    }
+
+    public void recordDocument(int itemCount) {
+        documentItems.record(itemCount);
+    }
+
+    public void recordOutputSize(long bytes) {
+        outputSize.record(bytes);
+    }
+
+    public void recordIndexReady(long startNanos) {
+        indexReady.record(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+    }
+}
@@ -0,0 +1,112 @@
+package org.assignment.service;
+
+import com.itextpdf.text.BaseColor;
+import com.itextpdf.text.DocumentException;
+import com.itextpdf.text.Element;
+import com.itextpdf.text.Font;
+import com.itextpdf.text.Phrase;
+import com.itextpdf.text.Rectangle;
+import com.itextpdf.text.io.RandomAccessSourceFactory;
+import com.itextpdf.text.pdf.BaseFont;
+import com.itextpdf.text.pdf.ColumnText;
+import com.itextpdf.text.pdf.PdfContentByte;
+import com.itextpdf.text.pdf.PdfGState;
+import com.itextpdf.text.pdf.PdfReader;
+import com.itextpdf.text.pdf.PdfStamper;
+import com.itextpdf.text.pdf.RandomAccessFileOrArray;
+import org.assignment.domainmodel.PdfOverlay;
+import org.springframework.core.io.Resource;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Stamps a {@link PdfOverlay} onto every page of an already rendered invoice. Only the overlay is drawn, the
+ * pages themselves are copied as they are, so a variant costs a fraction of a render.
+ */
+@Component
+public class PdfOverlayStamper {
+
+    private static final float MARGIN = 20;
+    private static final float LABEL_FONT_SIZE = 10;
+    private static final float FOOTER_FONT_SIZE = 8;
+    private static final float WATERMARK_FONT_SIZE = 60;
+    private static final float WATERMARK_OPACITY = 0.15f;
+    private static final float WATERMARK_ANGLE = 45;
+
+    private final Font labelFont;
+    private final Font footerFont;
+    private final Font watermarkFont;
+
+    public PdfOverlayStamper() throws DocumentException, IOException {
+        BaseFont bold = BaseFont.createFont(BaseFont.HELVETICA_BOLD, BaseFont.WINANSI, BaseFont.NOT_EMBEDDED);
+        BaseFont regular = BaseFont.createFont(BaseFont.HELVETICA, BaseFont.WINANSI, BaseFont.NOT_EMBEDDED);
+        this.labelFont = new Font(bold, LABEL_FONT_SIZE);
+        this.footerFont = new Font(regular, FOOTER_FONT_SIZE);
+        this.watermarkFont = new Font(bold, WATERMARK_FONT_SIZE, Font.NORMAL, BaseColor.GRAY);
+    }
+
+    public static boolean hasOverlay(PdfOverlay overlay) {
+        return overlay != null && (hasText(overlay.getCopyLabel()) || hasText(overlay.getWatermark())
+                || hasText(overlay.getFooter()));
+    }
+
+    private static boolean hasText(String text) {
+        return text != null && !text.trim().isEmpty();
+    }
+
+    public void stamp(Resource basePdf, PdfOverlay overlay, OutputStream outputStream)
+            throws IOException, DocumentException {
+        PdfReader reader = open(basePdf);
+        try {
+            PdfStamper stamper = new PdfStamper(reader, outputStream);
+            for (int page = 1; page <= reader.getNumberOfPages(); page++) {
+                RenderCancellation.check();
+                stampPage(stamper.getOverContent(page), reader.getPageSizeWithRotation(page), overlay);
+            }
+            stamper.close();
+        } finally {
+            reader.close();
+        }
+    }
+
+    private void stampPage(PdfContentByte canvas, Rectangle page, PdfOverlay overlay) {
+        float centerX = (page.getLeft() + page.getRight()) / 2;
+
+        if (hasText(overlay.getWatermark())) {
+            canvas.saveState();
+            PdfGState translucent = new PdfGState();
+            translucent.setFillOpacity(WATERMARK_OPACITY);
+            canvas.setGState(translucent);
+            ColumnText.showTextAligned(canvas, Element.ALIGN_CENTER,
+                    new Phrase(overlay.getWatermark().trim(), watermarkFont),
+                    centerX, (page.getBottom() + page.getTop()) / 2, WATERMARK_ANGLE);
+            canvas.restoreState();
+        }
+        if (hasText(overlay.getCopyLabel())) {
+            ColumnText.showTextAligned(canvas, Element.ALIGN_RIGHT,
+                    new Phrase(overlay.getCopyLabel().trim(), labelFont),
+                    page.getRight() - MARGIN, page.getTop() - MARGIN, 0);
+        }
+        if (hasText(overlay.getFooter())) {
+            ColumnText.showTextAligned(canvas, Element.ALIGN_CENTER,
+                    new Phrase(overlay.getFooter().trim(), footerFont),
+                    centerX, page.getBottom() + MARGIN / 2, 0);
+        }
+    }
+
+    /**
+     * Files are read partially, objects being loaded as the stamper copies them rather than all up front.
+     */
+    private static PdfReader open(Resource basePdf) throws IOException {
+        if (basePdf.isFile()) {
+            return new PdfReader(new RandomAccessFileOrArray(
+                    new RandomAccessSourceFactory().createBestSource(basePdf.getFile().getPath())), null);
+        }
+        try (InputStream inputStream = basePdf.getInputStream()) {
+            return new PdfReader(inputStream);
+        }
+    }
+}
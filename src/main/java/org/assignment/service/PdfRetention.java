@@ -0,0 +1,332 @@
+package org.assignment.service;
+
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Keeps stored PDFs within a maximum age and a maximum total size. A background sweep lists the stored PDFs,
+ * deletes those stored longer than {@code maxAge} ago and then, while the rest take more than
+ * {@code maxTotalBytes}, the least recently used ones.
+ *
+ * PDFs are deleted one at a time through the storage backend, which unindexes each before removing it, with a
+ * pause after every batch. No lock is held across the sweep, so renders and downloads carry on throughout.
+ *
+ * Both limits are off unless configured, since stored invoices may have to be kept for years.
+ *
+ * Last access is tracked in memory and saved with every sweep to an access file of this node's own in the access
+ * directory. Each sweep first merges the access files of every node sharing the directory, so the LRU order
+ * survives a restart and a PDF in use on another node is only evicted if it has not been used there since that
+ * node's last sweep. A PDF no node has used counts as last used when it was stored.
+ */
+@Component
+public class PdfRetention {
+
+    private static final Logger logger = LoggerFactory.getLogger(PdfRetention.class);
+
+    private static final int DELETE_BATCH_SIZE = 500;
+    private static final Duration BATCH_PAUSE = Duration.ofMillis(50);
+    private static final String ACCESS_DIRECTORY = "access";
+    private static final String ACCESS_FILE_SUFFIX = ".access";
+    private static final String TEMP_FILE_SUFFIX = ".tmp";
+    // Sweeps a node may miss before its access file is taken for that of a node gone for good
+    private static final int STALE_ACCESS_FILE_SWEEPS = 10;
+
+    private record Candidate(String fileName, long size, long lastUsedMillis) {
+    }
+
+    private final PdfStorage pdfStorage;
+    private final HotPdfCache hotPdfCache;
+    private final Duration maxAge;
+    private final long maxTotalBytes;
+    private final ScheduledExecutorService sweeper;
+
+    // Where the access files of every node are kept, null to track access in memory only
+    private final Path accessDirectory;
+    private final Path accessFile;
+    private final Duration staleAccessFileAfter;
+
+    private final Map<String, Long> lastAccessMillis = new ConcurrentHashMap<>();
+    private final AtomicLong expiredEvictions = new AtomicLong();
+    private final AtomicLong quotaEvictions = new AtomicLong();
+    private volatile long storedBytes;
+
+    @Autowired
+    public PdfRetention(PdfStorage pdfStorage, HotPdfCache hotPdfCache,
+                        @Value("${pdf.retention.max-age-days:0}") long maxAgeDays,
+                        @Value("${pdf.retention.max-size-mb:0}") long maxSizeMb,
+                        @Value("${pdf.retention.sweep-interval-minutes:10}") long sweepIntervalMinutes,
+                        @Value("${pdf.retention.node-name:}") String nodeName,
+                        @Value("${pdf.storage.path:${user.home}/generated_pdfs}") String storagePath) {
+        this(pdfStorage, hotPdfCache, maxAgeDays > 0 ? Duration.ofDays(maxAgeDays) : null, maxSizeMb * 1024 * 1024,
+                Duration.ofMinutes(sweepIntervalMinutes),
+                Paths.get(storagePath, ACCESS_DIRECTORY),
+                nodeName.isBlank() ? localHostName() : nodeName);
+    }
+
+    /**
+     * Applies retention to the storage, tracking access in memory only.
+     */
+    public PdfRetention(PdfStorage pdfStorage, HotPdfCache hotPdfCache, Duration maxAge, long maxTotalBytes,
+                        Duration sweepInterval) {
+        this(pdfStorage, hotPdfCache, maxAge, maxTotalBytes, sweepInterval, null, null);
+    }
+
+    /**
+     * Applies retention to the storage. A null maximum age or a maximum size of 0 is no limit; with neither
+     * limit, or a null interval, nothing is swept in the background. Last access is saved under the access
+     * directory as the named node's, unless the directory is null.
+     */
+    public PdfRetention(PdfStorage pdfStorage, HotPdfCache hotPdfCache, Duration maxAge, long maxTotalBytes,
+                        Duration sweepInterval, Path accessDirectory, String nodeName) {
+        this.pdfStorage = pdfStorage;
+        this.hotPdfCache = hotPdfCache;
+        this.maxAge = maxAge;
+        this.maxTotalBytes = maxTotalBytes;
+        // Access only orders evictions for space, so it is not kept without a size limit
+        this.accessDirectory = maxTotalBytes > 0 ? accessDirectory : null;
+        this.accessFile = this.accessDirectory != null
+                ? this.accessDirectory.resolve(nodeName + ACCESS_FILE_SUFFIX) : null;
+        this.staleAccessFileAfter = sweepInterval != null
+                ? sweepInterval.multipliedBy(STALE_ACCESS_FILE_SWEEPS) : null;
+        if (this.accessDirectory != null) {
+            mergeAccessFiles();
+        }
+
+        if ((maxAge != null || maxTotalBytes > 0) && sweepInterval != null) {
+            sweeper = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "pdf-retention");
+                thread.setDaemon(true);
+                return thread;
+            });
+            sweeper.scheduleWithFixedDelay(() -> {
+                try {
+                    sweep();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } catch (Exception e) {
+                    logger.error("Error applying invoice PDF retention", e);
+                }
+            }, sweepInterval.toMillis(), sweepInterval.toMillis(), TimeUnit.MILLISECONDS);
+        } else {
+            sweeper = null;
+        }
+    }
+
+    /**
+     * Notes that a stored PDF was looked up or downloaded, which keeps it from being evicted for space.
+     */
+    public void recordAccess(String fileName) {
+        if (maxTotalBytes > 0) {
+            lastAccessMillis.put(fileName, System.currentTimeMillis());
+        }
+    }
+
+    /**
+     * Deletes the PDFs past the maximum age, then the least recently used ones over the maximum size. Runs in
+     * the background; public so it can be triggered directly. Returns the number of PDFs deleted.
+     */
+    public synchronized int sweep() throws IOException, InterruptedException {
+        if (accessDirectory != null) {
+            mergeAccessFiles();
+        }
+        long sweepStart = System.currentTimeMillis();
+        Instant expiredBefore = maxAge != null ? Instant.now().minus(maxAge) : null;
+        List<Candidate> expired = new ArrayList<>();
+        List<Candidate> kept = new ArrayList<>();
+        Set<String> listed = new HashSet<>();
+        long[] keptBytes = new long[1];
+
+        pdfStorage.forEachStored(pdf -> {
+            Long accessed = lastAccessMillis.get(pdf.fileName());
+            long lastUsed = Math.max(pdf.storedAt().toEpochMilli(), accessed != null ? accessed : 0);
+            Candidate candidate = new Candidate(pdf.fileName(), pdf.size(), lastUsed);
+            if (expiredBefore != null && pdf.storedAt().isBefore(expiredBefore)) {
+                expired.add(candidate);
+            } else {
+                kept.add(candidate);
+                keptBytes[0] += pdf.size();
+            }
+            listed.add(pdf.fileName());
+        });
+        // Forget PDFs that have gone by other means, unless they were stored after the listing
+        lastAccessMillis.entrySet().removeIf(entry ->
+                entry.getValue() < sweepStart && !listed.contains(entry.getKey()));
+
+        int evicted = evict(expired, expiredEvictions, Long.MAX_VALUE);
+
+        long totalBytes = keptBytes[0];
+        if (maxTotalBytes > 0 && totalBytes > maxTotalBytes) {
+            kept.sort(Comparator.comparingLong(Candidate::lastUsedMillis));
+            List<Candidate> leastRecentlyUsed = new ArrayList<>();
+            for (Candidate candidate : kept) {
+                if (totalBytes <= maxTotalBytes) {
+                    break;
+                }
+                leastRecentlyUsed.add(candidate);
+                totalBytes -= candidate.size();
+            }
+            // A PDF used while the sweep runs is spared and left for the next sweep to weigh again
+            evicted += evict(leastRecentlyUsed, quotaEvictions, sweepStart);
+        }
+        storedBytes = totalBytes;
+        if (accessDirectory != null) {
+            saveAccessFile();
+        }
+
+        if (evicted > 0) {
+            logger.info("Invoice PDF retention deleted {} PDFs, {} bytes remain stored", evicted, totalBytes);
+        }
+        return evicted;
+    }
+
+    /**
+     * Deletes the candidates in batches, skipping any used since the given time. Returns how many were deleted.
+     */
+    private int evict(List<Candidate> candidates, AtomicLong evictions, long sparedIfUsedSince)
+            throws IOException, InterruptedException {
+        int deleted = 0;
+        for (Candidate candidate : candidates) {
+            Long accessed = lastAccessMillis.get(candidate.fileName());
+            if (accessed != null && accessed >= sparedIfUsedSince) {
+                continue;
+            }
+            if (pdfStorage.delete(candidate.fileName())) {
+                deleted++;
+                evictions.incrementAndGet();
+            }
+            hotPdfCache.invalidate(candidate.fileName());
+            lastAccessMillis.remove(candidate.fileName());
+
+            if (deleted > 0 && deleted % DELETE_BATCH_SIZE == 0) {
+                Thread.sleep(BATCH_PAUSE.toMillis());
+            }
+        }
+        return deleted;
+    }
+
+    /**
+     * Merges the access files of every node into the access times known here, keeping the latest of each, and
+     * removes those not saved for many sweeps. Their node is gone, and what they held is in this node's file now.
+     */
+    private void mergeAccessFiles() {
+        Instant staleBefore = staleAccessFileAfter != null ? Instant.now().minus(staleAccessFileAfter) : null;
+        try (DirectoryStream<Path> accessFiles = Files.newDirectoryStream(accessDirectory,
+                "*" + ACCESS_FILE_SUFFIX)) {
+            for (Path file : accessFiles) {
+                readAccessFile(file);
+                if (staleBefore != null && !file.equals(accessFile)
+                        && Files.getLastModifiedTime(file).toInstant().isBefore(staleBefore)) {
+                    Files.deleteIfExists(file);
+                }
+            }
+        } catch (NoSuchFileException e) {
+            // No node has saved its access times yet
+        } catch (IOException e) {
+            logger.warn("Could not read invoice PDF access times, the LRU order may be incomplete", e);
+        }
+    }
+
+    private void readAccessFile(Path file) throws IOException {
+        try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                int separator = line.indexOf(' ');
+                if (separator <= 0) {
+                    continue;
+                }
+                try {
+                    long accessed = Long.parseLong(line.substring(0, separator));
+                    lastAccessMillis.merge(line.substring(separator + 1), accessed, Math::max);
+                } catch (NumberFormatException e) {
+                    // Written by a node that died mid-line, which the atomic replace should rule out
+                }
+            }
+        } catch (NoSuchFileException e) {
+            // Removed by another node after the listing
+        }
+    }
+
+    /**
+     * Replaces this node's access file with the access times known here, one {@code millis fileName} per line.
+     */
+    private void saveAccessFile() {
+        Path tempFile = accessFile.resolveSibling(accessFile.getFileName() + TEMP_FILE_SUFFIX);
+        try {
+            Files.createDirectories(accessDirectory);
+            try (BufferedWriter writer = Files.newBufferedWriter(tempFile, StandardCharsets.UTF_8)) {
+                for (Map.Entry<String, Long> entry : lastAccessMillis.entrySet()) {
+                    writer.write(entry.getValue() + " " + entry.getKey());
+                    writer.newLine();
+                }
+            }
+            Files.move(tempFile, accessFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            logger.warn("Could not save invoice PDF access times, they will not survive a restart", e);
+        }
+    }
+
+    private static String localHostName() {
+        try {
+            return InetAddress.getLocalHost().getHostName();
+        } catch (UnknownHostException e) {
+            return "localhost";
+        }
+    }
+
+    public long getExpiredEvictionCount() {
+        return expiredEvictions.get();
+    }
+
+    public long getQuotaEvictionCount() {
+        return quotaEvictions.get();
+    }
+
+    /**
+     * Total size of the stored PDFs as of the last sweep.
+     */
+    public long getStoredBytes() {
+        return storedBytes;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        if (sweeper != null) {
+            sweeper.shutdownNow();
+        }
+        if (accessDirectory != null) {
+            synchronized (this) {
+                saveAccessFile();
+            }
+        }
+    }
+}
@@ -0,0 +1,93 @@
+package org.assignment.service;
+
+import org.assignment.domainmodel.Document;
+import org.assignment.exception.PdfGenerationException;
+import org.springframework.core.io.Resource;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.time.Instant;
+import java.util.Base64;
+import java.util.HexFormat;
+import java.util.function.Consumer;
+
+/**
+ * Where generated PDFs live. A stored PDF is identified by the file name returned from {@link #store}, which
+ * is what clients download it by; backends also find it again by the content hash it was stored under.
+ *
+ * Selected with {@code pdf.storage.backend}: {@code loose} (one file per PDF, the default) or {@code pack}.
+ */
+public interface PdfStorage {
+
+    /**
+     * Writes the rendered PDF to the stream it is given.
+     */
+    @FunctionalInterface
+    interface PdfContentWriter {
+        void write(OutputStream outputStream) throws PdfGenerationException;
+    }
+
+    /**
+     * Metadata of a stored PDF: the content hash it was stored under (null if unknown), its size and when it
+     * was stored. Stored PDFs never change, so the content hash identifies the bytes served under the file name.
+     */
+    record StoredPdf(String fileName, String contentHash, long size, Instant storedAt) {
+    }
+
+    /**
+     * Returns the file name of the PDF stored for the content hash, or null if there is none.
+     */
+    String find(String contentHash);
+
+    /**
+     * Renders a PDF through the writer and stores it durably. The PDF can only be found or loaded once it is
+     * complete. The document, null for a PDF not rendered from one, is only used to name the file.
+     */
+    String store(String contentHash, Document document, PdfContentWriter writer)
+            throws IOException, PdfGenerationException;
+
+    boolean exists(String fileName);
+
+    /**
+     * Returns the metadata of a stored PDF without opening it, or null if it is not stored.
+     */
+    StoredPdf stat(String fileName) throws IOException;
+
+    /**
+     * Opens a stored PDF for streaming. Throws {@link java.nio.file.NoSuchFileException} if it is not stored.
+     */
+    Resource load(String fileName) throws IOException;
+
+    /**
+     * Removes a stored PDF, returning false if it was not stored.
+     */
+    boolean delete(String fileName) throws IOException;
+
+    int getEntryCount();
+
+    /**
+     * Visits every stored PDF. Runs alongside stores and deletes, so PDFs stored meanwhile may be missed.
+     */
+    void forEachStored(Consumer<StoredPdf> visitor) throws IOException;
+
+    /**
+     * Name of the PDF for the given content in content-addressed storage: the hex SHA-256 of the content.
+     */
+    static String contentAddressedFileName(String contentHash) {
+        return HexFormat.of().formatHex(Base64.getUrlDecoder().decode(contentHash)) + ".pdf";
+    }
+
+    /**
+     * Content hash a content-addressed file name was derived from, or null if the name is not content-addressed.
+     */
+    static String contentHashOf(String fileName) {
+        if (fileName.length() != 68 || !fileName.endsWith(".pdf")) {
+            return null;
+        }
+        try {
+            return Base64.getUrlEncoder().withoutPadding().encodeToString(HexFormat.of().parseHex(fileName, 0, 64));
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,102 @@
+package org.assignment.service;
+
+import org.assignment.domainmodel.Document;
+import org.assignment.domainmodel.Item;
+import org.assignment.domainmodel.PdfOverlay;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Renders synthetic invoices at startup so the first real request does not pay for loading Thymeleaf, Flying
+ * Saucer and the iText fonts, nor run the layout code interpreted. Opt-in: it delays startup by the renders.
+ *
+ * Runs as an application runner, which Spring Boot completes before it reports the application ready to accept
+ * traffic, so a readiness probe only passes once rendering is warm. Nothing is stored. A failed warm-up is
+ * logged and startup carries on.
+ */
+@Component
+public class PdfWarmup implements ApplicationRunner {
+
+    private static final Logger logger = LoggerFactory.getLogger(PdfWarmup.class);
+
+    private final PdfGeneratorService pdfGeneratorService;
+    private final boolean enabled;
+    private final int renders;
+    private final int items;
+
+    @Autowired
+    public PdfWarmup(PdfGeneratorService pdfGeneratorService,
+                     @Value("${pdf.warmup.enabled:false}") boolean enabled,
+                     @Value("${pdf.warmup.renders:20}") int renders,
+                     @Value("${pdf.warmup.items:50}") int items) {
+        this.pdfGeneratorService = pdfGeneratorService;
+        this.enabled = enabled;
+        this.renders = renders;
+        this.items = items;
+    }
+
+    @Override
+    public void run(ApplicationArguments args) {
+        if (enabled) {
+            warmUp();
+        }
+    }
+
+    /**
+     * Renders the synthetic invoices and returns how many were rendered.
+     */
+    public int warmUp() {
+        long start = System.nanoTime();
+        int rendered = 0;
+        try {
+            for (int render = 0; render < renders; render++) {
+                pdfGeneratorService.warmUp(syntheticDocument(render));
+                rendered++;
+            }
+            logger.info("Warmed up invoice PDF rendering with {} renders in {} ms", rendered,
+                    TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+        } catch (Exception e) {
+            logger.warn("Invoice PDF warm-up stopped after {} renders", rendered, e);
+        }
+        return rendered;
+    }
+
+    /**
+     * Varies with the render so no step can be skipped as a repeat.
+     */
+    private Document syntheticDocument(int render) {
+        Document document = new Document();
+        document.setSeller("Warm-up Seller " + render);
+        document.setSellerGstin("27AAAAA0000A1Z5");
+        document.setSellerAddress("123 Seller Street");
+        document.setBuyer("Warm-up Buyer " + render);
+        document.setBuyerGstin("27BBBBB0000B1Z5");
+        document.setBuyerAddress("456 Buyer Street");
+
+        List<Item> documentItems = new ArrayList<>(items);
+        for (int i = 0; i < items; i++) {
+            Item item = new Item();
+            item.setName("Warm-up Item " + i);
+            item.setQuantity(String.valueOf(i + 1));
+            item.setRate(100.00 * (i + 1));
+            item.setAmount(100.00 * (i + 1) * (i + 1));
+            documentItems.add(item);
+        }
+        document.setItems(documentItems);
+
+        PdfOverlay overlay = new PdfOverlay();
+        overlay.setCopyLabel("WARM-UP COPY");
+        overlay.setWatermark("WARM-UP");
+        document.setOverlay(overlay);
+        return document;
+    }
+}
@@ -0,0 +1,54 @@
+package org.assignment.service;
+
+import org.xhtmlrenderer.extend.FontContext;
+import org.xhtmlrenderer.extend.OutputDevice;
+import org.xhtmlrenderer.pdf.ITextTextRenderer;
+import org.xhtmlrenderer.render.FSFont;
+import org.xhtmlrenderer.render.JustificationInfo;
+
+import java.util.concurrent.CancellationException;
+
+/**
+ * Cooperative cancellation of renders. Neither layout engine checks for interrupts, so a render that is past
+ * its deadline would keep its core busy to the end; renders call {@link #check()} at points they pass often.
+ */
+final class RenderCancellation {
+
+    private RenderCancellation() {
+    }
+
+    /**
+     * Aborts the render if its thread has been interrupted.
+     */
+    static void check() {
+        if (Thread.currentThread().isInterrupted()) {
+            throw new CancellationException("Invoice PDF render cancelled");
+        }
+    }
+
+    /**
+     * Flying Saucer text renderer that checks for cancellation whenever text is measured or drawn, which layout
+     * and painting do for every word.
+     */
+    static class TextRenderer extends ITextTextRenderer {
+
+        @Override
+        public int getWidth(FontContext context, FSFont font, String string) {
+            check();
+            return super.getWidth(context, font, string);
+        }
+
+        @Override
+        public void drawString(OutputDevice outputDevice, String string, float x, float y) {
+            check();
+            super.drawString(outputDevice, string, x, y);
+        }
+
+        @Override
+        public void drawString(OutputDevice outputDevice, String string, float x, float y,
+                               JustificationInfo info) {
+            check();
+            super.drawString(outputDevice, string, x, y, info);
+        }
+    }
+}
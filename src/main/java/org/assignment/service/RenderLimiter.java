@@ -0,0 +1,400 @@
+package org.assignment.service;
+
+import jakarta.annotation.PreDestroy;
+import org.assignment.domainmodel.Document;
+import org.assignment.domainmodel.Item;
+import org.assignment.exception.PdfGenerationException;
+import org.assignment.exception.RenderTimeoutException;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounds how many PDFs are rendered at once. Rendering is CPU-bound, so running more renders than there are
+ * cores only adds context switching and cache thrash and drives up tail latency.
+ *
+ * Every render runs on one of a fixed set of render threads, one permit each, while the caller waits. Callers
+ * are generate, batch and job threads rather than request threads: {@code /pdf/generate} hands its render off
+ * and releases the request thread, so request threads never wait here and stay free for cache hits and
+ * downloads however many renders are queued.
+ *
+ * Renders are queued in a lane by cost, so a few huge statements cannot hold up a stream of small invoices.
+ * Each lane has its own concurrency cap, and a permit that frees up goes to the lanes in proportion to their
+ * weights. A render that has waited longer than {@code maxWait} goes first, so no lane starves. The large
+ * lane can never take every permit: at least one is always left for small invoices, even on a single core.
+ *
+ * A render can be given a deadline, counted only while it holds its permit. Renders that make up one request
+ * share a {@link Deadline}, which runs while any of them holds a permit and stands still while none does, so
+ * together they render no longer than one render could and time spent queueing never counts. A render past its
+ * deadline is interrupted, which the renderers check for through {@link RenderCancellation}, and its caller gets a
+ * {@link RenderTimeoutException} at once. The permit is only released once the render has actually stopped.
+ */
+@Component
+public class RenderLimiter {
+
+    public enum Lane {
+        SMALL, LARGE;
+
+        String tag() {
+            return name().toLowerCase();
+        }
+    }
+
+    /**
+     * CPU-bound work that needs a render permit.
+     */
+    @FunctionalInterface
+    public interface RenderTask {
+        void render() throws Exception;
+    }
+
+    /**
+     * A time limit shared by all the renders of one request. It runs while at least one of them holds a permit
+     * and is paused while none does, so a render is only given the time the earlier ones left, however long
+     * it waited for its permit.
+     */
+    public static final class Deadline {
+        private final Duration timeout;
+        // Guarded by this: time used by earlier periods of rendering, and the one under way if any
+        private long usedNanos;
+        private long runningSinceNanos;
+        private int runningRenders;
+
+        public Deadline(Duration timeout) {
+            this.timeout = timeout;
+        }
+
+        /**
+         * Notes that a render got its permit, and returns the nanoseconds left, which may be negative.
+         */
+        synchronized long start(long now) {
+            if (runningRenders++ == 0) {
+                runningSinceNanos = now;
+            }
+            return timeout.toNanos() - usedNanos - (now - runningSinceNanos);
+        }
+
+        /**
+         * Notes that a render gave its permit back. The deadline pauses once no render holds one.
+         */
+        synchronized void finish(long now) {
+            if (--runningRenders == 0) {
+                usedNanos += now - runningSinceNanos;
+            }
+        }
+
+        public Duration getTimeout() {
+            return timeout;
+        }
+    }
+
+    private static final class LaneState {
+        final int maxConcurrent;
+        final int weight;
+        final Deque<QueuedRender> queue = new ArrayDeque<>();
+        int running;
+        // Smooth weighted round robin credit
+        int currentWeight;
+
+        final AtomicLong startedRenders = new AtomicLong();
+        final AtomicLong totalWaitNanos = new AtomicLong();
+
+        LaneState(int maxConcurrent, int weight) {
+            this.maxConcurrent = maxConcurrent;
+            this.weight = weight;
+        }
+    }
+
+    private static final class QueuedRender extends FutureTask<Void> {
+        final LaneState lane;
+        final Deadline deadline;
+        final long enqueuedNanos = System.nanoTime();
+        volatile boolean timedOut;
+
+        QueuedRender(LaneState lane, Deadline deadline, RenderTask task) {
+            super(() -> {
+                task.render();
+                return null;
+            });
+            this.lane = lane;
+            this.deadline = deadline;
+        }
+
+        void expire() {
+            timedOut = true;
+            cancel(true);
+        }
+    }
+
+    private final int largeItems;
+    private final long largeTextChars;
+    private final int permits;
+    private final long maxWaitNanos;
+    private final Map<Lane, LaneState> lanes = new EnumMap<>(Lane.class);
+    private final ExecutorService renderThreads;
+    private final ScheduledExecutorService watchdog;
+
+    // Renders holding a permit, guarded by this
+    private int running;
+    private final AtomicLong promotedRenders = new AtomicLong();
+    private final AtomicLong timedOutRenders = new AtomicLong();
+
+    @Autowired
+    public RenderLimiter(@Value("${pdf.render.max-concurrent:0}") int maxConcurrent,
+                         @Value("${pdf.render.lanes.large-items:200}") int largeItems,
+                         @Value("${pdf.render.lanes.large-text-chars:20000}") long largeTextChars,
+                         @Value("${pdf.render.lanes.small.max-concurrent:0}") int smallMaxConcurrent,
+                         @Value("${pdf.render.lanes.small.weight:4}") int smallWeight,
+                         @Value("${pdf.render.lanes.large.max-concurrent:0}") int largeMaxConcurrent,
+                         @Value("${pdf.render.lanes.large.weight:1}") int largeWeight,
+                         @Value("${pdf.render.lanes.max-wait-seconds:10}") long maxWaitSeconds) {
+        this(maxConcurrent, largeItems, largeTextChars, smallMaxConcurrent, smallWeight, largeMaxConcurrent,
+                largeWeight, Duration.ofSeconds(maxWaitSeconds));
+    }
+
+    public RenderLimiter(int maxConcurrent, int largeItems, long largeTextChars,
+                         int smallMaxConcurrent, int smallWeight,
+                         int largeMaxConcurrent, int largeWeight, Duration maxWait) {
+        int cores = maxConcurrent > 0 ? maxConcurrent : Runtime.getRuntime().availableProcessors();
+        int largeLimit = largeMaxConcurrent > 0 ? largeMaxConcurrent : Math.max(1, cores / 2);
+        this.permits = Math.max(cores, largeLimit + 1);
+        this.largeItems = largeItems;
+        this.largeTextChars = largeTextChars;
+        this.maxWaitNanos = maxWait.toNanos();
+        lanes.put(Lane.SMALL, new LaneState(smallMaxConcurrent > 0 ? smallMaxConcurrent : permits, smallWeight));
+        lanes.put(Lane.LARGE, new LaneState(largeLimit, largeWeight));
+
+        AtomicInteger threadCount = new AtomicInteger();
+        this.renderThreads = Executors.newFixedThreadPool(permits, runnable -> {
+            Thread thread = new Thread(runnable, "pdf-render-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.watchdog = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "pdf-render-watchdog");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Classifies a document by how expensive it is to render: its item count and the amount of item text
+     * that has to be laid out.
+     */
+    public Lane laneFor(Document document) {
+        List<Item> items = document.getItems();
+        if (items == null) {
+            return Lane.SMALL;
+        }
+        if (items.size() >= largeItems) {
+            return Lane.LARGE;
+        }
+        long textChars = 0;
+        for (Item item : items) {
+            textChars += length(item.getName()) + length(item.getQuantity());
+        }
+        return textChars >= largeTextChars ? Lane.LARGE : Lane.SMALL;
+    }
+
+    private static int length(String text) {
+        return text != null ? text.length() : 0;
+    }
+
+    public void render(Lane lane, RenderTask task) throws Exception {
+        render(lane, (Deadline) null, task);
+    }
+
+    /**
+     * Waits for a render permit in the lane, runs the task with it and returns once the task is done.
+     * Exceptions thrown by the task are rethrown as they are. If the caller is interrupted the task is
+     * cancelled.
+     *
+     * @param timeout how long the task may run once it has its permit, null for no limit
+     * @throws RenderTimeoutException if the task ran past its timeout
+     */
+    public void render(Lane lane, Duration timeout, RenderTask task) throws Exception {
+        render(lane, timeout != null ? new Deadline(timeout) : null, task);
+    }
+
+    /**
+     * As {@link #render(Lane, Duration, RenderTask)}, with a deadline that may be shared with other renders.
+     * A render whose deadline the earlier renders used up times out without running.
+     *
+     * @param deadline the deadline of the request the task belongs to, null for no limit
+     */
+    public void render(Lane lane, Deadline deadline, RenderTask task) throws Exception {
+        QueuedRender render = new QueuedRender(lanes.get(lane), deadline, task);
+        synchronized (this) {
+            render.lane.queue.add(render);
+            dispatch();
+        }
+
+        try {
+            render.get();
+        } catch (InterruptedException e) {
+            synchronized (this) {
+                render.lane.queue.remove(render);
+            }
+            render.cancel(true);
+            Thread.currentThread().interrupt();
+            throw new PdfGenerationException("Interrupted while waiting for invoice PDF render", e);
+        } catch (CancellationException e) {
+            if (!render.timedOut) {
+                throw e;
+            }
+            timedOutRenders.incrementAndGet();
+            throw new RenderTimeoutException("Invoice PDF render exceeded its deadline of "
+                    + deadline.getTimeout().toMillis() + " ms", e);
+        } catch (ExecutionException e) {
+            throw e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+        }
+    }
+
+    /**
+     * Hands free permits to queued renders. Called with the lock held whenever a render is queued or finishes.
+     */
+    private void dispatch() {
+        while (running < permits) {
+            LaneState lane = nextLane(System.nanoTime());
+            if (lane == null) {
+                return;
+            }
+            QueuedRender render = lane.queue.poll();
+            lane.running++;
+            running++;
+            lane.totalWaitNanos.addAndGet(System.nanoTime() - render.enqueuedNanos);
+            lane.startedRenders.incrementAndGet();
+
+            renderThreads.execute(() -> {
+                ScheduledFuture<?> deadline = null;
+                if (render.deadline != null) {
+                    long remainingNanos = render.deadline.start(System.nanoTime());
+                    if (remainingNanos <= 0) {
+                        render.expire();
+                    } else {
+                        deadline = watchdog.schedule(render::expire, remainingNanos, TimeUnit.NANOSECONDS);
+                    }
+                }
+                try {
+                    render.run();
+                } finally {
+                    if (deadline != null) {
+                        deadline.cancel(false);
+                    }
+                    if (render.deadline != null) {
+                        render.deadline.finish(System.nanoTime());
+                    }
+                    synchronized (this) {
+                        lane.running--;
+                        running--;
+                        dispatch();
+                    }
+                }
+            });
+        }
+    }
+
+    /**
+     * Picks the lane whose next render gets a free permit: among the lanes with queued work and room under
+     * their cap, the one holding a render that has waited too long, otherwise by smooth weighted round robin.
+     */
+    private LaneState nextLane(long now) {
+        LaneState weighted = null;
+        LaneState starved = null;
+        int totalWeight = 0;
+        for (LaneState lane : lanes.values()) {
+            if (lane.queue.isEmpty() || lane.running >= lane.maxConcurrent) {
+                continue;
+            }
+            long enqueued = lane.queue.peek().enqueuedNanos;
+            if (now - enqueued >= maxWaitNanos
+                    && (starved == null || enqueued < starved.queue.peek().enqueuedNanos)) {
+                starved = lane;
+            }
+            lane.currentWeight += lane.weight;
+            totalWeight += lane.weight;
+            if (weighted == null || lane.currentWeight > weighted.currentWeight) {
+                weighted = lane;
+            }
+        }
+
+        LaneState chosen = starved != null ? starved : weighted;
+        if (chosen != null) {
+            chosen.currentWeight -= totalWeight;
+            if (chosen != weighted) {
+                promotedRenders.incrementAndGet();
+            }
+        }
+        return chosen;
+    }
+
+    public int getMaxConcurrent() {
+        return permits;
+    }
+
+    public int getMaxConcurrent(Lane lane) {
+        return lanes.get(lane).maxConcurrent;
+    }
+
+    public synchronized int getActiveRenders() {
+        return running;
+    }
+
+    public synchronized int getActiveRenders(Lane lane) {
+        return lanes.get(lane).running;
+    }
+
+    public synchronized int getWaitingRenders() {
+        int waiting = 0;
+        for (LaneState lane : lanes.values()) {
+            waiting += lane.queue.size();
+        }
+        return waiting;
+    }
+
+    public synchronized int getWaitingRenders(Lane lane) {
+        return lanes.get(lane).queue.size();
+    }
+
+    public long getStartedRenderCount(Lane lane) {
+        return lanes.get(lane).startedRenders.get();
+    }
+
+    public double getTotalWaitMillis(Lane lane) {
+        return lanes.get(lane).totalWaitNanos.get() / 1_000_000.0;
+    }
+
+    /**
+     * Number of renders that were started ahead of their lane's weighted turn because they had waited too long.
+     */
+    public long getPromotedRenderCount() {
+        return promotedRenders.get();
+    }
+
+    public long getTimedOutRenderCount() {
+        return timedOutRenders.get();
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        watchdog.shutdownNow();
+        renderThreads.shutdownNow();
+    }
+}
@@ -0,0 +1,57 @@
+package org.assignment.service;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Comparator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Content hashes of documents that overran the render deadline. Resubmissions of the same content are refused
+ * straight away rather than burning a core for the whole deadline again. Entries expire, so a document gets
+ * another chance after a fix or a configuration change.
+ */
+@Component
+public class RenderQuarantine {
+
+    private static final int MAX_ENTRIES = 10_000;
+
+    private final Duration duration;
+    private final Map<String, Instant> quarantinedUntil = new ConcurrentHashMap<>();
+
+    public RenderQuarantine(@Value("${pdf.render.quarantine-minutes:60}") long quarantineMinutes) {
+        this.duration = Duration.ofMinutes(quarantineMinutes);
+    }
+
+    public void add(String contentHash) {
+        quarantinedUntil.put(contentHash, Instant.now().plus(duration));
+        if (quarantinedUntil.size() > MAX_ENTRIES) {
+            Instant now = Instant.now();
+            quarantinedUntil.values().removeIf(until -> until.isBefore(now));
+            while (quarantinedUntil.size() > MAX_ENTRIES) {
+                quarantinedUntil.entrySet().stream()
+                        .min(Map.Entry.comparingByValue(Comparator.naturalOrder()))
+                        .ifPresent(oldest -> quarantinedUntil.remove(oldest.getKey(), oldest.getValue()));
+            }
+        }
+    }
+
+    /**
+     * Returns when the quarantine of the content hash ends, or null if it is not quarantined.
+     */
+    public Instant getQuarantinedUntil(String contentHash) {
+        Instant until = quarantinedUntil.get(contentHash);
+        if (until != null && until.isBefore(Instant.now())) {
+            quarantinedUntil.remove(contentHash, until);
+            return null;
+        }
+        return until;
+    }
+
+    public int size() {
+        return quarantinedUntil.size();
+    }
+}
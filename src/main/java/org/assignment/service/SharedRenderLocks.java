@@ -0,0 +1,198 @@
+package org.assignment.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Render claims shared by every node writing to the same storage directory. A claim is a lock file created with
+ * an exclusive create, which is atomic on local filesystems and on NFSv3 and later, so exactly one node wins it.
+ *
+ * A node keeps its claims alive by touching their modification time. A claim that has not been touched for
+ * {@code staleAfter} belongs to a node that died mid-render and is broken by the next node that wants it.
+ *
+ * Every claim writes an owner token of its own into the lock file. Breaking and releasing a lock first rename it
+ * to a name no other node uses, then compare the token, and only delete it if it is the lock they meant. A lock
+ * claimed anew in the meantime is renamed back instead, so no node removes a claim another node just took.
+ */
+public class SharedRenderLocks implements Closeable {
+
+    private static final Logger logger = LoggerFactory.getLogger(SharedRenderLocks.class);
+
+    private static final String LOCK_SUFFIX = ".lock";
+
+    /**
+     * A held render claim, released on close.
+     */
+    public interface Claim extends Closeable {
+        @Override
+        void close();
+    }
+
+    private final Path lockDirectory;
+    private final Duration staleAfter;
+    private final String nodeId;
+    // Lock files held by this node, with the owner token of each
+    private final Map<Path, String> heldLocks = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService heartbeat;
+
+    public SharedRenderLocks(Path lockDirectory, Duration staleAfter) throws IOException {
+        this.lockDirectory = lockDirectory;
+        this.staleAfter = staleAfter;
+        this.nodeId = ManagementFactory.getRuntimeMXBean().getName() + "/" + UUID.randomUUID();
+        Files.createDirectories(lockDirectory);
+
+        heartbeat = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "pdf-render-lock-heartbeat");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long interval = Math.max(1, staleAfter.toMillis() / 4);
+        heartbeat.scheduleWithFixedDelay(this::touchHeldLocks, interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+    public Duration getStaleAfter() {
+        return staleAfter;
+    }
+
+    /**
+     * Claims the render of a file for this node. Returns null if another live node holds the claim.
+     */
+    public Claim tryClaim(String fileName) throws IOException {
+        Path lockFile = lockDirectory.resolve(fileName + LOCK_SUFFIX);
+        String token = nodeId + "/" + UUID.randomUUID();
+        if (!create(lockFile, token)) {
+            if (!breakIfStale(lockFile) || !create(lockFile, token)) {
+                return null;
+            }
+        }
+
+        heldLocks.put(lockFile, token);
+        return () -> {
+            heldLocks.remove(lockFile);
+            release(lockFile, token);
+        };
+    }
+
+    private boolean create(Path lockFile, String token) throws IOException {
+        try {
+            Files.write(lockFile, token.getBytes(StandardCharsets.UTF_8),
+                    StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+            return true;
+        } catch (FileAlreadyExistsException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Deletes the lock if it still holds the claim's token. Another node may have broken it while this one
+     * stalled, and claimed it again.
+     */
+    private void release(Path lockFile, String token) {
+        try {
+            Path released = moveAside(lockFile, "released");
+            if (token.equals(owner(released))) {
+                Files.delete(released);
+            } else {
+                putBack(released, lockFile);
+                logger.warn("Invoice PDF render lock {} was taken over by another node before its release",
+                        lockFile.getFileName());
+            }
+        } catch (NoSuchFileException e) {
+            logger.warn("Invoice PDF render lock {} was broken by another node before its release",
+                    lockFile.getFileName());
+        } catch (IOException e) {
+            // Left behind, it goes stale and is broken by the next claim
+            logger.warn("Could not release invoice PDF render lock {}", lockFile, e);
+        }
+    }
+
+    /**
+     * Removes a lock whose owner has stopped touching it. The owner is read before the staleness check, so a
+     * lock claimed anew after the check is told apart by its token once renamed aside, and put back.
+     */
+    private boolean breakIfStale(Path lockFile) throws IOException {
+        try {
+            String staleOwner = owner(lockFile);
+            if (!isStale(lockFile)) {
+                return false;
+            }
+            Path broken = moveAside(lockFile, "broken");
+            if (!staleOwner.equals(owner(broken))) {
+                // The owner released it and another node claimed it again between the check and the rename
+                putBack(broken, lockFile);
+                return false;
+            }
+            Files.delete(broken);
+            logger.warn("Broke stale invoice PDF render lock {} held by {}", lockFile.getFileName(), staleOwner);
+            return true;
+        } catch (NoSuchFileException e) {
+            // Released by its owner, or broken by another node, in the meantime
+            return true;
+        }
+    }
+
+    /**
+     * Renames the lock to a name unique to this call, so no other node can act on it while it is compared.
+     */
+    private Path moveAside(Path lockFile, String reason) throws IOException {
+        Path aside = lockDirectory.resolve(lockFile.getFileName() + "." + UUID.randomUUID() + "." + reason);
+        Files.move(lockFile, aside);
+        return aside;
+    }
+
+    /**
+     * Restores a lock that was renamed aside by mistake. If yet another claim was taken meanwhile, both
+     * owners render the file, and the atomic publish of content-addressed files keeps that harmless.
+     */
+    private static void putBack(Path aside, Path lockFile) throws IOException {
+        try {
+            Files.move(aside, lockFile);
+        } catch (FileAlreadyExistsException e) {
+            Files.delete(aside);
+        }
+    }
+
+    private static String owner(Path lockFile) throws IOException {
+        return new String(Files.readAllBytes(lockFile), StandardCharsets.UTF_8);
+    }
+
+    private boolean isStale(Path lockFile) throws IOException {
+        Instant touched = Files.getLastModifiedTime(lockFile).toInstant();
+        return touched.plus(staleAfter).isBefore(Instant.now());
+    }
+
+    private void touchHeldLocks() {
+        FileTime now = FileTime.from(Instant.now());
+        for (Path lockFile : heldLocks.keySet()) {
+            try {
+                Files.setLastModifiedTime(lockFile, now);
+            } catch (IOException e) {
+                logger.warn("Could not refresh invoice PDF render lock {}", lockFile, e);
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        heartbeat.shutdownNow();
+    }
+}
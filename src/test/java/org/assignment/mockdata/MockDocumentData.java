@@ -37,6 +37,10 @@ public class MockDocumentData {
     }
 
     public Document createLargeDocument() {
+        return createLargeDocument(100);
+    }
+
+    public Document createLargeDocument(int itemCount) {
         Document document = new Document();
         document.setSeller("Large Document Seller");
         document.setSellerGstin("27AAAAA0000A1Z5");
@@ -46,7 +50,7 @@ public class MockDocumentData {
         document.setBuyerAddress("456 Buyer Street");
 
         List<Item> items = new ArrayList<>();
-        for (int i = 0; i < 100; i++) {
+        for (int i = 0; i < itemCount; i++) {
             Item item = new Item();
             item.setName("Item " + i);
             item.setQuantity(String.valueOf(i + 1));
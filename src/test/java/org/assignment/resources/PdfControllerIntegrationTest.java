@@ -1,27 +1,41 @@
 package org.assignment.resources;
 
+import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import org.assignment.domainmodel.Document;
 import org.assignment.mockdata.MockDocumentData;
+import org.assignment.service.HotPdfCache;
+import org.assignment.service.RenderLimiter;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
 import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.MediaType;
 import org.springframework.test.context.junit4.SpringRunner;
 import org.springframework.test.web.servlet.MockMvc;
 import org.springframework.test.web.servlet.MvcResult;
+import org.springframework.test.web.servlet.ResultActions;
 
 import java.util.ArrayList;
-
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.hamcrest.Matchers.containsString;
 import static org.junit.Assert.*;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.asyncDispatch;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.head;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.*;
 
-@SpringBootTest
+@SpringBootTest(properties = {"pdf.render.request-threads=1", "pdf.render.request-queue-capacity=1"})
 @AutoConfigureMockMvc
 @RunWith(SpringRunner.class)
 public class PdfControllerIntegrationTest {
@@ -29,6 +43,12 @@ public class PdfControllerIntegrationTest {
     @Autowired
     private MockMvc mockMvc;
 
+    @Autowired
+    private RenderLimiter renderLimiter;
+
+    @Autowired
+    private HotPdfCache hotPdfCache;
+
     private ObjectMapper objectMapper;
 
     private MockDocumentData mockData;
@@ -39,14 +59,24 @@ public class PdfControllerIntegrationTest {
         mockData = new MockDocumentData();
     }
 
+    /**
+     * Posts the document to /pdf/generate, which responds asynchronously, and returns the dispatched response.
+     */
+    private ResultActions generate(String documentJson) throws Exception {
+        MvcResult asyncResult = mockMvc.perform(post("/pdf/generate")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(documentJson))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+        return mockMvc.perform(asyncDispatch(asyncResult));
+    }
+
     @Test
     public void testGenerateAndDownloadPdf() throws Exception {
         Document document = mockData.createSampleDocument();
         String documentJson = objectMapper.writeValueAsString(document);
 
-        MvcResult result = mockMvc.perform(post("/pdf/generate")
-                        .contentType(MediaType.APPLICATION_JSON)
-                        .content(documentJson))
+        MvcResult result = generate(documentJson)
                 .andExpect(status().isOk())
                 .andExpect(content().contentTypeCompatibleWith(MediaType.TEXT_PLAIN))
                 .andReturn();
@@ -66,9 +96,7 @@ public class PdfControllerIntegrationTest {
         Document invalidDocument = new Document();
         String documentJson = objectMapper.writeValueAsString(invalidDocument);
 
-        mockMvc.perform(post("/pdf/generate")
-                        .contentType(MediaType.APPLICATION_JSON)
-                        .content(documentJson))
+        generate(documentJson)
                 .andExpect(status().isBadRequest())
                 .andExpect(content().contentTypeCompatibleWith(MediaType.TEXT_PLAIN))
                 .andExpect(content().string("Invalid document: Required fields are missing"));
@@ -80,9 +108,7 @@ public class PdfControllerIntegrationTest {
         document.setSellerGstin(null);
         String documentJson = objectMapper.writeValueAsString(document);
 
-        mockMvc.perform(post("/pdf/generate")
-                        .contentType(MediaType.APPLICATION_JSON)
-                        .content(documentJson))
+        generate(documentJson)
                 .andExpect(status().isBadRequest())
                 .andExpect(content().contentTypeCompatibleWith(MediaType.TEXT_PLAIN));
     }
@@ -93,19 +119,208 @@ public class PdfControllerIntegrationTest {
         document.setItems(new ArrayList<>());
         String documentJson = objectMapper.writeValueAsString(document);
 
-        mockMvc.perform(post("/pdf/generate")
-                        .contentType(MediaType.APPLICATION_JSON)
-                        .content(documentJson))
+        generate(documentJson)
                 .andExpect(status().isBadRequest())
                 .andExpect(content().contentTypeCompatibleWith(MediaType.TEXT_PLAIN));
     }
 
+    @Test
+    public void testDownloadPdfWithRange() throws Exception {
+        Document document = mockData.createSampleDocument();
+        String documentJson = objectMapper.writeValueAsString(document);
+
+        MvcResult result = generate(documentJson)
+                .andExpect(status().isOk())
+                .andReturn();
+
+        String fileName = result.getResponse().getContentAsString();
+
+        MvcResult rangeResult = mockMvc.perform(get("/pdf/download/" + fileName)
+                        .header(HttpHeaders.RANGE, "bytes=0-3"))
+                .andExpect(status().isPartialContent())
+                .andExpect(header().exists(HttpHeaders.CONTENT_RANGE))
+                .andReturn();
+
+        assertEquals("Range request should return only the requested bytes",
+                "%PDF", rangeResult.getResponse().getContentAsString());
+    }
+
+    @Test
+    public void testDownloadIsRevalidatedWithoutReadingThePdf() throws Exception {
+        String fileName = generate(objectMapper.writeValueAsString(mockData.createSampleDocument()))
+                .andExpect(status().isOk())
+                .andReturn().getResponse().getContentAsString();
+
+        MvcResult download = mockMvc.perform(get("/pdf/download/" + fileName))
+                .andExpect(status().isOk())
+                .andExpect(header().exists(HttpHeaders.LAST_MODIFIED))
+                .andExpect(header().string(HttpHeaders.CACHE_CONTROL, containsString("immutable")))
+                .andReturn();
+        String eTag = download.getResponse().getHeader(HttpHeaders.ETAG);
+        assertTrue("ETag should be strong", eTag != null && eTag.startsWith("\""));
+
+        long cacheRequests = hotPdfCache.getHitCount() + hotPdfCache.getMissCount();
+        mockMvc.perform(get("/pdf/download/" + fileName)
+                        .header(HttpHeaders.IF_NONE_MATCH, eTag))
+                .andExpect(status().isNotModified())
+                .andExpect(header().string(HttpHeaders.ETAG, eTag))
+                .andExpect(header().string(HttpHeaders.CACHE_CONTROL, containsString("immutable")))
+                .andExpect(content().string(""));
+        mockMvc.perform(get("/pdf/download/" + fileName)
+                        .header(HttpHeaders.IF_MODIFIED_SINCE,
+                                download.getResponse().getHeader(HttpHeaders.LAST_MODIFIED)))
+                .andExpect(status().isNotModified());
+        assertEquals("A 304 should not load the PDF", cacheRequests,
+                hotPdfCache.getHitCount() + hotPdfCache.getMissCount());
+
+        mockMvc.perform(get("/pdf/download/" + fileName)
+                        .header(HttpHeaders.IF_NONE_MATCH, "\"some-other-version\""))
+                .andExpect(status().isOk());
+    }
+
+    @Test
+    public void testHeadReturnsHeadersOnly() throws Exception {
+        String fileName = generate(objectMapper.writeValueAsString(mockData.createSampleDocument()))
+                .andExpect(status().isOk())
+                .andReturn().getResponse().getContentAsString();
+        int size = mockMvc.perform(get("/pdf/download/" + fileName))
+                .andReturn().getResponse().getContentAsByteArray().length;
+
+        long cacheRequests = hotPdfCache.getHitCount() + hotPdfCache.getMissCount();
+        mockMvc.perform(head("/pdf/download/" + fileName))
+                .andExpect(status().isOk())
+                .andExpect(header().longValue(HttpHeaders.CONTENT_LENGTH, size))
+                .andExpect(header().exists(HttpHeaders.ETAG))
+                .andExpect(content().bytes(new byte[0]));
+        assertEquals("HEAD should not load the PDF", cacheRequests,
+                hotPdfCache.getHitCount() + hotPdfCache.getMissCount());
+
+        mockMvc.perform(head("/pdf/download/nonexistent.pdf"))
+                .andExpect(status().isNotFound());
+    }
+
+    @Test
+    public void testCacheHitsAndDownloadsDoNotWaitForRenders() throws Exception {
+        String documentJson = objectMapper.writeValueAsString(mockData.createSampleDocument());
+        String fileName = generate(documentJson)
+                .andExpect(status().isOk())
+                .andReturn().getResponse().getContentAsString();
+
+        // Hold every render permit, with another render queued behind them
+        CountDownLatch release = new CountDownLatch(1);
+        ExecutorService renders = Executors.newCachedThreadPool();
+        try {
+            for (int i = 0; i <= renderLimiter.getMaxConcurrent(); i++) {
+                renders.submit(() -> {
+                    renderLimiter.render(RenderLimiter.Lane.SMALL, release::await);
+                    return null;
+                });
+            }
+            while (renderLimiter.getWaitingRenders() == 0) {
+                Thread.sleep(10);
+            }
+
+            generate(documentJson)
+                    .andExpect(status().isOk())
+                    .andExpect(content().string(fileName));
+            mockMvc.perform(get("/pdf/download/" + fileName))
+                    .andExpect(status().isOk());
+
+            // A new document queues for a permit without holding the request thread
+            Document newDocument = mockData.createSampleDocument();
+            newDocument.setSeller("Queued Seller " + System.nanoTime());
+            MvcResult queued = mockMvc.perform(post("/pdf/generate")
+                            .contentType(MediaType.APPLICATION_JSON)
+                            .content(objectMapper.writeValueAsString(newDocument)))
+                    .andExpect(request().asyncStarted())
+                    .andReturn();
+            release.countDown();
+            mockMvc.perform(asyncDispatch(queued))
+                    .andExpect(status().isOk());
+        } finally {
+            release.countDown();
+            renders.shutdown();
+        }
+    }
+
+    @Test
+    public void testGenerateRejectedWhileTheRenderQueueIsFull() throws Exception {
+        // Hold every render permit, with another render queued behind them
+        CountDownLatch release = new CountDownLatch(1);
+        ExecutorService renders = Executors.newCachedThreadPool();
+        List<MvcResult> queued = new ArrayList<>();
+        try {
+            for (int i = 0; i <= renderLimiter.getMaxConcurrent(); i++) {
+                renders.submit(() -> {
+                    renderLimiter.render(RenderLimiter.Lane.SMALL, release::await);
+                    return null;
+                });
+            }
+            while (renderLimiter.getWaitingRenders() == 0) {
+                Thread.sleep(10);
+            }
+
+            // One document waits for a permit on the only generate thread, the next one in its queue
+            for (int i = 0; i < 2; i++) {
+                Document document = mockData.createSampleDocument();
+                document.setSeller("Queued Seller " + i + " " + System.nanoTime());
+                queued.add(mockMvc.perform(post("/pdf/generate")
+                                .contentType(MediaType.APPLICATION_JSON)
+                                .content(objectMapper.writeValueAsString(document)))
+                        .andExpect(request().asyncStarted())
+                        .andReturn());
+                while (i == 0 && renderLimiter.getWaitingRenders() < 2) {
+                    Thread.sleep(10);
+                }
+            }
+
+            Document rejected = mockData.createSampleDocument();
+            rejected.setSeller("Rejected Seller " + System.nanoTime());
+            generate(objectMapper.writeValueAsString(rejected))
+                    .andExpect(status().isTooManyRequests())
+                    .andExpect(header().exists(HttpHeaders.RETRY_AFTER));
+
+            release.countDown();
+            for (MvcResult result : queued) {
+                mockMvc.perform(asyncDispatch(result))
+                        .andExpect(status().isOk());
+            }
+        } finally {
+            release.countDown();
+            renders.shutdown();
+        }
+    }
+
     @Test
     public void testDownloadNonexistentPdf() throws Exception {
         mockMvc.perform(get("/pdf/download/nonexistent.pdf"))
                 .andExpect(status().isNotFound());
     }
 
+    @Test
+    public void testStageMetricsRecorded() throws Exception {
+        Document document = mockData.createSampleDocument();
+        document.setSeller("Metrics Seller " + System.nanoTime());
+
+        generate(objectMapper.writeValueAsString(document))
+                .andExpect(status().isOk());
+
+        MvcResult result = mockMvc.perform(get("/actuator/metrics/pdf.generate.stage")
+                        .param("tag", "stage:layout"))
+                .andExpect(status().isOk())
+                .andReturn();
+
+        JsonNode count = objectMapper.readTree(result.getResponse().getContentAsString())
+                .path("measurements").get(0);
+        assertEquals("COUNT", count.path("statistic").asText());
+        assertTrue("Layout stage should have been timed", count.path("value").asDouble() >= 1);
+
+        mockMvc.perform(get("/actuator/metrics/pdf.cache.lookups").param("tag", "result:miss"))
+                .andExpect(status().isOk());
+        mockMvc.perform(get("/actuator/metrics/pdf.cache.index.size"))
+                .andExpect(status().isOk());
+    }
+
     @Test
     public void testGeneratePdfWithSpecialCharacters() throws Exception {
         Document document = mockData.createSampleDocument();
@@ -114,9 +329,7 @@ public class PdfControllerIntegrationTest {
 
         String documentJson = objectMapper.writeValueAsString(document);
 
-        MvcResult result = mockMvc.perform(post("/pdf/generate")
-                        .contentType(MediaType.APPLICATION_JSON)
-                        .content(documentJson))
+        MvcResult result = generate(documentJson)
                 .andExpect(status().isOk())
                 .andReturn();
 
@@ -133,18 +346,14 @@ public class PdfControllerIntegrationTest {
         Document document = mockData.createSampleDocument();
         String documentJson = objectMapper.writeValueAsString(document);
 
-        MvcResult firstResult = mockMvc.perform(post("/pdf/generate")
-                        .contentType(MediaType.APPLICATION_JSON)
-                        .content(documentJson))
+        MvcResult firstResult = generate(documentJson)
                 .andExpect(status().isOk())
                 .andReturn();
 
         String firstFileName = firstResult.getResponse().getContentAsString();
 
         // Generate second PDF with same content
-        MvcResult secondResult = mockMvc.perform(post("/pdf/generate")
-                        .contentType(MediaType.APPLICATION_JSON)
-                        .content(documentJson))
+        MvcResult secondResult = generate(documentJson)
                 .andExpect(status().isOk())
                 .andReturn();
 
@@ -154,13 +363,131 @@ public class PdfControllerIntegrationTest {
     }
 
     @Test
-    public void testGeneratePdfWithLargeDocument() throws Exception {
-        Document document = mockData.createLargeDocument();
+    public void testGenerateBatchWithInvalidDocument() throws Exception {
+        List<Document> documents = new ArrayList<>();
+        documents.add(mockData.createSampleDocument());
+        documents.add(new Document());
+        documents.add(mockData.createLargeDocument());
+        String batchJson = objectMapper.writeValueAsString(documents);
+
+        MvcResult asyncResult = mockMvc.perform(post("/pdf/generate/batch")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(batchJson))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+
+        MvcResult result = mockMvc.perform(asyncDispatch(asyncResult))
+                .andExpect(status().isOk())
+                .andExpect(content().contentTypeCompatibleWith(MediaType.APPLICATION_NDJSON))
+                .andReturn();
+
+        String[] lines = result.getResponse().getContentAsString().trim().split("\n");
+        assertEquals("Batch should return one line per document", 3, lines.length);
+
+        Map<Integer, JsonNode> resultsByIndex = new HashMap<>();
+        for (String line : lines) {
+            JsonNode node = objectMapper.readTree(line);
+            resultsByIndex.put(node.get("index").asInt(), node);
+        }
+        assertTrue("Valid document should produce a file", resultsByIndex.get(0).has("fileName"));
+        assertTrue("Invalid document should produce an error", resultsByIndex.get(1).has("error"));
+        assertTrue("Invalid document should not fail the batch", resultsByIndex.get(2).has("fileName"));
+
+        mockMvc.perform(get("/pdf/download/" + resultsByIndex.get(2).get("fileName").asText()))
+                .andExpect(status().isOk());
+    }
+
+    @Test
+    public void testGenerateBatchFromNdjson() throws Exception {
+        String ndjson = objectMapper.writeValueAsString(mockData.createSampleDocument()) + "\n"
+                + objectMapper.writeValueAsString(mockData.createLargeDocument()) + "\n";
+
+        MvcResult asyncResult = mockMvc.perform(post("/pdf/generate/batch")
+                        .contentType(MediaType.APPLICATION_NDJSON)
+                        .content(ndjson))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+
+        MvcResult result = mockMvc.perform(asyncDispatch(asyncResult))
+                .andExpect(status().isOk())
+                .andReturn();
+
+        String[] lines = result.getResponse().getContentAsString().trim().split("\n");
+        assertEquals("Batch should return one line per document", 2, lines.length);
+        for (String line : lines) {
+            assertTrue("Each document should produce a file", objectMapper.readTree(line).has("fileName"));
+        }
+    }
+
+    @Test
+    public void testUnreadableDocumentEndsBatchAfterEarlierResults() throws Exception {
+        String ndjson = objectMapper.writeValueAsString(mockData.createSampleDocument()) + "\n"
+                + objectMapper.writeValueAsString(mockData.createLargeDocument()) + "\n"
+                + "{\"seller\": \n";
+
+        MvcResult asyncResult = mockMvc.perform(post("/pdf/generate/batch")
+                        .contentType(MediaType.APPLICATION_NDJSON)
+                        .content(ndjson))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+
+        MvcResult result = mockMvc.perform(asyncDispatch(asyncResult))
+                .andExpect(status().isOk())
+                .andReturn();
+
+        String[] lines = result.getResponse().getContentAsString().trim().split("\n");
+        assertEquals("Documents before the unreadable one should be reported", 3, lines.length);
+        for (int i = 0; i < 2; i++) {
+            assertTrue(objectMapper.readTree(lines[i]).has("fileName"));
+        }
+        JsonNode error = objectMapper.readTree(lines[2]);
+        assertEquals("Error should name the unreadable document", 2, error.get("index").asInt());
+        assertTrue(error.has("error"));
+    }
+
+    @Test
+    public void testSubmitAndPollJob() throws Exception {
+        Document document = mockData.createSampleDocument();
         String documentJson = objectMapper.writeValueAsString(document);
 
-        MvcResult result = mockMvc.perform(post("/pdf/generate")
+        MvcResult submitResult = mockMvc.perform(post("/pdf/jobs")
                         .contentType(MediaType.APPLICATION_JSON)
                         .content(documentJson))
+                .andExpect(status().isAccepted())
+                .andExpect(header().exists(HttpHeaders.LOCATION))
+                .andReturn();
+
+        String jobId = objectMapper.readTree(submitResult.getResponse().getContentAsString()).get("id").asText();
+
+        JsonNode job = null;
+        for (int i = 0; i < 600; i++) {
+            MvcResult pollResult = mockMvc.perform(get("/pdf/jobs/" + jobId))
+                    .andExpect(status().isOk())
+                    .andReturn();
+            job = objectMapper.readTree(pollResult.getResponse().getContentAsString());
+            if ("COMPLETED".equals(job.get("status").asText())) {
+                break;
+            }
+            Thread.sleep(100);
+        }
+
+        assertEquals("COMPLETED", job.get("status").asText());
+        mockMvc.perform(get("/pdf/download/" + job.get("fileName").asText()))
+                .andExpect(status().isOk());
+    }
+
+    @Test
+    public void testGetUnknownJob() throws Exception {
+        mockMvc.perform(get("/pdf/jobs/unknown"))
+                .andExpect(status().isNotFound());
+    }
+
+    @Test
+    public void testGeneratePdfWithLargeDocument() throws Exception {
+        Document document = mockData.createLargeDocument();
+        String documentJson = objectMapper.writeValueAsString(document);
+
+        MvcResult result = generate(documentJson)
                 .andExpect(status().isOk())
                 .andReturn();
 
@@ -171,4 +498,33 @@ public class PdfControllerIntegrationTest {
                 .andExpect(content().contentType(MediaType.APPLICATION_PDF));
     }
 
-}
\ No newline at end of file
+
+    @Test
+    public void testMergeEndpoint() throws Exception {
+        String fileName = generate(objectMapper.writeValueAsString(mockData.createSampleDocument()))
+                .andExpect(status().isOk())
+                .andReturn().getResponse().getContentAsString();
+
+        String merged = mockMvc.perform(post("/pdf/merge")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(objectMapper.writeValueAsString(List.of(fileName, fileName))))
+                .andExpect(status().isOk())
+                .andReturn().getResponse().getContentAsString();
+        mockMvc.perform(get("/pdf/download/" + merged))
+                .andExpect(status().isOk())
+                .andExpect(content().contentType(MediaType.APPLICATION_PDF));
+
+        mockMvc.perform(post("/pdf/merge")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(objectMapper.writeValueAsString(List.of(fileName, "missing.pdf"))))
+                .andExpect(status().isNotFound());
+        mockMvc.perform(post("/pdf/merge")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content("[]"))
+                .andExpect(status().isBadRequest());
+        mockMvc.perform(post("/pdf/merge")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(objectMapper.writeValueAsString(List.of("/etc/passwd"))))
+                .andExpect(status().isBadRequest());
+    }
+}
@@ -0,0 +1,216 @@
+package org.assignment.service;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+import static org.junit.Assert.*;
+
+public class CacheIndexJournalTest {
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    @Test
+    public void testReplayRestoresAppendedEntries() throws IOException {
+        Path journalFile = tempFolder.getRoot().toPath().resolve("cache_index.journal");
+
+        try (CacheIndexJournal journal = new CacheIndexJournal(journalFile, false)) {
+            assertTrue("New journal should replay empty", journal.replay().isEmpty());
+            journal.appendPut("hash1", "file1.pdf");
+            journal.appendPut("hash2", "file2.pdf");
+            journal.appendRemove("hash1");
+            journal.appendPut("hash2", "file2b.pdf");
+        }
+
+        try (CacheIndexJournal journal = new CacheIndexJournal(journalFile, false)) {
+            Map<String, String> entries = journal.replay();
+            assertEquals("Only live entries should be replayed", 1, entries.size());
+            assertEquals("Latest record should win", "file2b.pdf", entries.get("hash2"));
+        }
+    }
+
+    @Test
+    public void testTornTailIsSkippedAndTruncated() throws IOException {
+        Path journalFile = tempFolder.getRoot().toPath().resolve("cache_index.journal");
+
+        try (CacheIndexJournal journal = new CacheIndexJournal(journalFile, false)) {
+            journal.replay();
+            journal.appendPut("hash1", "file1.pdf");
+            journal.appendPut("hash2", "file2.pdf");
+        }
+
+        // Simulate a crash in the middle of the last append
+        long intactSize = Files.size(journalFile);
+        try (FileChannel channel = FileChannel.open(journalFile, StandardOpenOption.WRITE)) {
+            channel.truncate(intactSize - 3);
+        }
+
+        try (CacheIndexJournal journal = new CacheIndexJournal(journalFile, false)) {
+            Map<String, String> entries = journal.replay();
+            assertEquals("Records before the torn tail should survive", "file1.pdf", entries.get("hash1"));
+            assertFalse("Torn record should be skipped", entries.containsKey("hash2"));
+
+            journal.appendPut("hash3", "file3.pdf");
+        }
+
+        try (CacheIndexJournal journal = new CacheIndexJournal(journalFile, false)) {
+            Map<String, String> entries = journal.replay();
+            assertEquals("Appends after recovery should be readable", "file3.pdf", entries.get("hash3"));
+            assertEquals(2, entries.size());
+        }
+    }
+
+    @Test
+    public void testCompactionKeepsOnlyLiveEntries() throws IOException {
+        Path journalFile = tempFolder.getRoot().toPath().resolve("cache_index.journal");
+        Map<String, String> live = new HashMap<>();
+
+        try (CacheIndexJournal journal = new CacheIndexJournal(journalFile, false)) {
+            journal.replay();
+            for (int i = 0; i < 2000; i++) {
+                journal.appendPut("hash" + i, "file" + i + ".pdf");
+                if (i % 10 != 0) {
+                    journal.appendRemove("hash" + i);
+                } else {
+                    live.put("hash" + i, "file" + i + ".pdf");
+                }
+            }
+            assertTrue("Journal with mostly dead records should need compaction",
+                    journal.needsCompaction(live.size()));
+
+            long sizeBefore = Files.size(journalFile);
+            journal.compact(live);
+            assertTrue("Compacted journal should be smaller", Files.size(journalFile) < sizeBefore);
+            assertFalse(journal.needsCompaction(live.size()));
+
+            journal.appendPut("extra", "extra.pdf");
+        }
+
+        try (CacheIndexJournal journal = new CacheIndexJournal(journalFile, false)) {
+            Map<String, String> entries = journal.replay();
+            assertEquals(live.size() + 1, entries.size());
+            assertEquals("file10.pdf", entries.get("hash10"));
+            assertEquals("extra.pdf", entries.get("extra"));
+        }
+    }
+
+    @Test
+    public void testFailedCompactionKeepsTheJournalAppendable() throws IOException {
+        Path journalFile = tempFolder.getRoot().toPath().resolve("cache_index.journal");
+
+        try (CacheIndexJournal journal = new CacheIndexJournal(journalFile, false)) {
+            journal.replay();
+            journal.appendPut("hash1", "file1.pdf");
+
+            // A non-empty directory in the journal's place cannot be renamed over
+            Files.delete(journalFile);
+            Files.createFile(Files.createDirectory(journalFile).resolve("blocker"));
+            try {
+                journal.compact(Map.of("hash1", "file1.pdf"));
+                fail("Compaction should have failed");
+            } catch (IOException expected) {
+                assertFalse("Snapshot of the failed compaction should be removed",
+                        Files.exists(journalFile.resolveSibling("cache_index.journal.compact")));
+            }
+            journal.appendPut("hash2", "file2.pdf");
+
+            Files.delete(journalFile.resolve("blocker"));
+            Files.delete(journalFile);
+            journal.compact(Map.of("hash1", "file1.pdf", "hash2", "file2.pdf"));
+            journal.appendPut("hash3", "file3.pdf");
+        }
+
+        try (CacheIndexJournal journal = new CacheIndexJournal(journalFile, false)) {
+            assertEquals(Map.of("hash1", "file1.pdf", "hash2", "file2.pdf", "hash3", "file3.pdf"),
+                    journal.replay());
+        }
+    }
+
+    @Test
+    public void testEntriesOfAnotherHashFormatAreDropped() throws IOException {
+        Path journalFile = tempFolder.getRoot().toPath().resolve("cache_index.journal");
+
+        try (CacheIndexJournal journal = new CacheIndexJournal(journalFile, false, (byte) 0)) {
+            journal.replay();
+            journal.appendPut("oldHash", "old.pdf");
+        }
+
+        try (CacheIndexJournal journal = new CacheIndexJournal(journalFile, false)) {
+            assertTrue("Hashes of another format should not be replayed", journal.replay().isEmpty());
+            journal.appendPut("hash1", "file1.pdf");
+        }
+
+        try (CacheIndexJournal journal = new CacheIndexJournal(journalFile, false)) {
+            Map<String, String> entries = journal.replay();
+            assertEquals("Entries journaled after the drop should be kept", Map.of("hash1", "file1.pdf"), entries);
+        }
+    }
+
+    @Test
+    public void testJournalWithoutHashFormatIsDropped() throws IOException {
+        Path journalFile = tempFolder.getRoot().toPath().resolve("cache_index.journal");
+
+        // A version 1 journal: magic and version, then one framed put record
+        ByteArrayOutputStream payload = new ByteArrayOutputStream();
+        try (DataOutputStream record = new DataOutputStream(payload)) {
+            record.writeByte(1);
+            record.writeUTF("oldHash");
+            record.writeUTF("old.pdf");
+        }
+        CRC32 crc = new CRC32();
+        crc.update(payload.toByteArray());
+        try (DataOutputStream out = new DataOutputStream(Files.newOutputStream(journalFile))) {
+            out.writeInt(0x50444649);
+            out.writeByte(1);
+            out.writeInt(payload.size());
+            out.writeInt((int) crc.getValue());
+            out.write(payload.toByteArray());
+        }
+
+        try (CacheIndexJournal journal = new CacheIndexJournal(journalFile, false)) {
+            assertTrue("Hashes from before the hash format was recorded should not be replayed",
+                    journal.replay().isEmpty());
+            journal.appendPut("hash1", "file1.pdf");
+        }
+
+        try (CacheIndexJournal journal = new CacheIndexJournal(journalFile, false)) {
+            assertEquals(Map.of("hash1", "file1.pdf"), journal.replay());
+        }
+    }
+
+    @Test
+    public void testEmptyJournalCanBeStartedAfterAFailedReplay() throws IOException {
+        // A directory in the journal's place cannot be read
+        Path journalFile = Files.createDirectory(tempFolder.getRoot().toPath().resolve("cache_index.journal"));
+
+        try (CacheIndexJournal journal = new CacheIndexJournal(journalFile, false)) {
+            try {
+                journal.replay();
+                fail("Replay should have failed");
+            } catch (IOException expected) {
+                assertFalse(journal.isOpen());
+            }
+            journal.openEmpty();
+            assertTrue(journal.isOpen());
+            journal.appendPut("hash1", "file1.pdf");
+        }
+
+        try (CacheIndexJournal journal = new CacheIndexJournal(journalFile, false)) {
+            assertEquals("file1.pdf", journal.replay().get("hash1"));
+        }
+        assertTrue("Unreadable journal should be kept aside",
+                Files.exists(journalFile.resolveSibling("cache_index.journal.unreadable")));
+    }
+}
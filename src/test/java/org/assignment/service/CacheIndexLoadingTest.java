@@ -0,0 +1,142 @@
+package org.assignment.service;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.assignment.mockdata.MockDocumentData;
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class CacheIndexLoadingTest {
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    private final List<LooseFileStorage> opened = new ArrayList<>();
+
+    @After
+    public void tearDown() throws IOException {
+        for (LooseFileStorage storage : opened) {
+            storage.close();
+        }
+    }
+
+    private LooseFileStorage open(MeterRegistry registry) throws IOException {
+        LooseFileStorage storage = new LooseFileStorage(tempFolder.getRoot().toPath(), "flat", null, 2,
+                new PdfMetrics(registry));
+        opened.add(storage);
+        return storage;
+    }
+
+    private void close(LooseFileStorage storage) throws IOException {
+        storage.close();
+        opened.remove(storage);
+    }
+
+    private static String hash(String content) throws Exception {
+        byte[] digest = MessageDigest.getInstance("SHA-256").digest(content.getBytes(StandardCharsets.UTF_8));
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(digest);
+    }
+
+    private static String store(PdfStorage storage, String content) throws Exception {
+        return storage.store(hash(content), new MockDocumentData().createSampleDocument(), outputStream -> {
+            try {
+                outputStream.write(content.getBytes(StandardCharsets.UTF_8));
+                outputStream.close();
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+        });
+    }
+
+    private static void awaitEntryCount(LooseFileStorage storage, int entries) throws InterruptedException {
+        long deadline = System.nanoTime() + Duration.ofSeconds(10).toNanos();
+        while (storage.getEntryCount() != entries && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(entries, storage.getEntryCount());
+    }
+
+    @Test
+    public void testPdfsStoredWhileTheIndexLoadsAreKept() throws Exception {
+        LooseFileStorage storage = open(new SimpleMeterRegistry());
+        String stored = store(storage, "stored at startup");
+        assertEquals(stored, storage.find(hash("stored at startup")));
+        close(storage);
+
+        MeterRegistry registry = new SimpleMeterRegistry();
+        LooseFileStorage reopened = open(registry);
+        assertTrue(reopened.awaitIndexReady(Duration.ofSeconds(10)));
+        assertTrue(reopened.isIndexReady());
+        assertEquals("Entry should have been journaled", stored, reopened.find(hash("stored at startup")));
+        assertEquals(1, registry.get("pdf.storage.index.ready").timer().count());
+    }
+
+    @Test
+    public void testIndexIsReconciledWithTheDirectory() throws Exception {
+        LooseFileStorage storage = open(new SimpleMeterRegistry());
+        assertTrue(storage.awaitIndexReady(Duration.ofSeconds(10)));
+        String kept = store(storage, "kept invoice");
+        String deleted = store(storage, "deleted invoice");
+        close(storage);
+
+        // Changed behind the index's back: one PDF deleted, two added under their content-addressed names
+        Path root = tempFolder.getRoot().toPath();
+        Files.delete(root.resolve(deleted));
+        List<String> added = new ArrayList<>();
+        for (String content : List.of("added invoice", "another added invoice")) {
+            String fileName = PdfStorage.contentAddressedFileName(hash(content));
+            Path shard = root.resolve(fileName.substring(0, 2)).resolve(fileName.substring(2, 4));
+            Files.writeString(Files.createDirectories(shard).resolve(fileName), content);
+            added.add(fileName);
+        }
+        Files.writeString(root.resolve("unindexed.pdf"), "unindexed invoice");
+
+        LooseFileStorage reopened = open(new SimpleMeterRegistry());
+        awaitEntryCount(reopened, 3);
+        assertEquals(kept, reopened.find(hash("kept invoice")));
+        assertNull(reopened.find(hash("deleted invoice")));
+        assertEquals(added.get(0), reopened.find(hash("added invoice")));
+        assertTrue("Unindexed PDFs stay downloadable by name", reopened.exists("unindexed.pdf"));
+    }
+
+    @Test
+    public void testPdfRenderedAgainWhileTheIndexLoadsKeepsBothFiles() throws Exception {
+        LooseFileStorage storage = open(new SimpleMeterRegistry());
+        assertTrue(storage.awaitIndexReady(Duration.ofSeconds(10)));
+        String first = store(storage, "repeat invoice");
+        close(storage);
+
+        // Rendered again before or after the replay catches up with the first render, depending on timing
+        LooseFileStorage reopened = open(new SimpleMeterRegistry());
+        String second = store(reopened, "repeat invoice");
+        assertTrue(reopened.awaitIndexReady(Duration.ofSeconds(10)));
+
+        assertTrue("Both names were handed out and stay downloadable", reopened.exists(first));
+        assertTrue(reopened.exists(second));
+        String found = reopened.find(hash("repeat invoice"));
+        assertTrue(found.equals(first) || found.equals(second));
+        assertEquals(hash("repeat invoice"), reopened.stat(first).contentHash());
+        assertEquals(hash("repeat invoice"), reopened.stat(second).contentHash());
+        close(reopened);
+
+        LooseFileStorage restarted = open(new SimpleMeterRegistry());
+        assertTrue(restarted.awaitIndexReady(Duration.ofSeconds(10)));
+        assertEquals(found, restarted.find(hash("repeat invoice")));
+        assertTrue(restarted.exists(first));
+        assertTrue(restarted.exists(second));
+    }
+}
@@ -0,0 +1,175 @@
+package org.assignment.service;
+
+import com.itextpdf.text.Paragraph;
+import com.itextpdf.text.pdf.PdfReader;
+import com.itextpdf.text.pdf.PdfWriter;
+import com.itextpdf.text.pdf.parser.PdfTextExtractor;
+import org.assignment.domainmodel.Document;
+import org.assignment.mockdata.MockDocumentData;
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.*;
+
+public class ChunkedPdfRendererTest {
+
+    private final ChunkedPdfRenderer renderer = new ChunkedPdfRenderer(10, 2);
+    private final MockDocumentData mockData = new MockDocumentData();
+
+    @After
+    public void tearDown() {
+        renderer.shutdown();
+    }
+
+    @Test
+    public void testOnlyDocumentsAboveChunkSizeAreChunked() {
+        assertFalse(renderer.shouldChunk(mockData.createLargeDocument(10)));
+        assertTrue(renderer.shouldChunk(mockData.createLargeDocument(11)));
+        assertFalse(new ChunkedPdfRenderer(0, 1).shouldChunk(mockData.createLargeDocument(10000)));
+    }
+
+    @Test
+    public void testChunksAreMergedInOrder() throws Exception {
+        Set<String> flags = Collections.synchronizedSet(new HashSet<>());
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+
+        renderer.render(mockData.createLargeDocument(35), outputStream, (chunk, first, last, out) -> {
+            String firstItem = chunk.getItems().get(0).getName();
+            flags.add(firstItem + ":" + first + ":" + last);
+            writeSinglePage(firstItem + " to " + chunk.getItems().get(chunk.getItems().size() - 1).getName(), out);
+        });
+
+        PdfReader reader = new PdfReader(outputStream.toByteArray());
+        try {
+            assertEquals("One page per chunk", 4, reader.getNumberOfPages());
+            assertTrue(PdfTextExtractor.getTextFromPage(reader, 1).contains("Item 0 to Item 9"));
+            assertTrue(PdfTextExtractor.getTextFromPage(reader, 4).contains("Item 30 to Item 34"));
+        } finally {
+            reader.close();
+        }
+        assertTrue(flags.contains("Item 0:true:false"));
+        assertTrue(flags.contains("Item 10:false:false"));
+        assertTrue(flags.contains("Item 30:false:true"));
+    }
+
+    @Test
+    public void testFailingChunkFailsRenderAndRemovesChunkFiles() throws Exception {
+        Set<Path> tempFilesBefore = chunkFiles();
+        AtomicInteger rendered = new AtomicInteger();
+        AtomicBoolean closed = new AtomicBoolean();
+        OutputStream outputStream = new ByteArrayOutputStream() {
+            @Override
+            public void close() {
+                closed.set(true);
+            }
+        };
+        try {
+            renderer.render(mockData.createLargeDocument(50), outputStream, (chunk, first, last, out) -> {
+                if (rendered.incrementAndGet() == 2) {
+                    throw new IllegalStateException("Chunk failed");
+                }
+                writeSinglePage("chunk", out);
+            });
+            fail("Expected the failing chunk to fail the render");
+        } catch (IllegalStateException e) {
+            assertEquals("Chunk failed", e.getMessage());
+        }
+
+        assertEquals("Chunk files should be removed", tempFilesBefore, chunkFiles());
+        assertTrue("Merge should be closed on failure too", closed.get());
+    }
+
+    @Test
+    public void testFailingFirstChunkStillClosesTheMerge() throws Exception {
+        AtomicBoolean closed = new AtomicBoolean();
+        OutputStream outputStream = new ByteArrayOutputStream() {
+            @Override
+            public void close() {
+                closed.set(true);
+            }
+        };
+        try {
+            renderer.render(mockData.createLargeDocument(50), outputStream, (chunk, first, last, out) -> {
+                throw new IllegalStateException("Chunk failed");
+            });
+            fail("Expected the failing chunk to fail the render");
+        } catch (IllegalStateException e) {
+            assertEquals("The chunk's failure should be reported, not the empty merge's", "Chunk failed",
+                    e.getMessage());
+        }
+        assertTrue(closed.get());
+    }
+
+    @Test
+    public void testInterruptedRenderCancelsChunksAndKeepsTheInterrupt() throws Exception {
+        Set<Path> tempFilesBefore = chunkFiles();
+        CountDownLatch started = new CountDownLatch(2);
+        CountDownLatch cancelled = new CountDownLatch(2);
+        AtomicReference<Exception> failure = new AtomicReference<>();
+        AtomicBoolean interruptKept = new AtomicBoolean();
+        Thread renderThread = new Thread(() -> {
+            try {
+                renderer.render(mockData.createLargeDocument(50), new ByteArrayOutputStream(),
+                        (chunk, first, last, out) -> {
+                            started.countDown();
+                            try {
+                                Thread.sleep(TimeUnit.SECONDS.toMillis(30));
+                            } catch (InterruptedException e) {
+                                cancelled.countDown();
+                                throw e;
+                            }
+                        });
+            } catch (Exception e) {
+                failure.set(e);
+                interruptKept.set(Thread.currentThread().isInterrupted());
+            }
+        });
+        renderThread.start();
+        assertTrue(started.await(10, TimeUnit.SECONDS));
+
+        renderThread.interrupt();
+        renderThread.join(TimeUnit.SECONDS.toMillis(10));
+
+        assertFalse("Render should not wait for the chunks", renderThread.isAlive());
+        assertTrue(failure.get() instanceof InterruptedException);
+        assertTrue("Interrupt should be kept for the caller", interruptKept.get());
+        assertTrue("Chunks still rendering should be cancelled", cancelled.await(10, TimeUnit.SECONDS));
+        // Cancelled chunks remove their files on their own threads
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (!tempFilesBefore.equals(chunkFiles()) && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals("Chunk files should be removed", tempFilesBefore, chunkFiles());
+    }
+
+    private static Set<Path> chunkFiles() throws Exception {
+        try (Stream<Path> files = Files.list(Paths.get(System.getProperty("java.io.tmpdir")))) {
+            return files.filter(file -> file.getFileName().toString().startsWith("pdf-chunk-"))
+                    .collect(Collectors.toSet());
+        }
+    }
+
+    private static void writeSinglePage(String text, OutputStream outputStream) throws Exception {
+        com.itextpdf.text.Document pdf = new com.itextpdf.text.Document();
+        PdfWriter.getInstance(pdf, outputStream);
+        pdf.open();
+        pdf.add(new Paragraph(text));
+        pdf.close();
+    }
+}
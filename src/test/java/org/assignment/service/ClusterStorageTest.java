@@ -0,0 +1,206 @@
+package org.assignment.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.*;
+
+/**
+ * Several storage nodes in cluster mode sharing one directory, as separate instances would share a volume.
+ */
+public class ClusterStorageTest {
+
+    private static final int NODES = 4;
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    private Path directory;
+    private final List<LooseFileStorage> nodes = new ArrayList<>();
+    private final AtomicInteger renders = new AtomicInteger();
+
+    @Before
+    public void setUp() throws IOException {
+        directory = tempFolder.getRoot().toPath();
+        for (int i = 0; i < NODES; i++) {
+            nodes.add(startNode());
+        }
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        for (LooseFileStorage node : nodes) {
+            node.close();
+        }
+    }
+
+    private LooseFileStorage startNode() throws IOException {
+        return new LooseFileStorage(directory, "flat", Duration.ofSeconds(2), 1,
+                new PdfMetrics(new SimpleMeterRegistry()));
+    }
+
+    private static String hash(String content) throws Exception {
+        byte[] digest = MessageDigest.getInstance("SHA-256").digest(content.getBytes(StandardCharsets.UTF_8));
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(digest);
+    }
+
+    private String store(LooseFileStorage node, String content, long renderMillis) throws Exception {
+        return node.store(hash(content), null, outputStream -> {
+            renders.incrementAndGet();
+            try {
+                Thread.sleep(renderMillis);
+                outputStream.write(content.getBytes(StandardCharsets.UTF_8));
+                outputStream.close();
+            } catch (IOException | InterruptedException e) {
+                throw new IllegalStateException(e);
+            }
+        });
+    }
+
+    private static String read(LooseFileStorage node, String fileName) throws IOException {
+        return new String(node.load(fileName).getContentAsByteArray(), StandardCharsets.UTF_8);
+    }
+
+    @Test
+    public void testDocumentIsRenderedOnceAcrossNodes() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(NODES);
+        CountDownLatch start = new CountDownLatch(1);
+        try {
+            List<Future<String>> results = new ArrayList<>();
+            for (LooseFileStorage node : nodes) {
+                results.add(executor.submit(() -> {
+                    start.await();
+                    return store(node, "shared invoice", 300);
+                }));
+            }
+            start.countDown();
+
+            String fileName = results.get(0).get(30, TimeUnit.SECONDS);
+            for (Future<String> result : results) {
+                assertEquals(fileName, result.get(30, TimeUnit.SECONDS));
+            }
+            assertEquals("Only one node should render the document", 1, renders.get());
+            for (LooseFileStorage node : nodes) {
+                assertEquals("shared invoice", read(node, fileName));
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        try (Stream<Path> locks = Files.list(directory.resolve("locks"))) {
+            assertEquals("Render claims should be released", 0, locks.count());
+        }
+    }
+
+    @Test
+    public void testNodesPickUpEachOthersPdfsWithoutRestart() throws Exception {
+        String fileName = store(nodes.get(0), "first node invoice", 0);
+
+        assertEquals(fileName, nodes.get(1).find(hash("first node invoice")));
+        assertEquals("first node invoice", read(nodes.get(2), fileName));
+        assertEquals("Other nodes should reuse the stored PDF", fileName,
+                store(nodes.get(3), "first node invoice", 0));
+        assertEquals(1, renders.get());
+
+        assertTrue(nodes.get(1).delete(fileName));
+        assertNull("A delete should be seen by every node", nodes.get(0).find(hash("first node invoice")));
+    }
+
+    @Test
+    public void testStaleClaimOfCrashedNodeIsTakenOver() throws Exception {
+        String fileName = PdfStorage.contentAddressedFileName(hash("orphaned invoice"));
+        Path lockFile = directory.resolve("locks").resolve(fileName + ".lock");
+        Files.write(lockFile, "crashed-node".getBytes(StandardCharsets.UTF_8));
+        Files.setLastModifiedTime(lockFile, FileTime.from(Instant.now().minusSeconds(60)));
+
+        assertEquals(fileName, store(nodes.get(0), "orphaned invoice", 0));
+        assertEquals(1, renders.get());
+        assertFalse("Claim should be released after the render", Files.exists(lockFile));
+    }
+
+    @Test
+    public void testReleaseOfABrokenClaimKeepsTheNewOwnersLock() throws Exception {
+        Path lockDirectory = tempFolder.newFolder("shared-locks").toPath();
+        Path lockFile = lockDirectory.resolve("invoice.pdf.lock");
+        SharedRenderLocks stalled = new SharedRenderLocks(lockDirectory, Duration.ofSeconds(2));
+        SharedRenderLocks taker = new SharedRenderLocks(lockDirectory, Duration.ofSeconds(2));
+        try {
+            SharedRenderLocks.Claim stalledClaim = stalled.tryClaim("invoice.pdf");
+            assertNotNull(stalledClaim);
+            // The node stalls: it stops touching its claim, which goes stale and is broken
+            stalled.close();
+            Files.setLastModifiedTime(lockFile, FileTime.from(Instant.now().minusSeconds(60)));
+            SharedRenderLocks.Claim takenOver = taker.tryClaim("invoice.pdf");
+            assertNotNull(takenOver);
+
+            stalledClaim.close();
+            assertTrue("Late release should leave the new owner's lock alone", Files.exists(lockFile));
+            assertNull(stalled.tryClaim("invoice.pdf"));
+
+            takenOver.close();
+            assertFalse(Files.exists(lockFile));
+            try (Stream<Path> files = Files.list(lockDirectory)) {
+                assertEquals("Nothing should be left aside", 0, files.count());
+            }
+        } finally {
+            taker.close();
+        }
+    }
+
+    @Test
+    public void testLiveClaimIsWaitedFor() throws Exception {
+        String fileName = PdfStorage.contentAddressedFileName(hash("slow invoice"));
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            // Longer than the stale timeout, so the claim only stays valid through its heartbeat
+            Future<String> slowRender = executor.submit(() -> store(nodes.get(0), "slow invoice", 3000));
+            Path lockFile = directory.resolve("locks").resolve(fileName + ".lock");
+            while (!Files.exists(lockFile)) {
+                Thread.sleep(10);
+            }
+
+            assertEquals(fileName, store(nodes.get(1), "slow invoice", 0));
+            assertEquals(fileName, slowRender.get(30, TimeUnit.SECONDS));
+            assertEquals("Waiting node should not render again", 1, renders.get());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testStartupKeepsOtherNodesRendersInProgress() throws Exception {
+        Path inProgress = directory.resolve("in-progress.pdf.tmp");
+        Path abandoned = directory.resolve("abandoned.pdf.tmp");
+        Files.write(inProgress, new byte[10]);
+        Files.write(abandoned, new byte[10]);
+        Files.setLastModifiedTime(abandoned, FileTime.from(Instant.now().minusSeconds(60)));
+
+        nodes.add(startNode());
+
+        assertTrue("A fresh render of another node should be left alone", Files.exists(inProgress));
+        assertFalse("An abandoned render should be removed", Files.exists(abandoned));
+    }
+}
@@ -0,0 +1,85 @@
+package org.assignment.service;
+
+import org.assignment.domainmodel.Document;
+import org.assignment.mockdata.MockDocumentData;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.junit4.SpringRunner;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.*;
+
+@RunWith(SpringRunner.class)
+@SpringBootTest(properties = "pdf.storage.layout=content-addressed")
+public class ContentAddressedStorageTest {
+
+    @Autowired
+    private PdfGeneratorService pdfGeneratorService;
+
+    private MockDocumentData mockData;
+
+    @Before
+    public void setUp() throws IOException {
+        Files.createDirectories(Paths.get(PdfGeneratorService.PDF_STORAGE_PATH));
+        mockData = new MockDocumentData();
+        cleanUp();
+    }
+
+    @After
+    public void cleanUp() throws IOException {
+        try (Stream<Path> files = Files.walk(Paths.get(PdfGeneratorService.PDF_STORAGE_PATH))) {
+            files.filter(Files::isRegularFile).map(Path::toFile).forEach(File::delete);
+        }
+    }
+
+    @Test
+    public void testFileIsNamedByContentAndSharded() throws Exception {
+        String fileName = pdfGeneratorService.generateAndStorePdf(mockData.createSampleDocument());
+
+        assertTrue("File name should be the hex content hash: " + fileName, fileName.matches("[0-9a-f]{64}\\.pdf"));
+        Path sharded = Paths.get(PdfGeneratorService.PDF_STORAGE_PATH,
+                fileName.substring(0, 2), fileName.substring(2, 4), fileName);
+        assertTrue("PDF should be stored in its hash prefix shard", Files.exists(sharded));
+        assertTrue(pdfGeneratorService.retrieveStoredPdf(fileName).length > 0);
+    }
+
+    @Test
+    public void testIdenticalContentFoundWithoutIndex() throws Exception {
+        String fileName1 = pdfGeneratorService.generateAndStorePdf(mockData.createSampleDocument());
+        String fileName2 = pdfGeneratorService.generateAndStorePdf(mockData.createSampleDocument());
+
+        assertEquals(fileName1, fileName2);
+        assertEquals("Content-addressed files should not be indexed", 0, pdfGeneratorService.getCacheIndexSize());
+    }
+
+    @Test
+    public void testDeletedFileIsRenderedAgainUnderSameName() throws Exception {
+        Document document = mockData.createSampleDocument();
+        String fileName = pdfGeneratorService.generateAndStorePdf(document);
+        Path sharded = Paths.get(PdfGeneratorService.PDF_STORAGE_PATH,
+                fileName.substring(0, 2), fileName.substring(2, 4), fileName);
+        Files.delete(sharded);
+
+        assertEquals(fileName, pdfGeneratorService.generateAndStorePdf(document));
+        assertTrue(Files.exists(sharded));
+    }
+
+    @Test
+    public void testDifferentContentGetsDifferentFiles() throws Exception {
+        Document document2 = mockData.createSampleDocument();
+        document2.setBuyer("Another Buyer");
+
+        assertNotEquals(pdfGeneratorService.generateAndStorePdf(mockData.createSampleDocument()),
+                pdfGeneratorService.generateAndStorePdf(document2));
+    }
+}
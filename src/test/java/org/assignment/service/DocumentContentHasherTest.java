@@ -0,0 +1,105 @@
+package org.assignment.service;
+
+import org.assignment.domainmodel.Document;
+import org.assignment.domainmodel.Item;
+import org.assignment.domainmodel.PdfOverlay;
+import org.assignment.mockdata.MockDocumentData;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class DocumentContentHasherTest {
+
+    private final MockDocumentData mockData = new MockDocumentData();
+
+    @Test
+    public void testIdenticalDocumentsHashEqual() {
+        assertArrayEquals(DocumentContentHasher.hash(mockData.createLargeDocument()),
+                DocumentContentHasher.hash(mockData.createLargeDocument()));
+    }
+
+    @Test
+    public void testNullAndEmptyTextHashEqual() {
+        Document document1 = mockData.createSampleDocument();
+        Document document2 = mockData.createSampleDocument();
+        document1.setSellerAddress(null);
+        document2.setSellerAddress("   ");
+
+        assertArrayEquals(DocumentContentHasher.hash(document1), DocumentContentHasher.hash(document2));
+    }
+
+    @Test
+    public void testAmountsComparedAtTwoDecimals() {
+        Document document1 = mockData.createSampleDocument();
+        Document document2 = mockData.createSampleDocument();
+        document2.getItems().get(0).setAmount(1000.001);
+
+        assertArrayEquals(DocumentContentHasher.hash(document1), DocumentContentHasher.hash(document2));
+
+        document2.getItems().get(0).setAmount(1000.01);
+        assertFalse("A one cent difference should change the hash",
+                Arrays.equals(DocumentContentHasher.hash(document1), DocumentContentHasher.hash(document2)));
+    }
+
+    @Test
+    public void testNonFiniteAmountsAreRejected() {
+        Document document = mockData.createSampleDocument();
+        for (double amount : new double[] {Double.NaN, Double.POSITIVE_INFINITY, Double.NEGATIVE_INFINITY}) {
+            document.getItems().get(0).setAmount(amount);
+            try {
+                DocumentContentHasher.hash(document);
+                fail("A non-finite amount should be rejected: " + amount);
+            } catch (IllegalArgumentException expected) {
+                // Would otherwise share the hash of every other non-finite amount
+            }
+        }
+    }
+
+    @Test
+    public void testFieldBoundariesAreUnambiguous() {
+        Document document1 = mockData.createSampleDocument();
+        Document document2 = mockData.createSampleDocument();
+        document1.setSeller("AB");
+        document1.setSellerAddress("C");
+        document2.setSeller("A");
+        document2.setSellerAddress("BC");
+
+        assertFalse("Text moved between fields should change the hash",
+                Arrays.equals(DocumentContentHasher.hash(document1), DocumentContentHasher.hash(document2)));
+    }
+
+    @Test
+    public void testItemOrderMatters() {
+        Document document1 = mockData.createSampleDocument();
+        Document document2 = mockData.createSampleDocument();
+        List<Item> reversed = new ArrayList<>(document2.getItems());
+        Collections.reverse(reversed);
+        document2.setItems(reversed);
+
+        assertFalse("Reordered items should change the hash",
+                Arrays.equals(DocumentContentHasher.hash(document1), DocumentContentHasher.hash(document2)));
+    }
+
+    @Test
+    public void testOverlayIsKeptOutOfTheContentHashButKeysTheVariant() {
+        Document plain = mockData.createSampleDocument();
+        Document labelled = mockData.createSampleDocument();
+        PdfOverlay original = new PdfOverlay();
+        original.setCopyLabel("ORIGINAL");
+        labelled.setOverlay(original);
+        assertArrayEquals(DocumentContentHasher.hash(plain), DocumentContentHasher.hash(labelled));
+
+        PdfOverlay duplicate = new PdfOverlay();
+        duplicate.setCopyLabel("DUPLICATE");
+        assertFalse("Each overlay should key its own variant",
+                Arrays.equals(DocumentContentHasher.hashVariant("hash", original),
+                        DocumentContentHasher.hashVariant("hash", duplicate)));
+        assertArrayEquals(DocumentContentHasher.hashVariant("hash", original),
+                DocumentContentHasher.hashVariant("hash", original));
+    }
+}
@@ -0,0 +1,89 @@
+package org.assignment.service;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.Assert.*;
+
+public class HotPdfCacheTest {
+
+    private static final int MB = 1024 * 1024;
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    @Test
+    public void testHitsAndMisses() throws IOException {
+        HotPdfCache cache = new HotPdfCache(1);
+        cache.put("a.pdf", pdfFile("a.pdf", new byte[]{1, 2, 3}));
+
+        ByteBuffer cached = cache.get("a.pdf");
+        assertNotNull("Cached PDF should be returned", cached);
+        assertTrue("Cached PDF should be held off-heap", cached.isDirect());
+        assertEquals(3, cached.remaining());
+        assertNull(cache.get("b.pdf"));
+
+        assertEquals(1, cache.getHitCount());
+        assertEquals(1, cache.getMissCount());
+    }
+
+    @Test
+    public void testLeastRecentlyUsedEvictedWhenOverBudget() throws IOException {
+        HotPdfCache cache = new HotPdfCache(1);
+        cache.put("a.pdf", pdfFile("a.pdf", new byte[MB / 4]));
+        cache.put("b.pdf", pdfFile("b.pdf", new byte[MB / 4]));
+        cache.put("c.pdf", pdfFile("c.pdf", new byte[MB / 4]));
+        cache.get("a.pdf");
+
+        cache.put("d.pdf", pdfFile("d.pdf", new byte[MB / 4]));
+        cache.put("e.pdf", pdfFile("e.pdf", new byte[MB / 4]));
+
+        assertNull("Least recently used entry should be evicted", cache.get("b.pdf"));
+        assertNotNull("Recently used entry should survive", cache.get("a.pdf"));
+        assertNotNull(cache.get("e.pdf"));
+        assertTrue("Cache should stay within budget", cache.getSizeBytes() <= MB);
+        assertEquals(1, cache.getEvictionCount());
+    }
+
+    @Test
+    public void testOversizedEntriesAndDisabledCacheAreSkipped() throws IOException {
+        HotPdfCache cache = new HotPdfCache(1);
+        cache.put("huge.pdf", pdfFile("huge.pdf", new byte[MB / 2]));
+        assertNull("PDF over a quarter of the budget should not be cached", cache.get("huge.pdf"));
+
+        HotPdfCache disabled = new HotPdfCache(0);
+        disabled.put("a.pdf", pdfFile("a.pdf", new byte[]{1}));
+        assertFalse(disabled.isEnabled());
+        assertNull(disabled.get("a.pdf"));
+    }
+
+    @Test
+    public void testPutFromFileAndInvalidate() throws Exception {
+        Path file = pdfFile("a.pdf", new byte[]{'%', 'P', 'D', 'F'});
+
+        HotPdfCache cache = new HotPdfCache(1);
+        ByteBuffer justCached = cache.put("a.pdf", file);
+        assertNotNull("Cached content should be handed back", justCached);
+        assertTrue(justCached.isReadOnly());
+        assertEquals(4, justCached.remaining());
+        ByteBufferResource resource = new ByteBufferResource(cache.get("a.pdf"), "a.pdf");
+        assertEquals(4, resource.contentLength());
+        assertArrayEquals(new byte[]{'%', 'P', 'D', 'F'}, resource.getInputStream().readAllBytes());
+
+        cache.invalidate("a.pdf");
+        assertNull(cache.get("a.pdf"));
+        assertEquals(0, cache.getSizeBytes());
+    }
+
+    private Path pdfFile(String name, byte[] content) throws IOException {
+        Path file = tempFolder.newFile(name).toPath();
+        Files.write(file, content);
+        return file;
+    }
+}
@@ -0,0 +1,64 @@
+package org.assignment.service;
+
+import com.itextpdf.text.pdf.PdfReader;
+import com.itextpdf.text.pdf.parser.PdfTextExtractor;
+import org.assignment.domainmodel.Document;
+import org.assignment.mockdata.MockDocumentData;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+
+import static org.junit.Assert.*;
+
+public class NativeInvoiceRendererTest {
+
+    private final NativeInvoiceRenderer renderer = new NativeInvoiceRenderer();
+    private final MockDocumentData mockData = new MockDocumentData();
+
+    @Test
+    public void testRendersInvoiceContent() throws Exception {
+        Document document = mockData.createSampleDocument();
+
+        PdfReader reader = new PdfReader(render(document));
+        try {
+            String text = PdfTextExtractor.getTextFromPage(reader, 1);
+            assertTrue(text.contains("Seller:"));
+            assertTrue(text.contains(document.getSeller()));
+            assertTrue(text.contains("GSTIN: " + document.getBuyerGstin()));
+            assertTrue(text.contains(document.getItems().get(0).getName()));
+            assertTrue(text.contains(String.format("%.2f", document.getItems().get(0).getAmount())));
+        } finally {
+            reader.close();
+        }
+    }
+
+    @Test
+    public void testItemHeaderRepeatsOnEveryPage() throws Exception {
+        PdfReader reader = new PdfReader(render(mockData.createLargeDocument(2000)));
+        try {
+            assertTrue("2000 items should span several pages", reader.getNumberOfPages() > 1);
+            String lastPage = PdfTextExtractor.getTextFromPage(reader, reader.getNumberOfPages());
+            assertTrue("Item header should repeat", lastPage.contains("Quantity"));
+        } finally {
+            reader.close();
+        }
+    }
+
+    @Test
+    public void testNullFieldsRenderAsEmpty() throws Exception {
+        Document document = new Document();
+        assertTrue(render(document).length > 0);
+    }
+
+    @Test
+    public void testOnlyBuiltInTemplateSupported() {
+        assertTrue(renderer.supports("document"));
+        assertFalse(renderer.supports("custom"));
+    }
+
+    private byte[] render(Document document) throws Exception {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        renderer.render(document, outputStream);
+        return outputStream.toByteArray();
+    }
+}
@@ -0,0 +1,304 @@
+package org.assignment.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.time.Duration;
+import java.time.Instant;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.*;
+
+public class PackFileStorageTest {
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    private Path directory;
+    private PackFileStorage storage;
+
+    @Before
+    public void setUp() throws Exception {
+        directory = tempFolder.getRoot().toPath();
+        storage = open(1024);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        storage.close();
+    }
+
+    private PackFileStorage open(long maxSegmentBytes) throws Exception {
+        return open(maxSegmentBytes, new PdfMetrics(new SimpleMeterRegistry()));
+    }
+
+    private PackFileStorage open(long maxSegmentBytes, PdfMetrics pdfMetrics) throws Exception {
+        PackFileStorage opened = new PackFileStorage(directory, maxSegmentBytes, pdfMetrics);
+        assertTrue(opened.awaitIndexReady(Duration.ofSeconds(10)));
+        return opened;
+    }
+
+    private static String hash(String content) throws NoSuchAlgorithmException {
+        byte[] digest = MessageDigest.getInstance("SHA-256").digest(content.getBytes(StandardCharsets.UTF_8));
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(digest);
+    }
+
+    private String store(String content) throws Exception {
+        return storage.store(hash(content), null,
+                outputStream -> {
+                    try {
+                        outputStream.write(content.getBytes(StandardCharsets.UTF_8));
+                        outputStream.close();
+                    } catch (IOException e) {
+                        throw new IllegalStateException(e);
+                    }
+                });
+    }
+
+    private String read(String fileName) throws IOException {
+        return new String(storage.load(fileName).getContentAsByteArray(), StandardCharsets.UTF_8);
+    }
+
+    private long segmentCount() throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.filter(file -> file.toString().endsWith(".pack")).count();
+        }
+    }
+
+    @Test
+    public void testStoredPdfIsFoundAndLoaded() throws Exception {
+        String fileName = store("first pdf");
+
+        assertEquals(fileName, storage.find(hash("first pdf")));
+        assertTrue(storage.exists(fileName));
+        assertEquals("first pdf", read(fileName));
+        assertNull(storage.find(hash("not stored")));
+        assertFalse("Temp file should be removed after packing",
+                Files.exists(directory.resolve(fileName + ".tmp")));
+    }
+
+    @Test
+    public void testIndexIsRebuiltOnReopen() throws Exception {
+        String first = store("first pdf");
+        String second = store("second pdf");
+        storage.delete(first);
+        storage.close();
+
+        storage = open(1024);
+        assertFalse("Tombstoned PDF should stay deleted", storage.exists(first));
+        assertEquals("second pdf", read(second));
+        assertEquals(1, storage.getEntryCount());
+    }
+
+    @Test(expected = NoSuchFileException.class)
+    public void testDeletedPdfCannotBeLoaded() throws Exception {
+        String fileName = store("first pdf");
+        assertTrue(storage.delete(fileName));
+        assertFalse(storage.delete(fileName));
+        storage.load(fileName);
+    }
+
+    @Test
+    public void testCompactionReclaimsDeadSegments() throws Exception {
+        // Each PDF fills most of a segment, so every one goes to a new segment
+        String filler = "x".repeat(600);
+        String kept = store("kept " + filler);
+        String deleted = store("deleted " + filler);
+        String other = store("other " + filler);
+        store("active " + filler);
+        storage.delete(deleted);
+        assertEquals(4, segmentCount());
+
+        storage.compact();
+
+        assertEquals("Dead segment should be removed", 3, segmentCount());
+        assertEquals("kept " + filler, read(kept));
+        assertEquals("other " + filler, read(other));
+        assertFalse(storage.exists(deleted));
+
+        storage.close();
+        storage = open(1024);
+        assertFalse("Delete should survive compaction and reopen", storage.exists(deleted));
+        assertEquals("kept " + filler, read(kept));
+    }
+
+    @Test
+    public void testTornTailIsTruncated() throws Exception {
+        String first = store("first pdf");
+        String second = store("second pdf");
+        storage.close();
+
+        // Simulate a crash in the middle of the last append
+        Path segment = directory.resolve("segment-000001.pack");
+        long intactSize = Files.size(segment);
+        try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.WRITE)) {
+            channel.truncate(intactSize - 3);
+        }
+
+        storage = open(1024);
+        assertEquals("first pdf", read(first));
+        assertFalse("Torn record should be skipped", storage.exists(second));
+
+        String third = store("third pdf");
+        assertEquals("Appends should continue after the intact records", "third pdf", read(third));
+    }
+
+    @Test
+    public void testRecordFailingItsChecksumIsNotServed() throws Exception {
+        String first = store("first pdf");
+        String second = store("second pdf");
+        storage.close();
+
+        // Flip a byte of the last record's data, and add a zero-filled record after it
+        Path segment = directory.resolve("segment-000001.pack");
+        long intactSize = Files.size(segment);
+        try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            ByteBuffer data = ByteBuffer.allocate(1);
+            channel.read(data, intactSize - 2);
+            data.put(0, (byte) (data.get(0) ^ 0x01)).rewind();
+            channel.write(data, intactSize - 2);
+            channel.write(ByteBuffer.allocate(64), intactSize);
+        }
+
+        storage = open(1024);
+        assertEquals("first pdf", read(first));
+        assertFalse("Corrupt record should not be indexed", storage.exists(second));
+
+        String third = store("third pdf");
+        storage.close();
+        storage = open(1024);
+        assertEquals("Appends should replace the corrupt tail", "third pdf", read(third));
+        assertFalse(storage.exists(second));
+    }
+
+    @Test
+    public void testCorruptSealedSegmentIsCompactedAway() throws Exception {
+        String kept = store("kept pdf");
+        String corrupt = store("corrupt pdf");
+        store("active " + "x".repeat(900));
+        storage.close();
+
+        Path segment = directory.resolve("segment-000001.pack");
+        long size = Files.size(segment);
+        try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.WRITE)) {
+            channel.write(ByteBuffer.allocate(4), size - 4);
+        }
+
+        storage = open(1024);
+        assertFalse(storage.exists(corrupt));
+        assertEquals("Records before the corrupt one should be served", "kept pdf", read(kept));
+
+        storage.compact();
+        assertFalse("Corrupt segment should be compacted away", Files.exists(segment));
+        assertEquals("kept pdf", read(kept));
+    }
+
+    @Test
+    public void testSegmentOfOnlyTombstonesIsCompacted() throws Exception {
+        // Small segments: three PDFs fill the first, their three tombstones the second
+        storage.close();
+        storage = open(300);
+        String[] deleted = {store("pdf one"), store("pdf two"), store("pdf six")};
+        for (String fileName : deleted) {
+            storage.delete(fileName);
+        }
+        String kept = store("kept pdf");
+        assertEquals(3, segmentCount());
+
+        storage.compact();
+
+        assertEquals("Only the active segment should remain", 1, segmentCount());
+        assertEquals("kept pdf", read(kept));
+        storage.close();
+        storage = open(300);
+        for (String fileName : deleted) {
+            assertFalse(storage.exists(fileName));
+        }
+        assertEquals(1, storage.getEntryCount());
+    }
+
+    @Test
+    public void testStoredTimeSurvivesCompactionAndReopen() throws Exception {
+        String kept = store("kept pdf");
+        String deleted = store("deleted pdf");
+        store("active " + "x".repeat(900));
+        Instant storedAt = storage.stat(kept).storedAt();
+
+        // The first segment becomes mostly dead, so compaction moves the kept PDF into a newer segment
+        storage.delete(deleted);
+        Thread.sleep(20);
+        storage.compact();
+        assertFalse(Files.exists(directory.resolve("segment-000001.pack")));
+        storage.close();
+
+        storage = open(1024);
+        assertEquals("Retention should age the PDF from when it was stored", storedAt, storage.stat(kept).storedAt());
+    }
+
+    @Test
+    public void testConcurrentStoresAreAllPublishedAndSurviveReopen() throws Exception {
+        ExecutorService pool = Executors.newFixedThreadPool(8);
+        List<Future<String>> stores = new ArrayList<>();
+        try {
+            for (int i = 0; i < 64; i++) {
+                String content = "concurrent pdf " + i;
+                stores.add(pool.submit(() -> store(content)));
+            }
+            for (int i = 0; i < stores.size(); i++) {
+                assertEquals("concurrent pdf " + i, read(stores.get(i).get()));
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+        assertEquals(64, storage.getEntryCount());
+        assertTrue("Stores should have rolled over segments", segmentCount() > 1);
+
+        storage.close();
+        storage = open(1024);
+        assertEquals(64, storage.getEntryCount());
+        for (int i = 0; i < stores.size(); i++) {
+            assertEquals("concurrent pdf " + i, read(stores.get(i).get()));
+        }
+    }
+
+    @Test
+    public void testSegmentsAreLoadedInTheBackground() throws Exception {
+        String replaced = store("replaced pdf");
+        String kept = store("kept pdf");
+        storage.close();
+
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        storage = new PackFileStorage(directory, 1024, new PdfMetrics(registry));
+        // Whether or not the replay has caught up yet, its older records must not win
+        String stored = store("replaced pdf");
+        assertEquals(replaced, stored);
+        assertTrue(storage.delete(stored));
+        assertTrue(storage.awaitIndexReady(Duration.ofSeconds(10)));
+        assertTrue(storage.isIndexReady());
+        assertEquals(1, registry.get("pdf.storage.index.ready").timer().count());
+
+        assertFalse(storage.exists(replaced));
+        assertEquals("kept pdf", read(kept));
+        assertEquals(1, storage.getEntryCount());
+    }
+}
@@ -1,26 +1,43 @@
 package org.assignment.service;
 
+import com.itextpdf.text.pdf.PdfReader;
+import com.itextpdf.text.pdf.parser.PdfTextExtractor;
+import io.micrometer.core.instrument.MeterRegistry;
 import org.assignment.domainmodel.Document;
 import org.assignment.domainmodel.Item;
+import org.assignment.domainmodel.PdfOverlay;
 import org.assignment.exception.PdfGenerationException;
+import org.assignment.exception.StoredPdfNotFoundException;
 import org.assignment.mockdata.MockDocumentData;
 import org.junit.After;
 import org.junit.Before;
+import org.junit.ClassRule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 import org.junit.runner.RunWith;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.core.io.Resource;
 import java.io.File;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.nio.file.Paths;
 import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
 
 import static org.junit.Assert.*;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
 import org.springframework.test.context.junit4.SpringRunner;
 
 @RunWith(SpringRunner.class)
@@ -28,21 +45,38 @@ import org.springframework.test.context.junit4.SpringRunner;
 public class PdfGeneratorServiceTest {
     private static final Logger logger = LoggerFactory.getLogger(PdfGeneratorServiceTest.class);
 
+    // Stored PDFs go here rather than to the default storage path in the user's home directory
+    @ClassRule
+    public static TemporaryFolder storageFolder = new TemporaryFolder();
+
+    @DynamicPropertySource
+    static void storageProperties(DynamicPropertyRegistry registry) {
+        registry.add("pdf.storage.path", () -> storageFolder.getRoot().getPath());
+    }
+
     @Autowired
     private PdfGeneratorService pdfGeneratorService;
 
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Autowired
+    private HotPdfCache hotPdfCache;
+
+    @Autowired
+    private RenderLimiter renderLimiter;
+
     private MockDocumentData mockData;
 
     @Before
     public void setUp() throws IOException {
-        Files.createDirectories(Paths.get(PdfGeneratorService.PDF_STORAGE_PATH));
         mockData = new MockDocumentData();
         cleanUp(); // Start with a clean directory
     }
 
     @After
     public void cleanUp() throws IOException {
-        Files.walk(Paths.get(PdfGeneratorService.PDF_STORAGE_PATH))
+        Files.walk(storageFolder.getRoot().toPath())
                 .filter(Files::isRegularFile)
                 .map(Path::toFile)
                 .forEach(File::delete);
@@ -56,13 +90,49 @@ public class PdfGeneratorServiceTest {
         assertNotNull("Filename should not be null", fileName);
         assertTrue("Filename should contain seller GSTIN", fileName.contains(document.getSellerGstin()));
 
-        Path filePath = Paths.get(PdfGeneratorService.PDF_STORAGE_PATH, fileName);
+        Path filePath = storedFile(fileName);
         logger.info("File path returned: {}", filePath);
 
         assertTrue("Generated PDF file should exist: " + filePath, Files.exists(filePath));
         assertTrue("Generated PDF file should not be empty", Files.size(filePath) > 0);
     }
 
+    @Test
+    public void testStoredPdfIsCompleteAndNoTempFileRemains() throws Exception {
+        String fileName = pdfGeneratorService.generateAndStorePdf(mockData.createLargeDocument(500));
+
+        byte[] pdfBytes = Files.readAllBytes(storedFile(fileName));
+        String trailer = new String(pdfBytes, pdfBytes.length - 8, 8).trim();
+        assertTrue("Stored PDF should be complete", trailer.endsWith("%%EOF"));
+
+        try (Stream<Path> files = Files.list(storageFolder.getRoot().toPath())) {
+            assertFalse("Temp render file should have been renamed",
+                    files.anyMatch(file -> file.getFileName().toString().endsWith(".tmp")));
+        }
+    }
+
+    @Test
+    public void testLargeDocumentIsRenderedInChunks() throws Exception {
+        // Above the configured pdf.render.chunk-items of 1000
+        String fileName = pdfGeneratorService.generateAndStorePdf(mockData.createLargeDocument(2500));
+
+        PdfReader reader = new PdfReader(storedFile(fileName).toString());
+        try {
+            StringBuilder text = new StringBuilder();
+            for (int page = 1; page <= reader.getNumberOfPages(); page++) {
+                text.append(PdfTextExtractor.getTextFromPage(reader, page)).append('\n');
+            }
+            assertTrue("Party header should be on the first page",
+                    PdfTextExtractor.getTextFromPage(reader, 1).contains("Seller:"));
+            assertEquals("Party header should not repeat", text.indexOf("Seller:"), text.lastIndexOf("Seller:"));
+            assertTrue("Items from every chunk should be present",
+                    text.indexOf("Item 999 ") < text.indexOf("Item 1000 ")
+                            && text.indexOf("Item 1000 ") < text.indexOf("Item 2499 "));
+        } finally {
+            reader.close();
+        }
+    }
+
     @Test
     public void testRetrieveStoredPdf() throws PdfGenerationException {
         Document document = mockData.createSampleDocument();
@@ -72,10 +142,40 @@ public class PdfGeneratorServiceTest {
         assertNotNull("Retrieved PDF bytes should not be null", pdfBytes);
         assertTrue("Retrieved PDF bytes should not be empty", pdfBytes.length > 0);
 
-        Path filePath = Paths.get(PdfGeneratorService.PDF_STORAGE_PATH, fileName);
+        Path filePath = storedFile(fileName);
         assertTrue("Generated PDF file should exist: " + filePath, Files.exists(filePath));
     }
 
+    @Test
+    public void testHotCacheIsFilledOnFirstDownload() throws Exception {
+        Document document = mockData.createSampleDocument();
+        document.setSeller("Hot Cache Seller " + System.nanoTime());
+        String fileName = pdfGeneratorService.generateAndStorePdf(document);
+        assertNull("Storing a PDF should not read it back into the cache", hotPdfCache.get(fileName));
+
+        Resource pdf = pdfGeneratorService.loadStoredPdf(fileName);
+        assertFalse("The file should be read once, into the cache, not streamed again", pdf.isFile());
+        assertArrayEquals(Files.readAllBytes(storedFile(fileName)),
+                pdf.getContentAsByteArray());
+        assertNotNull(hotPdfCache.get(fileName));
+    }
+
+    @Test
+    public void testDeletedPdfIsNotServedFromHotCache() throws Exception {
+        Document document = mockData.createSampleDocument();
+        String fileName = pdfGeneratorService.generateAndStorePdf(document);
+        assertTrue(pdfGeneratorService.retrieveStoredPdf(fileName).length > 0);
+
+        Files.delete(storedFile(fileName));
+
+        try {
+            pdfGeneratorService.loadStoredPdf(fileName);
+            fail("A PDF deleted from disk should not be served from the cache");
+        } catch (PdfGenerationException e) {
+            assertTrue(e.getMessage().contains(fileName));
+        }
+    }
+
     @Test
     public void testCachingForIdenticalDocuments() throws PdfGenerationException {
         Document document1 = mockData.createSampleDocument();
@@ -99,6 +199,79 @@ public class PdfGeneratorServiceTest {
         assertNotEquals("Different documents should generate different files", fileName1, fileName2);
     }
 
+    @Test
+    public void testRenderersReusedAcrossSmallDocumentsKeepThemApart() throws Exception {
+        // More renders than render threads, so renderers are reused
+        for (int i = 0; i < 2 * Runtime.getRuntime().availableProcessors() + 2; i++) {
+            Document document = mockData.createSampleDocument();
+            document.setSeller("Reuse Seller " + i);
+            String fileName = pdfGeneratorService.generateAndStorePdf(document);
+
+            PdfReader reader = new PdfReader(storedFile(fileName).toString());
+            try {
+                assertEquals(1, reader.getNumberOfPages());
+                String text = PdfTextExtractor.getTextFromPage(reader, 1);
+                assertTrue(text.contains("Reuse Seller " + i));
+                assertFalse("Nothing of the previous document should be left", i > 0
+                        && text.contains("Reuse Seller " + (i - 1)));
+            } finally {
+                reader.close();
+            }
+        }
+    }
+
+    @Test
+    public void testConcurrentIdenticalRequestsShareOneRender() throws Exception {
+        int threads = 8;
+        long coalescedBefore = pdfGeneratorService.getCoalescedRequestCount();
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        CountDownLatch start = new CountDownLatch(1);
+        // Holds every render permit, so the render stays in flight until every request has joined it
+        CountDownLatch release = new CountDownLatch(1);
+        ExecutorService permitHolders = Executors.newCachedThreadPool();
+        try {
+            for (int i = 0; i < renderLimiter.getMaxConcurrent(); i++) {
+                permitHolders.submit(() -> {
+                    renderLimiter.render(RenderLimiter.Lane.SMALL, release::await);
+                    return null;
+                });
+            }
+            List<Future<String>> results = new ArrayList<>();
+            for (int i = 0; i < threads; i++) {
+                Document document = mockData.createLargeDocument();
+                results.add(executor.submit(() -> {
+                    start.await();
+                    return pdfGeneratorService.generateAndStorePdf(document);
+                }));
+            }
+            start.countDown();
+
+            long joinDeadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(30);
+            while (pdfGeneratorService.getCoalescedRequestCount() - coalescedBefore < threads - 1
+                    && System.nanoTime() < joinDeadline) {
+                Thread.sleep(10);
+            }
+            release.countDown();
+
+            Set<String> fileNames = new HashSet<>();
+            for (Future<String> result : results) {
+                fileNames.add(result.get(60, TimeUnit.SECONDS));
+            }
+            assertEquals("Concurrent identical requests should get the same filename", 1, fileNames.size());
+            assertEquals("Every request but the first should wait for its render", threads - 1,
+                    pdfGeneratorService.getCoalescedRequestCount() - coalescedBefore);
+
+            try (Stream<Path> files = Files.list(storageFolder.getRoot().toPath())) {
+                assertEquals("Only one PDF should be rendered for identical content",
+                        1, files.filter(path -> path.toString().endsWith(".pdf")).count());
+            }
+        } finally {
+            release.countDown();
+            executor.shutdownNow();
+            permitHolders.shutdown();
+        }
+    }
+
     @Test(expected = PdfGenerationException.class)
     public void testRetrieveNonExistentPdf() throws PdfGenerationException {
         pdfGeneratorService.retrieveStoredPdf("non_existent_file.pdf");
@@ -112,7 +285,7 @@ public class PdfGeneratorServiceTest {
         String fileName = pdfGeneratorService.generateAndStorePdf(document);
         assertNotNull(fileName);
 
-        Path filePath = Paths.get(PdfGeneratorService.PDF_STORAGE_PATH, fileName);
+        Path filePath = storedFile(fileName);
         assertTrue(Files.exists(filePath));
     }
 
@@ -126,7 +299,7 @@ public class PdfGeneratorServiceTest {
         String fileName = pdfGeneratorService.generateAndStorePdf(document);
         assertNotNull(fileName);
 
-        Path filePath = Paths.get(PdfGeneratorService.PDF_STORAGE_PATH, fileName);
+        Path filePath = storedFile(fileName);
         assertTrue(Files.exists(filePath));
     }
 
@@ -145,6 +318,21 @@ public class PdfGeneratorServiceTest {
                 fileName1, fileName2);
     }
 
+    @Test
+    public void testCachingIgnoresSurroundingWhitespaceAndGstinCase() throws PdfGenerationException {
+        Document document1 = mockData.createSampleDocument();
+        Document document2 = mockData.createSampleDocument();
+        document2.setSellerGstin("  " + document2.getSellerGstin().toLowerCase() + " ");
+        document2.setBuyer(document2.getBuyer() + "\t");
+        document2.getItems().get(1).setName(" " + document2.getItems().get(1).getName());
+
+        String fileName1 = pdfGeneratorService.generateAndStorePdf(document1);
+        String fileName2 = pdfGeneratorService.generateAndStorePdf(document2);
+
+        assertEquals("Semantically identical documents should be considered identical",
+                fileName1, fileName2);
+    }
+
     @Test
     public void testGeneratePdfWithLargeQuantity() throws PdfGenerationException {
         Document document = mockData.createSampleDocument();
@@ -153,7 +341,7 @@ public class PdfGeneratorServiceTest {
         String fileName = pdfGeneratorService.generateAndStorePdf(document);
         assertNotNull(fileName);
 
-        Path filePath = Paths.get(PdfGeneratorService.PDF_STORAGE_PATH, fileName);
+        Path filePath = storedFile(fileName);
         assertTrue(Files.exists(filePath));
     }
 
@@ -165,7 +353,7 @@ public class PdfGeneratorServiceTest {
         String fileName = pdfGeneratorService.generateAndStorePdf(document);
         assertNotNull(fileName);
 
-        Path filePath = Paths.get(PdfGeneratorService.PDF_STORAGE_PATH, fileName);
+        Path filePath = storedFile(fileName);
         assertTrue(Files.exists(filePath));
     }
 
@@ -188,6 +376,19 @@ public class PdfGeneratorServiceTest {
                 pdfGeneratorService.isValidDocument(document));
     }
 
+    @Test
+    public void testDocumentWithNonFiniteAmountIsInvalid() {
+        Document document = mockData.createSampleDocument();
+        document.getItems().get(0).setRate(Double.NaN);
+        assertFalse("Document with a NaN rate should be invalid",
+                pdfGeneratorService.isValidDocument(document));
+
+        document = mockData.createSampleDocument();
+        document.getItems().get(0).setAmount(Double.POSITIVE_INFINITY);
+        assertFalse("Document with an infinite amount should be invalid",
+                pdfGeneratorService.isValidDocument(document));
+    }
+
     @Test
     public void testDocumentWithOptionalFieldsMissing() {
         Document document = new Document();
@@ -208,4 +409,123 @@ public class PdfGeneratorServiceTest {
         assertTrue("Document with only required fields should be valid",
                 pdfGeneratorService.isValidDocument(document));
     }
-}
\ No newline at end of file
+
+    @Test
+    public void testVariantsAreStampedOntoASingleRender() throws Exception {
+        Document document = mockData.createSampleDocument();
+        double layouts = meterRegistry.get("pdf.generate.stage").tag("stage", "layout").timer().count();
+
+        document.setOverlay(copyLabel("ORIGINAL FOR RECIPIENT"));
+        String original = pdfGeneratorService.generateAndStorePdf(document);
+        document.setOverlay(copyLabel("DUPLICATE FOR TRANSPORTER"));
+        String duplicate = pdfGeneratorService.generateAndStorePdf(document);
+        document.setOverlay(null);
+        String base = pdfGeneratorService.generateAndStorePdf(document);
+
+        assertEquals("Only the base invoice should be laid out", layouts + 1,
+                meterRegistry.get("pdf.generate.stage").tag("stage", "layout").timer().count(), 0);
+        assertEquals(3, new HashSet<>(List.of(original, duplicate, base)).size());
+
+        assertTrue(pageText(original).contains("ORIGINAL FOR RECIPIENT"));
+        assertTrue(pageText(original).contains("Printed 2026-10-17 10:00"));
+        assertTrue(pageText(duplicate).contains("DUPLICATE FOR TRANSPORTER"));
+        assertTrue("Stamped copy should keep the invoice", pageText(duplicate).contains("Seller:"));
+        assertFalse(pageText(base).contains("ORIGINAL FOR RECIPIENT"));
+    }
+
+    @Test
+    public void testVariantIsCachedByOverlay() throws Exception {
+        Document document = mockData.createSampleDocument();
+        document.setOverlay(copyLabel("TRIPLICATE FOR SUPPLIER"));
+        String first = pdfGeneratorService.generateAndStorePdf(document);
+        double stamps = meterRegistry.get("pdf.generate.stage").tag("stage", "stamp").timer().count();
+
+        document.setOverlay(copyLabel("TRIPLICATE FOR SUPPLIER"));
+        assertEquals(first, pdfGeneratorService.generateAndStorePdf(document));
+        assertEquals("Cached variant should not be stamped again", stamps,
+                meterRegistry.get("pdf.generate.stage").tag("stage", "stamp").timer().count(), 0);
+
+        document.setOverlay(new PdfOverlay());
+        assertNotEquals("An empty overlay should give the plain invoice", first,
+                pdfGeneratorService.generateAndStorePdf(document));
+    }
+
+    @Test
+    public void testMergeCopiesStoredPagesInOrderWithoutRendering() throws Exception {
+        Document first = mockData.createSampleDocument();
+        first.setSeller("First Merge Seller");
+        Document second = mockData.createLargeDocument();
+        second.setSeller("Second Merge Seller");
+        String firstFileName = pdfGeneratorService.generateAndStorePdf(first);
+        String secondFileName = pdfGeneratorService.generateAndStorePdf(second);
+        double layouts = meterRegistry.get("pdf.generate.stage").tag("stage", "layout").timer().count();
+
+        String merged = pdfGeneratorService.mergeStoredPdfs(List.of(secondFileName, firstFileName));
+
+        assertEquals("Merging should not lay anything out", layouts,
+                meterRegistry.get("pdf.generate.stage").tag("stage", "layout").timer().count(), 0);
+        int secondPages = pageCount(secondFileName);
+        assertEquals(secondPages + pageCount(firstFileName), pageCount(merged));
+        assertTrue(pageText(merged).contains("Second Merge Seller"));
+        PdfReader reader = new PdfReader(storedFile(merged).toString());
+        try {
+            assertTrue(PdfTextExtractor.getTextFromPage(reader, secondPages + 1).contains("First Merge Seller"));
+        } finally {
+            reader.close();
+        }
+    }
+
+    @Test
+    public void testMergeIsCachedByTheOrderedInputs() throws Exception {
+        Document first = mockData.createSampleDocument();
+        first.setSeller("Cached Merge Seller A");
+        Document second = mockData.createSampleDocument();
+        second.setSeller("Cached Merge Seller B");
+        String firstFileName = pdfGeneratorService.generateAndStorePdf(first);
+        String secondFileName = pdfGeneratorService.generateAndStorePdf(second);
+
+        String merged = pdfGeneratorService.mergeStoredPdfs(List.of(firstFileName, secondFileName));
+        double merges = meterRegistry.get("pdf.generate.stage").tag("stage", "merge").timer().count();
+
+        assertEquals(merged, pdfGeneratorService.mergeStoredPdfs(List.of(firstFileName, secondFileName)));
+        assertEquals("Cached merge should not be copied again", merges,
+                meterRegistry.get("pdf.generate.stage").tag("stage", "merge").timer().count(), 0);
+        assertNotEquals("Another order is another merge", merged,
+                pdfGeneratorService.mergeStoredPdfs(List.of(secondFileName, firstFileName)));
+    }
+
+    @Test(expected = StoredPdfNotFoundException.class)
+    public void testMergeOfMissingPdfFails() throws Exception {
+        String fileName = pdfGeneratorService.generateAndStorePdf(mockData.createSampleDocument());
+        pdfGeneratorService.mergeStoredPdfs(List.of(fileName, "missing.pdf"));
+    }
+
+    private static String pageText(String fileName) throws IOException {
+        PdfReader reader = new PdfReader(storedFile(fileName).toString());
+        try {
+            return PdfTextExtractor.getTextFromPage(reader, 1);
+        } finally {
+            reader.close();
+        }
+    }
+
+    private static int pageCount(String fileName) throws IOException {
+        PdfReader reader = new PdfReader(storedFile(fileName).toString());
+        try {
+            return reader.getNumberOfPages();
+        } finally {
+            reader.close();
+        }
+    }
+
+    private static PdfOverlay copyLabel(String label) {
+        PdfOverlay overlay = new PdfOverlay();
+        overlay.setCopyLabel(label);
+        overlay.setFooter("Printed 2026-10-17 10:00");
+        return overlay;
+    }
+
+    private static Path storedFile(String fileName) {
+        return storageFolder.getRoot().toPath().resolve(fileName);
+    }
+}
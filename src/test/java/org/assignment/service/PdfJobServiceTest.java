@@ -0,0 +1,69 @@
+package org.assignment.service;
+
+import org.assignment.domainmodel.PdfJob;
+import org.assignment.exception.RenderQueueFullException;
+import org.assignment.mockdata.MockDocumentData;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.junit4.SpringRunner;
+
+import static org.junit.Assert.*;
+
+@RunWith(SpringRunner.class)
+@SpringBootTest
+public class PdfJobServiceTest {
+
+    @Autowired
+    private PdfGeneratorService pdfGeneratorService;
+
+    private final MockDocumentData mockData = new MockDocumentData();
+
+    @Test
+    public void testJobCompletesWithFileName() throws Exception {
+        PdfJobService jobService = new PdfJobService(pdfGeneratorService, 1, 10, 60);
+        try {
+            PdfJob job = jobService.submit(mockData.createSampleDocument());
+            assertNotNull("Job should have an id", job.getId());
+
+            PdfJob finished = awaitFinished(jobService, job.getId());
+            assertEquals(PdfJob.Status.COMPLETED, finished.getStatus());
+            assertNotNull("Completed job should carry the filename", finished.getFileName());
+        } finally {
+            jobService.shutdown();
+        }
+    }
+
+    @Test
+    public void testSubmitRejectedWhenQueueFull() throws Exception {
+        PdfJobService jobService = new PdfJobService(pdfGeneratorService, 1, 1, 60);
+        try {
+            // The first job occupies the only worker and the second fills the queue
+            jobService.submit(mockData.createLargeDocument(3000));
+            jobService.submit(mockData.createLargeDocument(3001));
+            assertEquals(1, jobService.getQueueDepth());
+
+            try {
+                jobService.submit(mockData.createSampleDocument());
+                fail("Submission should be rejected while the queue is full");
+            } catch (RenderQueueFullException e) {
+                assertTrue("Retry-After should be positive", e.getRetryAfterSeconds() > 0);
+            }
+            assertEquals(1L, jobService.getStats().get("rejectedJobs"));
+        } finally {
+            jobService.shutdown();
+        }
+    }
+
+    private static PdfJob awaitFinished(PdfJobService jobService, String jobId) throws InterruptedException {
+        for (int i = 0; i < 600; i++) {
+            PdfJob job = jobService.getJob(jobId);
+            if (job.isFinished()) {
+                return job;
+            }
+            Thread.sleep(100);
+        }
+        throw new AssertionError("Job did not finish: " + jobId);
+    }
+}
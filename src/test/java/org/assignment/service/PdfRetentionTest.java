@@ -0,0 +1,188 @@
+package org.assignment.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.assignment.domainmodel.Document;
+import org.assignment.mockdata.MockDocumentData;
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class PdfRetentionTest {
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    private final List<PdfStorage> opened = new ArrayList<>();
+    private final HotPdfCache hotPdfCache = new HotPdfCache(1);
+
+    @After
+    public void tearDown() throws IOException {
+        for (PdfStorage storage : opened) {
+            if (storage instanceof LooseFileStorage) {
+                ((LooseFileStorage) storage).close();
+            } else {
+                ((PackFileStorage) storage).close();
+            }
+        }
+    }
+
+    private LooseFileStorage openLoose(String layout) throws Exception {
+        LooseFileStorage storage = new LooseFileStorage(tempFolder.getRoot().toPath(), layout, null, 1,
+                new PdfMetrics(new SimpleMeterRegistry()));
+        opened.add(storage);
+        assertTrue(storage.awaitIndexReady(Duration.ofSeconds(10)));
+        return storage;
+    }
+
+    private static String hash(String content) throws Exception {
+        byte[] digest = MessageDigest.getInstance("SHA-256").digest(content.getBytes(StandardCharsets.UTF_8));
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(digest);
+    }
+
+    private static String store(PdfStorage storage, String content) throws Exception {
+        Document document = new MockDocumentData().createSampleDocument();
+        return storage.store(hash(content), document, outputStream -> {
+            try {
+                outputStream.write(content.getBytes(StandardCharsets.UTF_8));
+                outputStream.close();
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+        });
+    }
+
+    /**
+     * Backdates a stored file, wherever the layout put it.
+     */
+    private void storedAgo(String fileName, Duration age) throws IOException {
+        Path root = tempFolder.getRoot().toPath();
+        Path file = Files.exists(root.resolve(fileName)) ? root.resolve(fileName)
+                : root.resolve(fileName.substring(0, 2)).resolve(fileName.substring(2, 4)).resolve(fileName);
+        Files.setLastModifiedTime(file, FileTime.from(Instant.now().minus(age)));
+    }
+
+    @Test
+    public void testExpiredPdfsAreDeletedTogetherWithTheirIndexEntries() throws Exception {
+        LooseFileStorage storage = openLoose("flat");
+        String expired = store(storage, "expired invoice");
+        String recent = store(storage, "recent invoice");
+        storedAgo(expired, Duration.ofDays(100));
+
+        PdfRetention retention = new PdfRetention(storage, hotPdfCache, Duration.ofDays(90), 0, null);
+        assertEquals(1, retention.sweep());
+        assertEquals(1, retention.getExpiredEvictionCount());
+
+        assertNull("Index should not point at a deleted PDF", storage.find(hash("expired invoice")));
+        assertFalse(storage.exists(expired));
+        assertEquals(recent, storage.find(hash("recent invoice")));
+        assertEquals(1, storage.getEntryCount());
+
+        storage.close();
+        opened.remove(storage);
+        LooseFileStorage reopened = openLoose("flat");
+        assertEquals("Removal should survive a restart", 1, reopened.getEntryCount());
+    }
+
+    @Test
+    public void testLeastRecentlyUsedPdfsAreDeletedOverQuota() throws Exception {
+        LooseFileStorage storage = openLoose("content-addressed");
+        String oldButUsed = store(storage, "a".repeat(100));
+        String leastRecentlyUsed = store(storage, "b".repeat(100));
+        String newest = store(storage, "c".repeat(100));
+        storedAgo(oldButUsed, Duration.ofHours(3));
+        storedAgo(leastRecentlyUsed, Duration.ofHours(2));
+        storedAgo(newest, Duration.ofHours(1));
+
+        PdfRetention retention = new PdfRetention(storage, hotPdfCache, null, 250, null);
+        retention.recordAccess(oldButUsed);
+        assertEquals(1, retention.sweep());
+
+        assertFalse(storage.exists(leastRecentlyUsed));
+        assertTrue("Recently used PDF should be kept", storage.exists(oldButUsed));
+        assertTrue(storage.exists(newest));
+        assertEquals(1, retention.getQuotaEvictionCount());
+        assertEquals(200, retention.getStoredBytes());
+
+        assertEquals("Storage within its limits should be left alone", 0, retention.sweep());
+    }
+
+    @Test
+    public void testLastAccessSurvivesARestart() throws Exception {
+        LooseFileStorage storage = openLoose("content-addressed");
+        String oldButUsed = store(storage, "a".repeat(100));
+        String leastRecentlyUsed = store(storage, "b".repeat(100));
+        storedAgo(oldButUsed, Duration.ofHours(2));
+        storedAgo(leastRecentlyUsed, Duration.ofHours(1));
+        Path accessDirectory = tempFolder.newFolder("access").toPath();
+
+        PdfRetention retention = new PdfRetention(storage, hotPdfCache, null, 1000, null, accessDirectory, "node");
+        retention.recordAccess(oldButUsed);
+        retention.shutdown();
+
+        PdfRetention restarted = new PdfRetention(storage, hotPdfCache, null, 150, null, accessDirectory, "node");
+        assertEquals(1, restarted.sweep());
+        assertTrue("Access before the restart should still count", storage.exists(oldButUsed));
+        assertFalse(storage.exists(leastRecentlyUsed));
+    }
+
+    @Test
+    public void testPdfsUsedOnAnotherNodeAreNotEvictedFirst() throws Exception {
+        LooseFileStorage storage = openLoose("content-addressed");
+        String usedElsewhere = store(storage, "a".repeat(100));
+        String leastRecentlyUsed = store(storage, "b".repeat(100));
+        storedAgo(usedElsewhere, Duration.ofHours(2));
+        storedAgo(leastRecentlyUsed, Duration.ofHours(1));
+        Path accessDirectory = tempFolder.newFolder("access").toPath();
+
+        PdfRetention nodeA = new PdfRetention(storage, hotPdfCache, null, 1000, null, accessDirectory, "node-a");
+        PdfRetention nodeB = new PdfRetention(storage, hotPdfCache, null, 150, null, accessDirectory, "node-b");
+        nodeA.recordAccess(usedElsewhere);
+        assertEquals(0, nodeA.sweep());
+
+        assertEquals(1, nodeB.sweep());
+        assertTrue("Access on another node should count", storage.exists(usedElsewhere));
+        assertFalse(storage.exists(leastRecentlyUsed));
+    }
+
+    @Test
+    public void testPackedPdfsAreDeletedOverQuota() throws Exception {
+        PackFileStorage storage = new PackFileStorage(tempFolder.newFolder("packs").toPath(), 1024 * 1024,
+                new PdfMetrics(new SimpleMeterRegistry()));
+        opened.add(storage);
+        String first = store(storage, "x".repeat(100));
+        Thread.sleep(10);
+        String second = store(storage, "y".repeat(100));
+
+        PdfRetention retention = new PdfRetention(storage, hotPdfCache, null, 150, null);
+        assertEquals(1, retention.sweep());
+
+        assertFalse(storage.exists(first));
+        assertNull(storage.find(hash("x".repeat(100))));
+        assertTrue(storage.exists(second));
+    }
+
+    @Test
+    public void testWithoutLimitsNothingIsDeleted() throws Exception {
+        LooseFileStorage storage = openLoose("flat");
+        String fileName = store(storage, "kept invoice");
+        storedAgo(fileName, Duration.ofDays(1000));
+
+        assertEquals(0, new PdfRetention(storage, hotPdfCache, null, 0, null).sweep());
+        assertTrue(storage.exists(fileName));
+    }
+}
@@ -0,0 +1,31 @@
+package org.assignment.service;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.availability.ApplicationAvailability;
+import org.springframework.boot.availability.ReadinessState;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.junit4.SpringRunner;
+
+import static org.junit.Assert.*;
+
+@RunWith(SpringRunner.class)
+@SpringBootTest(properties = {"pdf.warmup.enabled=true", "pdf.warmup.renders=2", "pdf.warmup.items=5"})
+public class PdfWarmupTest {
+
+    @Autowired
+    private ApplicationAvailability applicationAvailability;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Test
+    public void testRenderingIsWarmedUpBeforeReadinessWithoutStoring() {
+        assertEquals(ReadinessState.ACCEPTING_TRAFFIC, applicationAvailability.getReadinessState());
+        assertEquals(2, meterRegistry.get("pdf.generate.stage").tag("stage", "layout").timer().count());
+        assertEquals("Warm-up should not store PDFs", 0,
+                meterRegistry.get("pdf.output.size").summary().count());
+    }
+}
@@ -0,0 +1,110 @@
+package org.assignment.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.assignment.domainmodel.Document;
+import org.assignment.exception.RenderTimeoutException;
+import org.assignment.mockdata.MockDocumentData;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.MediaType;
+import org.springframework.test.context.junit4.SpringRunner;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+import org.springframework.test.web.servlet.ResultActions;
+
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.asyncDispatch;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.request;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+@RunWith(SpringRunner.class)
+@SpringBootTest(properties = {"pdf.render.timeout-seconds=1", "pdf.render.chunk-items=200"})
+@AutoConfigureMockMvc
+public class RenderDeadlineTest {
+
+    @Autowired
+    private PdfGeneratorService pdfGeneratorService;
+
+    @Autowired
+    private RenderLimiter renderLimiter;
+
+    @Autowired
+    private RenderQuarantine renderQuarantine;
+
+    @Autowired
+    private MockMvc mockMvc;
+
+    /**
+     * Far more items than can be rendered in a second, with content no earlier run has stored. Each chunk of it
+     * renders well within the deadline, so only a deadline for the whole request can stop it.
+     */
+    private static Document expensiveDocument() {
+        Document document = new MockDocumentData().createLargeDocument(20000);
+        document.setSeller("Deadline Seller " + UUID.randomUUID());
+        return document;
+    }
+
+    private ResultActions generate(String documentJson) throws Exception {
+        MvcResult asyncResult = mockMvc.perform(post("/pdf/generate")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(documentJson))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+        return mockMvc.perform(asyncDispatch(asyncResult));
+    }
+
+    @Test
+    public void testRenderPastDeadlineIsStoppedAndQuarantined() throws Exception {
+        Document document = expensiveDocument();
+
+        long start = System.nanoTime();
+        try {
+            pdfGeneratorService.generateAndStorePdf(document);
+            fail("Render should have exceeded its deadline");
+        } catch (RenderTimeoutException e) {
+            assertTrue("Caller should not wait for the full render",
+                    System.nanoTime() - start < TimeUnit.SECONDS.toNanos(3));
+        }
+
+        long stopDeadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (renderLimiter.getActiveRenders() > 0 && System.nanoTime() < stopDeadline) {
+            Thread.sleep(10);
+        }
+        assertEquals("Render should actually stop and release its permit", 0, renderLimiter.getActiveRenders());
+
+        start = System.nanoTime();
+        try {
+            pdfGeneratorService.generateAndStorePdf(document);
+            fail("Quarantined document should be refused");
+        } catch (RenderTimeoutException e) {
+            assertTrue("Quarantined document should fail fast",
+                    System.nanoTime() - start < TimeUnit.MILLISECONDS.toNanos(500));
+            assertTrue(e.getMessage().contains("refused"));
+        }
+    }
+
+    @Test
+    public void testControllerReportsRenderTimeoutDistinctly() throws Exception {
+        String documentJson = new ObjectMapper().writeValueAsString(expensiveDocument());
+        int quarantined = renderQuarantine.size();
+
+        generate(documentJson)
+                .andExpect(status().isUnprocessableEntity());
+        assertEquals(quarantined + 1, renderQuarantine.size());
+
+        generate(documentJson)
+                .andExpect(status().isUnprocessableEntity());
+    }
+
+    @Test
+    public void testDocumentWithinDeadlineIsRendered() throws Exception {
+        assertNotNull(pdfGeneratorService.generateAndStorePdf(new MockDocumentData().createSampleDocument()));
+    }
+}
@@ -0,0 +1,313 @@
+package org.assignment.service;
+
+import org.assignment.domainmodel.Document;
+import org.assignment.domainmodel.Item;
+import org.assignment.exception.RenderTimeoutException;
+import org.assignment.mockdata.MockDocumentData;
+import org.assignment.service.RenderLimiter.Lane;
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class RenderLimiterTest {
+
+    private RenderLimiter renderLimiter = limiter(2, 1, 4, 1, Duration.ofSeconds(10));
+    private final ExecutorService callers = Executors.newCachedThreadPool();
+
+    @After
+    public void tearDown() {
+        callers.shutdownNow();
+        renderLimiter.shutdown();
+    }
+
+    private static RenderLimiter limiter(int maxConcurrent, int largeMaxConcurrent, int smallWeight,
+                                         int largeWeight, Duration maxWait) {
+        return new RenderLimiter(maxConcurrent, 200, 20000, 0, smallWeight, largeMaxConcurrent, largeWeight,
+                maxWait);
+    }
+
+    private Future<?> submit(Lane lane, RenderLimiter.RenderTask task) {
+        return callers.submit(() -> {
+            renderLimiter.render(lane, task);
+            return null;
+        });
+    }
+
+    private void awaitWaiting(Lane lane, int count) throws InterruptedException {
+        while (renderLimiter.getWaitingRenders(lane) < count) {
+            Thread.sleep(5);
+        }
+    }
+
+    private void awaitActive(int count) throws InterruptedException {
+        while (renderLimiter.getActiveRenders() < count) {
+            Thread.sleep(5);
+        }
+    }
+
+    @Test
+    public void testConcurrentRendersAreBoundedByPermits() throws Exception {
+        AtomicInteger running = new AtomicInteger();
+        AtomicInteger maxRunning = new AtomicInteger();
+
+        List<Future<?>> results = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            results.add(submit(Lane.SMALL, () -> {
+                maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+                Thread.sleep(50);
+                running.decrementAndGet();
+            }));
+        }
+        for (Future<?> result : results) {
+            result.get(10, TimeUnit.SECONDS);
+        }
+
+        assertEquals("No more renders than permits should run at once", 2, maxRunning.get());
+        assertEquals(8, renderLimiter.getStartedRenderCount(Lane.SMALL));
+    }
+
+    @Test(expected = IOException.class)
+    public void testRenderExceptionIsRethrownUnwrapped() throws Exception {
+        renderLimiter.render(Lane.SMALL, () -> {
+            throw new IOException("Disk full");
+        });
+    }
+
+    @Test
+    public void testInterruptedCallerCancelsQueuedRender() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        for (int i = 0; i < renderLimiter.getMaxConcurrent(); i++) {
+            submit(Lane.SMALL, release::await);
+        }
+        awaitActive(renderLimiter.getMaxConcurrent());
+
+        AtomicInteger queuedRenders = new AtomicInteger();
+        CountDownLatch gaveUp = new CountDownLatch(1);
+        Future<?> waiting = callers.submit(() -> {
+            try {
+                renderLimiter.render(Lane.SMALL, queuedRenders::incrementAndGet);
+            } finally {
+                gaveUp.countDown();
+            }
+            return null;
+        });
+        awaitWaiting(Lane.SMALL, 1);
+        waiting.cancel(true);
+        assertTrue(gaveUp.await(5, TimeUnit.SECONDS));
+        assertEquals("Cancelled render should leave the queue", 0, renderLimiter.getWaitingRenders());
+        release.countDown();
+
+        Thread.sleep(100);
+        assertEquals("Render of an interrupted caller should not run", 0, queuedRenders.get());
+    }
+
+    @Test
+    public void testRenderPastDeadlineIsStopped() throws Exception {
+        AtomicInteger stopped = new AtomicInteger();
+        long start = System.nanoTime();
+        try {
+            renderLimiter.render(Lane.SMALL, Duration.ofMillis(100), () -> {
+                try {
+                    while (true) {
+                        RenderCancellation.check();
+                    }
+                } finally {
+                    stopped.incrementAndGet();
+                }
+            });
+            fail("Render should have been stopped");
+        } catch (RenderTimeoutException e) {
+            assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(5));
+        }
+
+        while (renderLimiter.getActiveRenders() > 0) {
+            Thread.sleep(5);
+        }
+        assertEquals("Render should have stopped working", 1, stopped.get());
+        assertEquals(1, renderLimiter.getTimedOutRenderCount());
+
+        renderLimiter.render(Lane.SMALL, Duration.ofSeconds(5), () -> Thread.sleep(10));
+        assertEquals("A render within its deadline should not time out", 1, renderLimiter.getTimedOutRenderCount());
+    }
+
+    @Test
+    public void testRendersSharingADeadlineGetOnlyTheTimeLeft() throws Exception {
+        RenderLimiter.Deadline deadline = new RenderLimiter.Deadline(Duration.ofMillis(300));
+        renderLimiter.render(Lane.SMALL, deadline, () -> Thread.sleep(200));
+
+        long start = System.nanoTime();
+        try {
+            renderLimiter.render(Lane.SMALL, deadline, () -> Thread.sleep(5000));
+            fail("Second render should have run out of the shared deadline");
+        } catch (RenderTimeoutException e) {
+            assertTrue("Second render should only get what the first left",
+                    System.nanoTime() - start < TimeUnit.MILLISECONDS.toNanos(1000));
+        }
+
+        AtomicInteger ran = new AtomicInteger();
+        try {
+            renderLimiter.render(Lane.SMALL, deadline, ran::incrementAndGet);
+            fail("Render should not start once the deadline has passed");
+        } catch (RenderTimeoutException e) {
+            assertEquals(0, ran.get());
+        }
+        assertEquals(2, renderLimiter.getTimedOutRenderCount());
+    }
+
+    @Test
+    public void testTimeWithoutAPermitDoesNotCountAgainstTheDeadline() throws Exception {
+        RenderLimiter.Deadline deadline = new RenderLimiter.Deadline(Duration.ofMillis(300));
+        renderLimiter.render(Lane.SMALL, deadline, () -> Thread.sleep(100));
+        // Between the stages of a request
+        Thread.sleep(400);
+
+        CountDownLatch release = new CountDownLatch(1);
+        for (int i = 0; i < renderLimiter.getMaxConcurrent(); i++) {
+            submit(Lane.SMALL, release::await);
+        }
+        awaitActive(renderLimiter.getMaxConcurrent());
+        Future<?> queued = callers.submit(() -> {
+            renderLimiter.render(Lane.SMALL, deadline, () -> Thread.sleep(100));
+            return null;
+        });
+        awaitWaiting(Lane.SMALL, 1);
+        // Waiting for a permit
+        Thread.sleep(400);
+        release.countDown();
+
+        queued.get(5, TimeUnit.SECONDS);
+        assertEquals("Only rendering time should count", 0, renderLimiter.getTimedOutRenderCount());
+    }
+
+    @Test
+    public void testSmallRendersAreNotStuckBehindLargeOnes() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        try {
+            for (int i = 0; i < 4; i++) {
+                submit(Lane.LARGE, release::await);
+            }
+            awaitWaiting(Lane.LARGE, 3);
+            assertEquals("Large lane should be held to its cap", 1, renderLimiter.getActiveRenders(Lane.LARGE));
+
+            submit(Lane.SMALL, () -> { }).get(5, TimeUnit.SECONDS);
+        } finally {
+            release.countDown();
+        }
+    }
+
+    @Test
+    public void testLargeLaneCannotTakeEveryPermitOnOneCore() throws Exception {
+        renderLimiter.shutdown();
+        renderLimiter = limiter(1, 0, 4, 1, Duration.ofSeconds(10));
+        assertEquals(1, renderLimiter.getMaxConcurrent(Lane.LARGE));
+        assertEquals("One permit should be kept for small invoices", 2, renderLimiter.getMaxConcurrent());
+
+        CountDownLatch release = new CountDownLatch(1);
+        try {
+            submit(Lane.LARGE, release::await);
+            submit(Lane.LARGE, release::await);
+            awaitWaiting(Lane.LARGE, 1);
+
+            submit(Lane.SMALL, () -> { }).get(5, TimeUnit.SECONDS);
+        } finally {
+            release.countDown();
+        }
+    }
+
+    @Test
+    public void testFreePermitsAreSharedByWeight() throws Exception {
+        renderLimiter.shutdown();
+        renderLimiter = limiter(2, 1, 2, 1, Duration.ofSeconds(10));
+        List<Lane> startOrder = Collections.synchronizedList(new ArrayList<>());
+
+        // Hold both permits, then free one so the queued renders go through a single permit in turn
+        CountDownLatch releaseFirst = new CountDownLatch(1);
+        CountDownLatch releaseSecond = new CountDownLatch(1);
+        submit(Lane.SMALL, releaseFirst::await);
+        submit(Lane.SMALL, releaseSecond::await);
+        awaitActive(2);
+        List<Future<?>> results = new ArrayList<>();
+        for (int i = 0; i < 6; i++) {
+            results.add(submit(Lane.SMALL, () -> startOrder.add(Lane.SMALL)));
+        }
+        for (int i = 0; i < 3; i++) {
+            results.add(submit(Lane.LARGE, () -> startOrder.add(Lane.LARGE)));
+        }
+        awaitWaiting(Lane.SMALL, 6);
+        awaitWaiting(Lane.LARGE, 3);
+
+        releaseFirst.countDown();
+        try {
+            for (Future<?> result : results) {
+                result.get(5, TimeUnit.SECONDS);
+            }
+        } finally {
+            releaseSecond.countDown();
+        }
+
+        assertEquals("Large renders should get one permit in three",
+                List.of(Lane.SMALL, Lane.LARGE, Lane.SMALL, Lane.SMALL, Lane.LARGE, Lane.SMALL,
+                        Lane.SMALL, Lane.LARGE, Lane.SMALL), startOrder);
+    }
+
+    @Test
+    public void testLongWaitingRenderIsPromoted() throws Exception {
+        // A zero weight large lane only gets a contended permit once its render has waited too long
+        renderLimiter.shutdown();
+        renderLimiter = limiter(2, 1, 1, 0, Duration.ofMillis(50));
+        List<Lane> startOrder = Collections.synchronizedList(new ArrayList<>());
+
+        CountDownLatch releaseFirst = new CountDownLatch(1);
+        CountDownLatch releaseSecond = new CountDownLatch(1);
+        submit(Lane.SMALL, releaseFirst::await);
+        submit(Lane.SMALL, releaseSecond::await);
+        awaitActive(2);
+        List<Future<?>> results = new ArrayList<>();
+        results.add(submit(Lane.LARGE, () -> startOrder.add(Lane.LARGE)));
+        // Queued first, so it is the render that has waited longest
+        awaitWaiting(Lane.LARGE, 1);
+        for (int i = 0; i < 10; i++) {
+            results.add(submit(Lane.SMALL, () -> startOrder.add(Lane.SMALL)));
+        }
+        awaitWaiting(Lane.SMALL, 10);
+        Thread.sleep(100);
+
+        releaseFirst.countDown();
+        try {
+            for (Future<?> result : results) {
+                result.get(5, TimeUnit.SECONDS);
+            }
+        } finally {
+            releaseSecond.countDown();
+        }
+
+        assertEquals("Starved render should go first", Lane.LARGE, startOrder.get(0));
+        assertEquals(1, renderLimiter.getPromotedRenderCount());
+        assertTrue("Queue time should be recorded per lane", renderLimiter.getTotalWaitMillis(Lane.LARGE) >= 100);
+    }
+
+    @Test
+    public void testDocumentsAreClassifiedByItemCountAndText() {
+        MockDocumentData mockData = new MockDocumentData();
+        assertEquals(Lane.SMALL, renderLimiter.laneFor(mockData.createSampleDocument()));
+        assertEquals(Lane.LARGE, renderLimiter.laneFor(mockData.createLargeDocument(200)));
+
+        Document verbose = mockData.createSampleDocument();
+        Item item = verbose.getItems().get(0);
+        item.setName("x".repeat(20000));
+        assertEquals("Long item text should count as large", Lane.LARGE, renderLimiter.laneFor(verbose));
+    }
+}